@@ -137,6 +137,12 @@ public class Accidental implements Cloneable, Serializable {
 		setValue(fraction.floatValue());
 	}
 
+	/** Returns the fraction this accidental has been created with,
+	 * <TT>null</TT> if none. */
+	Fraction getFraction() {
+		return m_fraction;
+	}
+
 	public boolean equals(Object o) {
 		if (o instanceof Accidental) {
 			return ((Accidental) o).getValue() == getValue();
@@ -132,6 +132,11 @@ public class Chord extends Annotation implements Cloneable {
 			}
 		}
 	}
+
+	/** Returns the name this chord has been created with */
+	String getChordName() {
+		return m_chordName;
+	}
 	
 	/**
 	 * Returns the note of the chord, <TT>null</TT> if no
@@ -339,6 +339,19 @@ public class Clef extends MusicElement implements Cloneable {
 		m_semitoneTransposition = (byte) semitoneTranspo;
 		setStaffLines((byte)staffLines);
 	}
+
+	/** Creates a clef with the values of an existing one, without
+	 * any check, see {@link TuneCodec}. */
+	Clef(String name, byte lineNumber, byte octaveTranspo,
+			byte invisibleOctaveTranspo, byte semitoneTranspo,
+			byte staffLines) {
+		m_clefName = name;
+		m_lineNumber = lineNumber;
+		m_octaveTransposition = octaveTranspo;
+		m_invisibleOctaveTransp = invisibleOctaveTranspo;
+		m_semitoneTransposition = semitoneTranspo;
+		m_staffLines = staffLines;
+	}
 	
 	/**
 	 * Returns the reference note, <TT>G</TT> for G clef,
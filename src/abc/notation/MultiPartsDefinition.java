@@ -42,6 +42,10 @@ public class MultiPartsDefinition extends RepeatedPartAbstract implements Clonea
   public void addPart(RepeatedPartAbstract p)
   { m_parts.addElement(p); }
 
+  /** Returns the parts added to this multi part, in their order. */
+  Vector<RepeatedPartAbstract> getParts()
+  { return m_parts; }
+
   /** Returns this multipart as an array of singles parts. The playing of the
    * multi part would sound the same as the playing of the array of parts.
    * @return An array of singles parts that would sound the same as the
@@ -22,8 +22,6 @@ import java.util.Iterator;
 import java.util.TreeMap;
 import java.util.Vector;
 
-import abc.parser.CharStreamPosition;
-import abc.parser.PositionableInCharStream;
 
 /**
  * A Music is a collection of {@link abc.notation.Voice}s
@@ -38,6 +36,9 @@ public class Music implements Cloneable, Serializable {
 
 	protected transient NoteAbstract lastNote = null;
 
+	/** Built on request, and again after changes of the voices */
+	private transient StreamPositionIndex m_streamIndex = null;
+
 	private TreeMap<Short, Bar> m_bars = new TreeMap<Short, Bar>();
 
 	private short m_firstBarNumber = 1;
@@ -187,7 +188,8 @@ public class Music implements Cloneable, Serializable {
 		Object o = super.clone();
 		((Music) o).m_bars = (TreeMap<Short, Bar>) m_bars.clone();
 		((Music) o).m_voices = (Vector<Voice>) m_voices.clone();
-		((Music) o).m_instructions = (ArrayList<Instruction>) m_instructions.clone();
+		if (m_instructions != null)
+			((Music) o).m_instructions = (ArrayList<Instruction>) m_instructions.clone();
 		return o;
 	}
 
@@ -214,24 +216,12 @@ public class Music implements Cloneable, Serializable {
 	 * than in Music object
 	 */
 	public MusicElement getElementAtStreamPosition(int offset) {
-		CharStreamPosition pos;
-		for (Voice v : m_voices) {
-			int size = v.size();
-			MusicElement current = null;
-			for (int i = 0; i < size; i++) {
-				current = (MusicElement) v.elementAt(i);
-				if (current instanceof PositionableInCharStream) {
-					pos = ((PositionableInCharStream) current)
-						.getCharStreamPosition();
-					if (pos != null) {
-						if ((pos.getStartIndex() <= offset)
-								&& (pos.getEndIndex() > offset))
-							return current;
-					}
-				}
-			}
+		StreamPositionIndex index = m_streamIndex;
+		if ((index == null) || !index.isValid(m_voices)) {
+			index = new StreamPositionIndex(m_voices);
+			m_streamIndex = index;
 		}
-		return null;
+		return index.getElementAt(offset);
 	}
 	
 	public boolean voiceExists(String voiceId) {
@@ -249,12 +239,8 @@ public class Music implements Cloneable, Serializable {
 	 * @return
 	 */
 	public MusicElement getElementByReference(MusicElementReference ref) {
-		if (voiceExists(ref.getVoice())) {
-			for (MusicElement element : getVoice(ref.getVoice())) {
-				if (element.getReference().equals(ref))
-					return element;
-			}
-		}
+		if (voiceExists(ref.getVoice()))
+			return getVoice(ref.getVoice()).getElementByReference(ref);
 		return null;
 	}
 
@@ -17,6 +17,7 @@ package abc.notation;
 
 import java.io.Serializable;
 
+import abc.parser.CharStreamPosition;
 import abc.parser.PositionableInCharStream;
 
 /**
@@ -38,6 +39,11 @@ public abstract class MusicElement
 		return _reference;
 	}
 
+	/** Sets the position of an element read by {@link TuneCodec} */
+	void restoreCharStreamPosition(CharStreamPosition csp) {
+		setCharStreamPosition(csp);
+	}
+
 	public Object clone() throws CloneNotSupportedException {
 		Object o = super.clone();
 		((MusicElement) o)._reference = (MusicElementReference) _reference
@@ -1253,6 +1253,7 @@ public class Note extends NoteAbstract implements Cloneable {
 			m_accidental = Accidental.NONE;
 		else
 			m_accidental = accidental;
+		heightChanged();
 		return this;
 	}
 
@@ -1285,6 +1286,7 @@ public class Note extends NoteAbstract implements Cloneable {
 		super.setDotted(dotsNb);
 		// Re init the whole duration => will be computed later on request only.
 		m_duration = -1;
+		durationChanged();
 	}
 
 	/**
@@ -1301,6 +1303,7 @@ public class Note extends NoteAbstract implements Cloneable {
 	 */
 	public void setDuration(short duration) {
 		m_duration = duration;
+		durationChanged();
 		System.err.println("[warning]duration of " + this
 				+ " set in an absolute manner with " + duration
 				+ "(not recommanded but supported)");
@@ -1326,6 +1329,7 @@ public class Note extends NoteAbstract implements Cloneable {
 		if (m_strictHeight < 0 && m_strictHeight != REST)
 			throw new IllegalArgumentException("negative : " + m_strictHeight);
 		m_octaveTransposition = getOctaveTransposition(heightValue);
+		heightChanged();
 		// if (isRest())
 		// setIsLastOfGroup(false);
 		// System.out.println(heightValue + " decomposed into " + strictHeight +
@@ -1365,6 +1369,7 @@ public class Note extends NoteAbstract implements Cloneable {
 	 */
 	public void setLength(short length) {
 		m_duration = length;
+		durationChanged();
 	}
 
 	/**
@@ -1378,6 +1383,7 @@ public class Note extends NoteAbstract implements Cloneable {
 	public Note setOctaveTransposition(byte octaveTranspositionValue) {
 		// byte strictHeight = getStrictHeight();
 		m_octaveTransposition = octaveTranspositionValue;
+		heightChanged();
 		// strictHeight = (byte)(strictHeight + octaveTransposition * 12);
 		return this;
 	}
@@ -1412,6 +1418,7 @@ public class Note extends NoteAbstract implements Cloneable {
 							+ "Note.THIRTY_SECOND or Note.SIXTY_FOURTH");
 		// Re init the whole duration => will be computed later on request only.
 		m_duration = -1;
+		durationChanged();
 		return this;
 	}
 
@@ -283,6 +283,7 @@ public abstract class NoteAbstract extends PositionableInTime implements
 	 */
 	public void setDotted(byte dotsNumber) {
 		m_dotted = dotsNumber;
+		durationChanged();
 	}
 
 	/**
@@ -371,6 +372,7 @@ public abstract class NoteAbstract extends PositionableInTime implements
 	 */
 	void setTuplet(Tuplet tuplet) {
 		m_tuplet = tuplet;
+		durationChanged();
 	}
 
 	/**
@@ -0,0 +1,121 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+/**
+ * Finds the highest (or lowest) note between two indexes of a voice in
+ * constant time, for {@link Voice#getHighestNoteBewteen(MusicElement, MusicElement)}
+ * and {@link Voice#getLowestNoteBewteen(MusicElement, MusicElement)}.
+ * <p>
+ * This is a sparse table: for each index i and each power of two 2<sup>k</sup>,
+ * the index of the highest note between i and i+2<sup>k</sup>-1. A range is
+ * covered by two of these intervals. When several notes have the same
+ * height, the first one is found.
+ * <p>
+ * The heights are read when the table is built, the voice builds it again
+ * after it has been changed, or after the height of one of its notes has
+ * changed.
+ */
+class NoteHeightTable {
+
+	/** Value of elements which are not notes, or rests */
+	private static final int NONE = Integer.MIN_VALUE;
+
+	private final boolean m_highest;
+
+	/** The count of height changes of the voice when this table is built */
+	private final int m_heightChanges;
+
+	/** Heights, negated for the lowest notes so that the max is searched */
+	private final int[] m_values;
+
+	/** m_table[k][i] is the index of the max between i and i+2^k-1 */
+	private final int[][] m_table;
+
+	/**
+	 * @param highest
+	 *            <TT>true</TT> to find the highest notes, <TT>false</TT> for
+	 *            the lowest ones.
+	 * @param heightChanges
+	 *            The count of height changes of the notes of the voice,
+	 *            read before the heights.
+	 */
+	NoteHeightTable(Voice voice, boolean highest, int heightChanges) {
+		m_highest = highest;
+		m_heightChanges = heightChanges;
+		int n = voice.size();
+		m_values = new int[n];
+		for (int i = 0; i < n; i++) {
+			MusicElement element = voice.elementAt(i);
+			int value = NONE;
+			if (element instanceof NoteAbstract) {
+				int height;
+				if (element instanceof MultiNote) {
+					MultiNote multi = (MultiNote) element;
+					height = (highest ? multi.getHighestNote() : multi
+							.getLowestNote()).getMidiLikeHeight();
+				} else
+					height = ((Note) element).getMidiLikeHeight();
+				if (height != Note.REST)
+					value = highest ? height : -height;
+			}
+			m_values[i] = value;
+		}
+		int levels = 1;
+		while ((1 << levels) <= n)
+			levels++;
+		m_table = new int[levels][];
+		m_table[0] = new int[n];
+		for (int i = 0; i < n; i++)
+			m_table[0][i] = i;
+		for (int k = 1; k < levels; k++) {
+			int half = 1 << (k - 1);
+			int[] previous = m_table[k - 1];
+			int[] level = new int[n - (1 << k) + 1];
+			for (int i = 0; i < level.length; i++)
+				level[i] = best(previous[i], previous[i + half]);
+			m_table[k] = level;
+		}
+	}
+
+	/** Returns the index of the highest value, a if a and b are equal */
+	private int best(int a, int b) {
+		return m_values[b] > m_values[a] ? b : a;
+	}
+
+	/**
+	 * Returns the index of the highest (or lowest) note between from and to
+	 * included, -1 if there is no note.
+	 */
+	int indexOfNote(int from, int to) {
+		if (from > to)
+			return -1;
+		int k = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+		int ret = best(m_table[k][from], m_table[k][to - (1 << k) + 1]);
+		return m_values[ret] == NONE ? -1 : ret;
+	}
+
+	/** Returns the count of height changes this table has been built with */
+	int getHeightChanges() {
+		return m_heightChanges;
+	}
+
+	/** Returns the height of the note at index */
+	int getHeight(int index) {
+		return m_highest ? m_values[index] : -m_values[index];
+	}
+
+}
@@ -15,8 +15,16 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
+import java.util.ArrayList;
+
 /**
- * 
+ * An element which takes place in the time of a voice.
+ * <p>
+ * Its position is read in the {@link Timeline} of the voice it has been
+ * added to, in constant time once computed. The notes of a
+ * {@link MultiNote} have the position of the multi note (they used to
+ * have the position of the first element of the voice, as they have no
+ * previous element).
  */
 public abstract class PositionableInTime extends DecorableElement {
 
@@ -26,6 +34,11 @@ public abstract class PositionableInTime extends DecorableElement {
 
 	private PositionableInTime previousElement = null;
 
+	/** The timeline of the voice, null if not added or deserialized */
+	private transient Timeline m_timeline = null;
+
+	private transient int m_timelineIndex = -1;
+
 	/**
 	 * Returns duration of note/rest
 	 */
@@ -38,19 +51,7 @@ public abstract class PositionableInTime extends DecorableElement {
 	public abstract int getDurationInBars();
 
 	public int getPositionInBars() {
-		if (previousElement != null) {
-			return previousElement.getPositionInBars()
-					+ previousElement.getDurationInBars();
-		} else if (this instanceof BarLine) {
-			return 0; // Voice starts with a bar line before first bar
-		} else {
-			int b = getDurationInBars();
-			if (b > 0) {
-				return b; // Voice starts with a multiple measures rest
-			} else {
-				return 1; // Voice starts with a note
-			}
-		}
+		return getTimeline().getPositionInBars(m_timelineIndex);
 	}
 
 	public double getPositionInBeats() {
@@ -67,19 +68,7 @@ public abstract class PositionableInTime extends DecorableElement {
 	 * a beat)
 	 */
 	public int getPositionInUnits() {
-		if (previousElement != null) {
-			if (previousElement instanceof BarLine)
-				return 1; // Beats start at 1
-			else {
-				return previousElement.getPositionInUnits()
-						+ previousElement.getDuration();
-			}
-		} else if (this instanceof BarLine) {
-			return 0;
-			// Voice starts with a bar line before first bar
-		} else {
-			return 1; // Voice starts with a note or whatever
-		}
+		return getTimeline().getPositionInUnits(m_timelineIndex);
 	}
 
 	/**
@@ -87,18 +76,69 @@ public abstract class PositionableInTime extends DecorableElement {
 	 * a beat) from the beginning of the voice/part
 	 */
 	public int getPositionInUnitsFromBeginning() {
-		if (previousElement != null) {
-			return previousElement.getPositionInUnitsFromBeginning()
-					+ previousElement.getDuration();
-		} else if (this instanceof BarLine) {
-			return 0; // Voice starts with a bar line before first bar
-		} else {
-			return 1; // Voice starts with a note or whatever
+		return getTimeline().getPositionInUnitsFromBeginning(m_timelineIndex);
+	}
+
+	/**
+	 * Returns the timeline of this element, or builds one from the chain of
+	 * previous elements, e.g. for an element deserialized without its
+	 * voice.
+	 */
+	private Timeline getTimeline() {
+		Timeline timeline = m_timeline;
+		if (timeline == null) {
+			ArrayList<PositionableInTime> chain = new ArrayList<PositionableInTime>();
+			for (PositionableInTime pit = this; pit != null; pit = pit.previousElement)
+				chain.add(pit);
+			timeline = new Timeline();
+			for (int i = chain.size() - 1; i >= 0; i--) {
+				PositionableInTime pit = chain.get(i);
+				int index = timeline.add(pit);
+				if (pit.m_timeline == null)
+					pit.setTimeline(timeline, index);
+			}
+			m_timeline = timeline;
+			m_timelineIndex = chain.size() - 1;
 		}
+		return timeline;
+	}
+
+	/** Called by the voice this element is added to */
+	void setTimeline(Timeline timeline, int index) {
+		m_timeline = timeline;
+		m_timelineIndex = index;
+	}
+
+	/**
+	 * Tells that the duration of this element has changed, the positions of
+	 * the next elements of its voice must be computed again.
+	 */
+	protected void durationChanged() {
+		if (m_timeline != null)
+			m_timeline.invalidate(m_timelineIndex);
+	}
+
+	/**
+	 * Tells that the height of this note has changed, the highest and
+	 * lowest notes of its voice must be found again.
+	 */
+	protected void heightChanged() {
+		if (m_timeline != null)
+			m_timeline.heightChanged();
+	}
+
+	PositionableInTime getPreviousElement() {
+		return previousElement;
 	}
 
 	protected void setPreviousElement(PositionableInTime pit) {
 		this.previousElement = pit;
+		//the voice sets the timeline after
+		m_timeline = null;
+	}
+
+	short getReferenceNoteLength() {
+		return m_referenceNoteLength;
 	}
 
 	protected void setReferenceNoteLength(short ref) {
@@ -27,6 +27,10 @@ public class RepeatedPart extends RepeatedPartAbstract
   public RepeatedPart (Part part)
   { m_part = part; }
 
+  /** Returns the repeated part. */
+  Part getPart()
+  { return m_part; }
+
   public Part[] toPartsArray()
   {
     int repeatNumber = getNumberOfRepeats();
@@ -0,0 +1,122 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import abc.parser.CharStreamPosition;
+
+/**
+ * Finds the element of a {@link Music} at an offset of the char stream it
+ * has been parsed from, for {@link Music#getElementAtStreamPosition(int)}.
+ * <p>
+ * The offsets where an element starts or ends cut the stream in segments,
+ * the element of each segment is computed once, then an offset is found by
+ * a binary search. When several elements contain an offset, the first one
+ * of the first voice is kept.
+ * <p>
+ * The index is valid as long as the voices are not changed.
+ */
+class StreamPositionIndex {
+
+	private final Voice[] m_voices;
+
+	private final int[] m_changeCounts;
+
+	/** Sorted offsets where elements start or end */
+	private final int[] m_bounds;
+
+	/** m_elements[i] is between m_bounds[i] and m_bounds[i + 1] */
+	private final MusicElement[] m_elements;
+
+	StreamPositionIndex(List<Voice> voices) {
+		m_voices = voices.toArray(new Voice[voices.size()]);
+		m_changeCounts = new int[m_voices.length];
+		//elements in the order they were searched, the first one wins
+		ArrayList<MusicElement> elements = new ArrayList<MusicElement>();
+		ArrayList<CharStreamPosition> positions = new ArrayList<CharStreamPosition>();
+		for (int v = 0; v < m_voices.length; v++) {
+			Voice voice = m_voices[v];
+			m_changeCounts[v] = voice.getChangeCount();
+			for (int i = 0, size = voice.size(); i < size; i++) {
+				MusicElement element = voice.elementAt(i);
+				CharStreamPosition pos = element.getCharStreamPosition();
+				if ((pos != null) && (pos.getStartIndex() < pos.getEndIndex())) {
+					elements.add(element);
+					positions.add(pos);
+				}
+			}
+		}
+		int n = elements.size();
+		int[] bounds = new int[2 * n];
+		//start offset in the high bits, order in the low bits
+		long[] starts = new long[n];
+		for (int i = 0; i < n; i++) {
+			CharStreamPosition pos = positions.get(i);
+			bounds[2 * i] = pos.getStartIndex();
+			bounds[2 * i + 1] = pos.getEndIndex();
+			starts[i] = ((long) pos.getStartIndex() << 32) | i;
+		}
+		Arrays.sort(bounds);
+		Arrays.sort(starts);
+		int count = 0;
+		for (int i = 0; i < bounds.length; i++)
+			if ((count == 0) || (bounds[i] != bounds[count - 1]))
+				bounds[count++] = bounds[i];
+		m_bounds = Arrays.copyOf(bounds, count);
+		m_elements = new MusicElement[count];
+		//elements containing the current segment, by order
+		PriorityQueue<Integer> current = new PriorityQueue<Integer>();
+		int next = 0;
+		for (int j = 0; j < count; j++) {
+			int bound = m_bounds[j];
+			while ((next < n) && ((int) (starts[next] >> 32) == bound)) {
+				current.add(Integer.valueOf((int) starts[next]));
+				next++;
+			}
+			while (!current.isEmpty()
+					&& (positions.get(current.peek().intValue()).getEndIndex() <= bound))
+				current.poll();
+			if (!current.isEmpty())
+				m_elements[j] = elements.get(current.peek().intValue());
+		}
+	}
+
+	/** Returns <TT>true</TT> if the voices have not been changed */
+	boolean isValid(List<Voice> voices) {
+		if (voices.size() != m_voices.length)
+			return false;
+		for (int v = 0; v < m_voices.length; v++) {
+			if ((voices.get(v) != m_voices[v])
+					|| (m_voices[v].getChangeCount() != m_changeCounts[v]))
+				return false;
+		}
+		return true;
+	}
+
+	/** Returns the element at offset, <TT>null</TT> if none */
+	MusicElement getElementAt(int offset) {
+		int j = Arrays.binarySearch(m_bounds, offset);
+		if (j < 0)
+			//the segment before the insertion point
+			j = -j - 2;
+		return j >= 0 ? m_elements[j] : null;
+	}
+
+}
@@ -95,6 +95,11 @@ public class Tablature implements Cloneable, Serializable {
 		return m_strings;
 	}
 	
+	/** Returns the number of frets, see {@link TuneCodec} */
+	int getNumberOfFret() {
+		return m_numberOfFret;
+	}
+	
 	public int getNumberOfString() {
 		return m_strings.length;
 	}
@@ -0,0 +1,153 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The positions in time of the {@link PositionableInTime} elements of a
+ * voice, in the order they have been added.
+ * <p>
+ * Positions are sums of the durations of the previous elements, they are
+ * computed on request and kept until the duration of an element changes,
+ * then only the positions of the elements after it are computed again.
+ * <p>
+ * Positions already computed are read without locking, like the elements of
+ * a frozen {@link Voice}: the volatile count of valid positions is written
+ * after the positions, and read before them. Only the computation and the
+ * changes take the lock.
+ */
+class Timeline {
+
+	private PositionableInTime[] m_elements = new PositionableInTime[16];
+
+	private int[] m_bars = new int[16];
+
+	private int[] m_units = new int[16];
+
+	private int[] m_unitsFromBeginning = new int[16];
+
+	private int m_size = 0;
+
+	/** Count of the first elements whose positions are up to date */
+	private volatile int m_valid = 0;
+
+	/**
+	 * Count of the changes of the heights of the notes, shared with the
+	 * copies of this timeline as the notes are shared
+	 */
+	private AtomicInteger m_heightChanges = new AtomicInteger();
+
+	/** Adds an element and returns its index */
+	synchronized int add(PositionableInTime pit) {
+		if (m_size == m_elements.length) {
+			int capacity = m_size * 2;
+			m_elements = Arrays.copyOf(m_elements, capacity);
+			m_bars = Arrays.copyOf(m_bars, capacity);
+			m_units = Arrays.copyOf(m_units, capacity);
+			m_unitsFromBeginning = Arrays.copyOf(m_unitsFromBeginning,
+					capacity);
+		}
+		m_elements[m_size] = pit;
+		return m_size++;
+	}
+
+	/** Returns a copy, for a cloned voice */
+	synchronized Timeline copy() {
+		Timeline ret = new Timeline();
+		int capacity = Math.max(m_size, 16);
+		ret.m_elements = Arrays.copyOf(m_elements, capacity);
+		ret.m_bars = Arrays.copyOf(m_bars, capacity);
+		ret.m_units = Arrays.copyOf(m_units, capacity);
+		ret.m_unitsFromBeginning = Arrays.copyOf(m_unitsFromBeginning,
+				capacity);
+		ret.m_size = m_size;
+		ret.m_valid = m_valid;
+		ret.m_heightChanges = m_heightChanges;
+		return ret;
+	}
+
+	/** Tells that the height of a note has changed */
+	void heightChanged() {
+		m_heightChanges.incrementAndGet();
+	}
+
+	/** Returns the count of the changes of the heights of the notes */
+	int getHeightChanges() {
+		return m_heightChanges.get();
+	}
+
+	/**
+	 * Tells that the duration of the element at index has changed, the
+	 * positions of the next ones must be computed again.
+	 */
+	synchronized void invalidate(int index) {
+		if (index + 1 < m_valid)
+			m_valid = index + 1;
+	}
+
+	int getPositionInBars(int index) {
+		if (index >= m_valid)
+			compute(index);
+		return m_bars[index];
+	}
+
+	int getPositionInUnits(int index) {
+		if (index >= m_valid)
+			compute(index);
+		return m_units[index];
+	}
+
+	int getPositionInUnitsFromBeginning(int index) {
+		if (index >= m_valid)
+			compute(index);
+		return m_unitsFromBeginning[index];
+	}
+
+	/** Computes the positions up to index included */
+	private synchronized void compute(int index) {
+		for (int i = m_valid; i <= index; i++) {
+			PositionableInTime pit = m_elements[i];
+			if (i == 0) {
+				if (pit instanceof BarLine) {
+					// Voice starts with a bar line before first bar
+					m_bars[i] = 0;
+					m_units[i] = 0;
+					m_unitsFromBeginning[i] = 0;
+				} else {
+					// Voice starts with a multiple measures rest or a note
+					int b = pit.getDurationInBars();
+					m_bars[i] = b > 0 ? b : 1;
+					m_units[i] = 1;
+					m_unitsFromBeginning[i] = 1;
+				}
+			} else {
+				PositionableInTime previous = m_elements[i - 1];
+				short duration = previous.getDuration();
+				m_bars[i] = m_bars[i - 1] + previous.getDurationInBars();
+				// Beats start at 1
+				m_units[i] = previous instanceof BarLine ? 1 : m_units[i - 1]
+						+ duration;
+				m_unitsFromBeginning[i] = m_unitsFromBeginning[i - 1]
+						+ duration;
+			}
+		}
+		if (index >= m_valid)
+			m_valid = index + 1;
+	}
+
+}
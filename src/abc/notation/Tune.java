@@ -74,8 +74,9 @@ public class Tune implements Cloneable, Serializable
   }
   
   /** Copy constructor
-   * @param tune The tune to be copied in depth. */
+   * @param tune The tune to be copied in depth, see {@link #copySource()}. */
   public Tune(Tune tune) {
+	  tune = tune.copySource();
 	  try {
 		this.m_tuneInfos = (TuneInfos)tune.m_tuneInfos.clone();
 	  /*this.m_area = tune.m_area;
@@ -104,6 +105,8 @@ public class Tune implements Cloneable, Serializable
 	  if (tune.m_multiPartsDef != null)
 		  this.m_multiPartsDef = (MultiPartsDefinition)tune.m_multiPartsDef.clone(this);
 	  this.m_referenceNumber = tune.m_referenceNumber;
+	  if (tune.m_instructions != null)
+		  this.m_instructions = new ArrayList<Instruction>(tune.m_instructions);
 	  /*this.m_rhythm = tune.m_rhythm;
 	  this.m_source = tune.m_source;
 	  if (tune.m_titles != null)
@@ -115,6 +118,13 @@ public class Tune implements Cloneable, Serializable
 	  }
   }
   
+  /** Returns the tune whose fields are copied by the copy constructor.
+   * This tune, unless a subclass keeps its content in another tune, e.g.
+   * a tune whose music is parsed on demand. */
+  protected Tune copySource() {
+	  return this;
+  }
+  
   /** Returns the TuneInfos object which contains all textuals
    * informations about the tune (composer, origin, sources...) */
   public TuneInfos getTuneInfos() {
@@ -276,6 +286,17 @@ public class Tune implements Cloneable, Serializable
   public String getOrigin()
   { return m_tuneInfos.get(TuneInfos.ORIGIN); }
 
+  /** Returns the default part, containing the music written before the
+   * first part label, or all the music of a one-part tune. */
+  Part getDefaultPart() {
+	  return m_defaultPart;
+  }
+
+  /** Returns the parts labeled in this tune, <TT>null</TT> if none. */
+  ArrayList<Part> getParts() {
+	  return m_parts;
+  }
+
   /** Returns the part of the tune identified by the given label.
    * @param partLabel A part label.
    * @return The part of the tune identified by the given label, <TT>null</TT>
@@ -664,6 +685,21 @@ public class Tune implements Cloneable, Serializable
 		}
 	}
   
+	/**
+	 * Makes the voices of all the parts of this tune read only.
+	 * 
+	 * @see Voice#freeze()
+	 */
+	public void freeze() {
+		ArrayList<Part> parts = new ArrayList<Part>();
+		parts.add(m_defaultPart);
+		if (m_parts != null)
+			parts.addAll(m_parts);
+		for (Part part : parts)
+			for (Voice voice : part.getMusic().getVoices())
+				voice.freeze();
+	}
+
 	public Tempo getGeneralTempo() {
 		Voice voice = getMusic().getVoice("1");
 		for (int i = 0; i < voice.size(); i++) {
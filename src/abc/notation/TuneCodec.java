@@ -0,0 +1,1446 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.notation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import abc.instructions.UserDefinedPlaySymbol;
+import abc.instructions.UserDefinedPrintSymbol;
+import abc.instructions.UserDefinedSymbol;
+import abc.instructions.Xcommand;
+import abc.parser.CharStreamPosition;
+
+/**
+ * A compact binary format for {@link Tune}s and {@link TuneBook}s, e.g. to
+ * cache parsed tunebooks on disk and load them much faster than parsing the
+ * ABC again or using Java serialization.
+ * <p>
+ * The data starts with the <TT>ABC</TT> magic bytes, the format
+ * {@link #VERSION}, the kind of content and its length. Numbers (heights,
+ * durations, positions...) are written as variable length integers,
+ * character positions as deltas from the previous one, and strings once,
+ * later occurrences being indexes in a table. Class names are not written:
+ * each element has a one byte tag, and only the values differing from the
+ * default ones are written, as told by a bit field.
+ * <p>
+ * What the {@link Voice}s compute when an element is added (references,
+ * bars, previous element in time) isn't written, it is computed again at
+ * reading. A tune is read as a {@link Tune}, the source of an
+ * {@link abc.parser.AbcTune} isn't written. Instructions other than
+ * {@link Xcommand} and {@link UserDefinedSymbol}, and music elements of
+ * other classes than the ones of this package can't be written.
+ * <p>
+ * A codec has no state and can be shared by threads.
+ */
+public class TuneCodec {
+
+	/** The version of the format written by this codec */
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = { 'A', 'B', 'C' };
+
+	/** Size of the first buffer of the data, before its length is checked */
+	private static final int DATA_CHUNK = 64 * 1024;
+
+	private static final byte KIND_TUNE = 1;
+
+	private static final byte KIND_TUNE_BOOK = 2;
+
+	// Tags of music elements
+	private static final byte NOTE = 1;
+	private static final byte MULTI_NOTE = 2;
+	private static final byte BAR_LINE = 3;
+	private static final byte REPEAT_BAR_LINE = 4;
+	private static final byte KEY_SIGNATURE = 5;
+	private static final byte TIME_SIGNATURE = 6;
+	private static final byte TEMPO = 7;
+	private static final byte END_OF_STAFF_LINE = 8;
+	private static final byte NOTES_SEPARATOR = 9;
+	private static final byte SPACER = 10;
+	private static final byte MEASURE_REST = 11;
+	private static final byte MEASURE_REPEAT = 12;
+	private static final byte REPEAT_END = 13;
+	private static final byte PART_LABEL = 14;
+	private static final byte WORDS = 15;
+	private static final byte XCOMMAND = 16;
+	private static final byte ELEMSKIP = 17;
+	private static final byte CLEF = 18;
+	private static final byte ANNOTATION = 19;
+	private static final byte CHORD = 20;
+	private static final byte DECORATION = 21;
+	private static final byte DYNAMIC = 22;
+	private static final byte FRACTION = 23;
+	private static final byte USER_DEFINED_PLAY_SYMBOL = 24;
+	private static final byte USER_DEFINED_PRINT_SYMBOL = 25;
+
+	// Tags of repeated parts
+	private static final byte MULTI_PARTS = 1;
+	private static final byte REPEATED_PART = 2;
+
+	// Bits telling which values of an element are written, the most
+	// frequent ones first so that they fit in one byte
+	private static final int POSITION = 1;
+	private static final int ACCIDENTAL = 1 << 1;
+	private static final int OCTAVE = 1 << 2;
+	private static final int DOTTED = 1 << 3;
+	private static final int REFERENCE_LENGTH = 1 << 4;
+	private static final int DECORATIONS = 1 << 5;
+	private static final int CHORD_NAME = 1 << 6;
+	private static final int DYNAMIC_MARK = 1 << 7;
+	private static final int ANNOTATIONS = 1 << 8;
+	private static final int GRACING_NOTES = 1 << 9;
+	private static final int GRACING_TYPE = 1 << 10;
+	private static final int GENERAL_GRACING = 1 << 11;
+	private static final int PART_OF_SLUR = 1 << 12;
+	private static final int TUPLET = 1 << 13;
+	private static final int TIE = 1 << 14;
+	private static final int SLURS = 1 << 15;
+	private static final int INVISIBLE_REST = 1 << 16;
+
+	/** Accidentals read as the shared constants, in the order of their code */
+	private static final Accidental[] ACCIDENTALS = Accidental.getAll()
+			.toArray(new Accidental[0]);
+
+	/** The heights of the key signature accidentals, C to B */
+	private static final byte[] KEY_HEIGHTS = { Note.C, Note.D, Note.E,
+			Note.F, Note.G, Note.A, Note.B };
+
+	/**
+	 * Writes a tune.
+	 *
+	 * @param tune
+	 *            The tune to write.
+	 * @param out
+	 *            The stream to write to, it is not closed.
+	 * @throws IOException
+	 *             If the stream fails, or if the tune contains elements
+	 *             which can't be written.
+	 */
+	public void write(Tune tune, OutputStream out) throws IOException {
+		Writer w = new Writer();
+		w.writeTune(tune, null);
+		w.writeTo(KIND_TUNE, out);
+	}
+
+	/**
+	 * Writes a tunebook and all its tunes.
+	 *
+	 * @param tuneBook
+	 *            The tunebook to write.
+	 * @param out
+	 *            The stream to write to, it is not closed.
+	 * @throws IOException
+	 *             If the stream fails, or if a tune contains elements which
+	 *             can't be written.
+	 */
+	public void write(TuneBook tuneBook, OutputStream out) throws IOException {
+		Writer w = new Writer();
+		w.writeTuneBook(tuneBook);
+		w.writeTo(KIND_TUNE_BOOK, out);
+	}
+
+	/**
+	 * Reads a tune written by {@link #write(Tune, OutputStream)}.
+	 *
+	 * @param in
+	 *            The stream to read from, it is not closed. Nothing is read
+	 *            after the tune.
+	 * @throws IOException
+	 *             If the stream fails, or doesn't contain a tune in a
+	 *             version of the format this codec can read, or if its data
+	 *             is corrupt.
+	 */
+	public Tune readTune(InputStream in) throws IOException {
+		Reader r = new Reader(readData(in, KIND_TUNE));
+		try {
+			Tune tune = r.readTune(null);
+			r.end();
+			return tune;
+		} catch (RuntimeException e) {
+			//values the elements don't accept
+			throw new IOException("Invalid tune data", e);
+		}
+	}
+
+	/**
+	 * Reads a tunebook written by {@link #write(TuneBook, OutputStream)}.
+	 *
+	 * @param in
+	 *            The stream to read from, it is not closed. Nothing is read
+	 *            after the tunebook.
+	 * @throws IOException
+	 *             If the stream fails, or doesn't contain a tunebook in a
+	 *             version of the format this codec can read, or if its data
+	 *             is corrupt.
+	 */
+	public TuneBook readTuneBook(InputStream in) throws IOException {
+		Reader r = new Reader(readData(in, KIND_TUNE_BOOK));
+		try {
+			TuneBook tuneBook = r.readTuneBook();
+			r.end();
+			return tuneBook;
+		} catch (RuntimeException e) {
+			//values the elements don't accept
+			throw new IOException("Invalid tunebook data", e);
+		}
+	}
+
+	/** Checks the header and returns the data which follows it */
+	private static byte[] readData(InputStream in, byte kind)
+			throws IOException {
+		byte[] header = new byte[5];
+		readFully(in, header, 0, header.length);
+		if ((header[0] != MAGIC[0]) || (header[1] != MAGIC[1])
+				|| (header[2] != MAGIC[2]))
+			throw new IOException("Not an abc4j binary tune");
+		if (header[3] != VERSION)
+			throw new IOException("Unsupported format version " + header[3]
+					+ ", expected " + VERSION);
+		if (header[4] != kind)
+			throw new IOException(kind == KIND_TUNE ? "Not a tune"
+					: "Not a tunebook");
+		int length = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.read();
+			if (b == -1)
+				throw new EOFException();
+			if (shift > 28)
+				throw new IOException("Invalid length");
+			length |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		if (length < 0)
+			throw new IOException("Invalid length");
+		//the length isn't trusted, the data grows as it is read
+		byte[] data = new byte[Math.min(length, DATA_CHUNK)];
+		int size = 0;
+		while (size < length) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, (int) Math.min(length, 2L * size));
+			int n = in.read(data, size, data.length - size);
+			if (n == -1)
+				throw new EOFException();
+			size += n;
+		}
+		return data;
+	}
+
+	private static void readFully(InputStream in, byte[] b, int off, int len)
+			throws IOException {
+		while (len > 0) {
+			int n = in.read(b, off, len);
+			if (n == -1)
+				throw new EOFException();
+			off += n;
+			len -= n;
+		}
+	}
+
+	/** Encodes values in a growing byte array, not synchronized */
+	private static class Output {
+
+		private byte[] m_buf = new byte[4096];
+
+		private int m_size = 0;
+
+		private final Map<String, Integer> m_strings = new HashMap<String, Integer>();
+
+		private final void ensure(int n) {
+			if (m_size + n > m_buf.length)
+				m_buf = Arrays.copyOf(m_buf, Math.max(m_size + n,
+						2 * m_buf.length));
+		}
+
+		final void writeByte(int b) {
+			ensure(1);
+			m_buf[m_size++] = (byte) b;
+		}
+
+		final void writeBoolean(boolean b) {
+			writeByte(b ? 1 : 0);
+		}
+
+		/** Writes an unsigned variable length integer */
+		final void writeVarInt(int i) {
+			ensure(5);
+			while ((i & ~0x7f) != 0) {
+				m_buf[m_size++] = (byte) ((i & 0x7f) | 0x80);
+				i >>>= 7;
+			}
+			m_buf[m_size++] = (byte) i;
+		}
+
+		/** Writes a signed variable length integer, small when near 0 */
+		final void writeSignedVarInt(int i) {
+			writeVarInt((i << 1) ^ (i >> 31));
+		}
+
+		final void writeFloat(float f) {
+			int i = Float.floatToIntBits(f);
+			ensure(4);
+			m_buf[m_size++] = (byte) (i >>> 24);
+			m_buf[m_size++] = (byte) (i >>> 16);
+			m_buf[m_size++] = (byte) (i >>> 8);
+			m_buf[m_size++] = (byte) i;
+		}
+
+		/**
+		 * Writes 0 for null, the index + 2 of a string already written, or
+		 * 1 followed by the UTF-8 bytes of a new one.
+		 */
+		final void writeString(String s) {
+			if (s == null) {
+				writeVarInt(0);
+				return;
+			}
+			Integer index = m_strings.get(s);
+			if (index != null) {
+				writeVarInt(index.intValue() + 2);
+				return;
+			}
+			m_strings.put(s, Integer.valueOf(m_strings.size()));
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(1);
+			writeVarInt(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, m_buf, m_size, bytes.length);
+			m_size += bytes.length;
+		}
+
+		/** Writes the header, the length, then the content */
+		final void writeTo(byte kind, OutputStream out) throws IOException {
+			byte[] header = new byte[10];
+			int n = 0;
+			header[n++] = MAGIC[0];
+			header[n++] = MAGIC[1];
+			header[n++] = MAGIC[2];
+			header[n++] = VERSION;
+			header[n++] = kind;
+			int i = m_size;
+			while ((i & ~0x7f) != 0) {
+				header[n++] = (byte) ((i & 0x7f) | 0x80);
+				i >>>= 7;
+			}
+			header[n++] = (byte) i;
+			out.write(header, 0, n);
+			out.write(m_buf, 0, m_size);
+			out.flush();
+		}
+	}
+
+	/** Decodes the values of an {@link Output} */
+	private static class Input {
+
+		private final byte[] m_buf;
+
+		private int m_pos = 0;
+
+		private final ArrayList<String> m_strings = new ArrayList<String>();
+
+		Input(byte[] buf) {
+			m_buf = buf;
+		}
+
+		final int readByte() throws IOException {
+			if (m_pos >= m_buf.length)
+				throw new EOFException();
+			return m_buf[m_pos++];
+		}
+
+		final boolean readBoolean() throws IOException {
+			return readByte() != 0;
+		}
+
+		final int readVarInt() throws IOException {
+			int ret = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = readByte();
+				ret |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return ret;
+			}
+			throw new IOException("Invalid variable length integer");
+		}
+
+		/**
+		 * Reads a count of values, each one takes at least one byte so it
+		 * can't be more than the count of remaining bytes
+		 */
+		final int readCount() throws IOException {
+			int count = readVarInt();
+			if ((count < 0) || (count > m_buf.length - m_pos))
+				throw new IOException("Invalid count " + count);
+			return count;
+		}
+
+		final int readSignedVarInt() throws IOException {
+			int i = readVarInt();
+			return (i >>> 1) ^ -(i & 1);
+		}
+
+		final float readFloat() throws IOException {
+			int i = ((readByte() & 0xff) << 24) | ((readByte() & 0xff) << 16)
+					| ((readByte() & 0xff) << 8) | (readByte() & 0xff);
+			return Float.intBitsToFloat(i);
+		}
+
+		final String readString() throws IOException {
+			int code = readVarInt();
+			if (code == 0)
+				return null;
+			if (code >= 2) {
+				if (code - 2 >= m_strings.size())
+					throw new IOException("Invalid string index " + code);
+				return m_strings.get(code - 2);
+			}
+			int length = readVarInt();
+			if ((length < 0) || (length > m_buf.length - m_pos))
+				throw new EOFException();
+			String s = new String(m_buf, m_pos, length, StandardCharsets.UTF_8);
+			m_pos += length;
+			m_strings.add(s);
+			return s;
+		}
+
+		/** Checks that all the data has been read */
+		final void end() throws IOException {
+			if (m_pos != m_buf.length)
+				throw new IOException((m_buf.length - m_pos)
+						+ " unexpected bytes at end of data");
+		}
+	}
+
+	/** Writes the parts of a tune or a tunebook */
+	private static class Writer extends Output {
+
+		/** Ties, slurs and tuplets, shared by several notes */
+		private final IdentityHashMap<Object, Integer> m_shared = new IdentityHashMap<Object, Integer>();
+
+		private int m_lastStart = 0;
+
+		private int m_lastLine = 1;
+
+		void writeTuneBook(TuneBook tuneBook) throws IOException {
+			writeInfos(tuneBook.getBookInfos());
+			ArrayList<Instruction> instructions = tuneBook.getInstructions();
+			writeInstructions(instructions);
+			writeVarInt(tuneBook.size());
+			for (Tune tune : tuneBook.getTunes().values())
+				writeTune(tune, instructions);
+		}
+
+		/**
+		 * @param bookInstructions
+		 *            The instructions of the book the tune is written with,
+		 *            <code>null</code> if the tune is written alone.
+		 */
+		void writeTune(Tune tune, List<Instruction> bookInstructions)
+				throws IOException {
+			//links and tuplets belong to one tune
+			m_shared.clear();
+			writeSignedVarInt(tune.getReferenceNumber());
+			writeSignedVarInt(tune.getElemskip());
+			TuneInfos infos = tune.getTuneInfos();
+			writeInfos(infos);
+			if (bookInstructions == null) {
+				//the book infos are shared by the tunes of a book
+				writeBoolean(infos.getBookInfos() != null);
+				if (infos.getBookInfos() != null)
+					writeInfos(infos.getBookInfos());
+			}
+			//the instructions of the book are added again to the tune when
+			//it is put in the book
+			List<Instruction> instructions = tune.getInstructions();
+			if ((bookInstructions != null)
+					&& startsWith(instructions, bookInstructions))
+				instructions = instructions.subList(bookInstructions.size(),
+						instructions.size());
+			writeInstructions(instructions);
+			ArrayList<Part> parts = tune.getParts();
+			writeMusic(tune.getDefaultPart().getMusic());
+			writeVarInt(parts == null ? 0 : parts.size() + 1);
+			if (parts != null) {
+				for (Part part : parts) {
+					writeString(part.getLabel());
+					writeMusic(part.getMusic());
+				}
+			}
+			MultiPartsDefinition multiParts = tune.getMultiPartsDefinition();
+			writeBoolean(multiParts != null);
+			if (multiParts != null)
+				writeRepeatedPart(tune, multiParts);
+		}
+
+		private static boolean startsWith(List<Instruction> list,
+				List<Instruction> prefix) {
+			if (list.size() < prefix.size())
+				return false;
+			for (int i = 0; i < prefix.size(); i++)
+				if (list.get(i) != prefix.get(i))
+					return false;
+			return true;
+		}
+
+		private void writeInfos(TuneInfos infos) {
+			Map<Byte, String> own = infos.getOwnInfos();
+			writeVarInt(own.size());
+			for (Map.Entry<Byte, String> entry : own.entrySet()) {
+				writeByte(entry.getKey().byteValue());
+				writeString(entry.getValue());
+			}
+		}
+
+		private void writeInstructions(List<Instruction> instructions)
+				throws IOException {
+			writeVarInt(instructions.size());
+			for (Instruction instruction : instructions) {
+				if (!(instruction instanceof MusicElement))
+					throw new IOException("Can't write instruction "
+							+ instruction.getClass().getName());
+				writeElement((MusicElement) instruction, Note.EIGHTH);
+			}
+		}
+
+		private void writeRepeatedPart(Tune tune, RepeatedPartAbstract rpa)
+				throws IOException {
+			if (rpa instanceof MultiPartsDefinition) {
+				Vector<RepeatedPartAbstract> parts = ((MultiPartsDefinition) rpa)
+						.getParts();
+				writeByte(MULTI_PARTS);
+				writeByte(rpa.getNumberOfRepeats());
+				writeVarInt(parts.size());
+				for (RepeatedPartAbstract part : parts)
+					writeRepeatedPart(tune, part);
+			} else if (rpa instanceof RepeatedPart) {
+				writeByte(REPEATED_PART);
+				writeByte(rpa.getNumberOfRepeats());
+				//0 for the default part, else index + 1
+				Part part = ((RepeatedPart) rpa).getPart();
+				int index = tune.getParts() == null ? -1
+						: tune.getParts().indexOf(part);
+				if ((index == -1) && (part != tune.getDefaultPart()))
+					throw new IOException("Part " + part.getLabel()
+							+ " doesn't belong to the tune");
+				writeVarInt(index + 1);
+			} else
+				throw new IOException("Can't write repeated part "
+						+ rpa.getClass().getName());
+		}
+
+		private void writeMusic(Music music) throws IOException {
+			Vector<Voice> voices = (Vector<Voice>) music.getVoices();
+			writeVarInt(voices.size());
+			for (Voice voice : voices)
+				writeVoice(voice);
+		}
+
+		private void writeVoice(Voice voice) throws IOException {
+			String id = voice.getVoiceId();
+			writeString(id);
+			//getName() returns the id when no name has been set
+			writeString(voice.getName().equals(id) ? null : voice.getName());
+			writeString(voice.getSubname());
+			writeByte(voice.getStemPolicy());
+			writeByte(voice.getInstrument());
+			writeByte(voice.getVolume());
+			Tablature tab = voice.getTablature();
+			writeBoolean(tab != null);
+			if (tab != null) {
+				Note[] strings = tab.getStrings();
+				writeVarInt(strings.length);
+				for (int i = 0; i < strings.length; i++)
+					writeElement(strings[i], Note.EIGHTH);
+				writeSignedVarInt(tab.getNumberOfFret());
+			}
+			int size = voice.size();
+			writeVarInt(size);
+			//the reference length is given by the voice to the elements
+			short referenceLength = Note.EIGHTH;
+			for (int i = 0; i < size; i++) {
+				MusicElement element = voice.elementAt(i);
+				writeElement(element, referenceLength);
+				if (element instanceof PositionableInTime)
+					referenceLength = ((PositionableInTime) element)
+							.getReferenceNoteLength();
+			}
+		}
+
+		/**
+		 * Writes a tag, then a bit field, then the values of an element.
+		 *
+		 * @param referenceLength
+		 *            The reference length expected by the reader, written
+		 *            only if the one of the element differs.
+		 */
+		private void writeElement(MusicElement element, short referenceLength)
+				throws IOException {
+			Class<?> c = element.getClass();
+			int flags = 0;
+			if (element.getCharStreamPosition() != null)
+				flags |= POSITION;
+			if (element instanceof DecorableElement) {
+				DecorableElement decorable = (DecorableElement) element;
+				if (decorable.hasDecorations())
+					flags |= DECORATIONS;
+				if (decorable.getChord() != null)
+					flags |= CHORD_NAME;
+				if (decorable.getDynamic() != null)
+					flags |= DYNAMIC_MARK;
+				if (decorable.getAnnotations() != null)
+					flags |= ANNOTATIONS;
+			}
+			if ((element instanceof PositionableInTime)
+					&& (((PositionableInTime) element).getReferenceNoteLength() != referenceLength))
+				flags |= REFERENCE_LENGTH;
+			if (element instanceof NoteAbstract) {
+				NoteAbstract na = (NoteAbstract) element;
+				if (na.countDots() != 0)
+					flags |= DOTTED;
+				if (na.getGracingNotes() != null)
+					flags |= GRACING_NOTES;
+				if (na.getGracingType() != GracingType.APPOGGIATURA)
+					flags |= GRACING_TYPE;
+				if (na.hasGeneralGracing())
+					flags |= GENERAL_GRACING;
+				if (na.isPartOfSlur())
+					flags |= PART_OF_SLUR;
+				if (na.getTuplet() != null)
+					flags |= TUPLET;
+				if (na.getTieDefinition() != null)
+					flags |= TIE;
+				if (hasSlurs(na))
+					flags |= SLURS;
+			}
+			if (c == Note.class) {
+				Note note = (Note) element;
+				if (note.getAccidental().isDefined()
+						|| (note.getAccidental().getFraction() != null))
+					flags |= ACCIDENTAL;
+				if (note.getOctaveTransposition() != 0)
+					flags |= OCTAVE;
+				if (note.isRestInvisible())
+					flags |= INVISIBLE_REST;
+				writeByte(NOTE);
+			} else if (c == MultiNote.class)
+				writeByte(MULTI_NOTE);
+			else if (c == BarLine.class)
+				writeByte(BAR_LINE);
+			else if (c == RepeatBarLine.class)
+				writeByte(REPEAT_BAR_LINE);
+			else if (c == KeySignature.class)
+				writeByte(KEY_SIGNATURE);
+			else if (c == TimeSignature.class)
+				writeByte(TIME_SIGNATURE);
+			else if (c == Tempo.class)
+				writeByte(TEMPO);
+			else if (c == EndOfStaffLine.class)
+				writeByte(END_OF_STAFF_LINE);
+			else if (c == NotesSeparator.class)
+				writeByte(NOTES_SEPARATOR);
+			else if (c == Spacer.class)
+				writeByte(SPACER);
+			else if (c == MeasureRest.class)
+				writeByte(MEASURE_REST);
+			else if (c == MeasureRepeat.class)
+				writeByte(MEASURE_REPEAT);
+			else if (c == RepeatEnd.class)
+				writeByte(REPEAT_END);
+			else if (c == PartLabel.class)
+				writeByte(PART_LABEL);
+			else if (c == Words.class)
+				writeByte(WORDS);
+			else if (c == Xcommand.class)
+				writeByte(XCOMMAND);
+			else if (c == Elemskip.class)
+				writeByte(ELEMSKIP);
+			else if (c == Clef.class)
+				writeByte(CLEF);
+			else if (c == Annotation.class)
+				writeByte(ANNOTATION);
+			else if (c == Chord.class)
+				writeByte(CHORD);
+			else if (c == Decoration.class)
+				writeByte(DECORATION);
+			else if (c == Dynamic.class)
+				writeByte(DYNAMIC);
+			else if (c == Fraction.class)
+				writeByte(FRACTION);
+			else if (c == UserDefinedPlaySymbol.class)
+				writeByte(USER_DEFINED_PLAY_SYMBOL);
+			else if (c == UserDefinedPrintSymbol.class)
+				writeByte(USER_DEFINED_PRINT_SYMBOL);
+			else
+				throw new IOException("Can't write element " + c.getName());
+			writeVarInt(flags);
+			if ((flags & POSITION) != 0)
+				writePosition(element.getCharStreamPosition());
+			if (element instanceof DecorableElement)
+				writeDecorable((DecorableElement) element, flags);
+			if ((flags & REFERENCE_LENGTH) != 0)
+				writeSignedVarInt(((PositionableInTime) element)
+						.getReferenceNoteLength());
+			if (element instanceof NoteAbstract)
+				writeNoteAbstract((NoteAbstract) element, flags);
+			writeValues(element, flags);
+		}
+
+		private void writeDecorable(DecorableElement decorable, int flags)
+				throws IOException {
+			if ((flags & DECORATIONS) != 0) {
+				ArrayList<Decoration> decorations = decorable.getDecorations();
+				writeVarInt(decorations.size());
+				for (Decoration decoration : decorations)
+					writeElement(decoration, Note.EIGHTH);
+			}
+			if ((flags & CHORD_NAME) != 0)
+				writeElement(decorable.getChord(), Note.EIGHTH);
+			if ((flags & DYNAMIC_MARK) != 0)
+				writeElement(decorable.getDynamic(), Note.EIGHTH);
+			if ((flags & ANNOTATIONS) != 0) {
+				Vector<Annotation> annotations = decorable.getAnnotations();
+				writeVarInt(annotations.size());
+				for (Annotation annotation : annotations)
+					writeElement(annotation, Note.EIGHTH);
+			}
+		}
+
+		private void writeNoteAbstract(NoteAbstract na, int flags)
+				throws IOException {
+			if ((flags & DOTTED) != 0)
+				writeByte(na.countDots());
+			if ((flags & GRACING_NOTES) != 0) {
+				NoteAbstract[] graces = na.getGracingNotes();
+				writeVarInt(graces.length);
+				for (int i = 0; i < graces.length; i++)
+					writeElement(graces[i], Note.EIGHTH);
+			}
+			if ((flags & GRACING_TYPE) != 0)
+				writeByte(na.getGracingType());
+			if ((flags & TUPLET) != 0) {
+				Tuplet tuplet = na.getTuplet();
+				if (writeShared(tuplet)) {
+					writeSignedVarInt(tuplet.getTupletNumber());
+					writeSignedVarInt(getTotalRelativeLength(tuplet));
+					writeSignedVarInt(tuplet.getDefaultNoteLength());
+					writeNullablePosition(tuplet.getCharStreamPosition());
+				}
+			}
+			if ((flags & TIE) != 0)
+				writeLink(na.getTieDefinition());
+			if ((flags & SLURS) != 0) {
+				Vector<SlurDefinition> slurs = na.getSlurDefinitions();
+				writeVarInt(slurs.size());
+				for (SlurDefinition slur : slurs)
+					writeLink(slur);
+			}
+		}
+
+		/** getSlurDefinitions() would create an empty vector */
+		@SuppressWarnings("deprecation")
+		private static boolean hasSlurs(NoteAbstract na) {
+			return na.getSlurDefinition() != null;
+		}
+
+		/** The value the tuplet is created with, its duration is a product */
+		@SuppressWarnings("deprecation")
+		private static short getTotalRelativeLength(Tuplet tuplet) {
+			return tuplet.getTotalRelativeLength();
+		}
+
+		/** Writes the values specific to the class of an element */
+		private void writeValues(MusicElement element, int flags)
+				throws IOException {
+			if (element instanceof Note) {
+				Note note = (Note) element;
+				writeSignedVarInt(note.getStrictHeight());
+				if ((flags & OCTAVE) != 0)
+					writeSignedVarInt(note.getOctaveTransposition());
+				if ((flags & ACCIDENTAL) != 0)
+					writeAccidental(note.getAccidental());
+				writeVarInt(note.getStrictDuration());
+				writeVarInt(note.getDuration());
+			} else if (element instanceof MultiNote) {
+				//the constructor inserts each note before the ones which are
+				//not lower, so highest first gives back the same order
+				Vector<Note> notes = ((MultiNote) element).getNotesAsVector();
+				writeVarInt(notes.size());
+				for (int i = notes.size() - 1; i >= 0; i--)
+					writeElement(notes.get(i), Note.EIGHTH);
+			} else if (element instanceof RepeatBarLine) {
+				RepeatBarLine rbl = (RepeatBarLine) element;
+				writeByte(rbl.getType());
+				byte[] numbers = rbl.getRepeatNumbers();
+				writeVarInt(numbers == null ? 0 : numbers.length + 1);
+				if (numbers != null)
+					for (int i = 0; i < numbers.length; i++)
+						writeByte(numbers[i]);
+				writeString(rbl.getRepeatText());
+			} else if (element instanceof BarLine)
+				writeByte(((BarLine) element).getType());
+			else if (element instanceof KeySignature) {
+				KeySignature key = (KeySignature) element;
+				writeByte(key.getNote());
+				writeAccidental(key.getAccidental());
+				writeByte(key.getMode());
+				Accidental[] accidentals = key.getAccidentals();
+				for (int i = 0; i < KEY_HEIGHTS.length; i++)
+					writeAccidental(accidentals[i]);
+				writeElement(key.getClef(), Note.EIGHTH);
+			} else if (element instanceof TimeSignature) {
+				TimeSignature ts = (TimeSignature) element;
+				int[] sum = ts.getSumOfNumerators();
+				writeVarInt(sum == null ? 0 : sum.length + 1);
+				if (sum != null)
+					for (int i = 0; i < sum.length; i++)
+						writeSignedVarInt(sum[i]);
+				writeSignedVarInt(ts.getNumerator());
+				writeSignedVarInt(ts.getDenominator());
+			} else if (element instanceof Fraction) {
+				writeSignedVarInt(((Fraction) element).getNumerator());
+				writeSignedVarInt(((Fraction) element).getDenominator());
+			} else if (element instanceof Tempo) {
+				writeSignedVarInt(((Tempo) element).getReferenceLength());
+				writeSignedVarInt(((Tempo) element).getNotesNumberPerMinute());
+			} else if (element instanceof Spacer)
+				writeFloat(((Spacer) element).getSpaceRatio());
+			else if (element instanceof MeasureRest)
+				writeSignedVarInt(((MeasureRest) element).getNumberOfRepeats());
+			else if (element instanceof MeasureRepeat)
+				writeSignedVarInt(((MeasureRepeat) element).getNumberOfMeasure());
+			else if (element instanceof PartLabel)
+				writeString(((PartLabel) element).getLabel());
+			else if (element instanceof Words)
+				writeString(((Words) element).getContent());
+			else if (element instanceof Xcommand)
+				writeString(((Xcommand) element).getCommand());
+			else if (element instanceof Clef) {
+				Clef clef = (Clef) element;
+				writeString(clef.getName());
+				writeByte(clef.getLineNumber());
+				writeByte(clef.getOctaveTransposition());
+				writeByte(clef.getInvisibleOctaveTransposition());
+				writeByte(clef.getSemitoneTransposition());
+				writeByte(clef.getStaffLines());
+			} else if (element instanceof Chord) {
+				Chord chord = (Chord) element;
+				writeString(chord.getChordName());
+				//notes may have been transposed
+				writeNullableNote(chord.getNote());
+				writeNullableNote(chord.getBass());
+			} else if (element instanceof Annotation) {
+				writeString(((Annotation) element).getText());
+				writeString(((Annotation) element).getIdentifier());
+			} else if (element instanceof Decoration)
+				writeByte(((Decoration) element).getType());
+			else if (element instanceof Dynamic)
+				writeByte(((Dynamic) element).getType());
+			else if (element instanceof UserDefinedSymbol) {
+				UserDefinedSymbol uds = (UserDefinedSymbol) element;
+				writeVarInt(uds.getSymbol());
+				writeElement(uds.getElement(), Note.EIGHTH);
+			}
+		}
+
+		private void writeNullableNote(Note note) throws IOException {
+			writeBoolean(note != null);
+			if (note != null)
+				writeElement(note, Note.EIGHTH);
+		}
+
+		/**
+		 * Writes 0 then returns <code>true</code> for an object written the
+		 * first time, writes its index + 1 and returns <code>false</code>
+		 * otherwise.
+		 */
+		private boolean writeShared(Object o) {
+			Integer index = m_shared.get(o);
+			if (index != null) {
+				writeVarInt(index.intValue() + 1);
+				return false;
+			}
+			m_shared.put(o, Integer.valueOf(m_shared.size()));
+			writeVarInt(0);
+			return true;
+		}
+
+		private void writeLink(TwoNotesLink link) {
+			if (writeShared(link)) {
+				writeNullablePosition(link.getCharStreamPosition());
+				writeReference(link.getStart());
+				writeReference(link.getEnd());
+			}
+		}
+
+		private void writeReference(MusicElementReference ref) {
+			writeBoolean(ref != null);
+			if (ref != null) {
+				writeString(ref.getPart());
+				writeString(ref.getVoice());
+				writeSignedVarInt(ref.getX());
+				writeSignedVarInt(ref.getY());
+			}
+		}
+
+		/**
+		 * Writes 0 for no accidental, 1 to 9 for the accidentals of
+		 * {@link Accidental#getAll()}, then 10 and the value of a
+		 * microtonal one, or 11 and the fraction it has been created with.
+		 */
+		private void writeAccidental(Accidental accidental) {
+			Fraction fraction = accidental.getFraction();
+			if (fraction != null) {
+				writeByte(11);
+				writeElement0(fraction);
+			} else if (!accidental.isDefined())
+				writeByte(0);
+			else {
+				for (int i = 0; i < ACCIDENTALS.length; i++) {
+					if (ACCIDENTALS[i].getValue() == accidental.getValue()) {
+						writeByte(i + 1);
+						return;
+					}
+				}
+				writeByte(10);
+				writeFloat(accidental.getValue());
+			}
+		}
+
+		/** Writes a fraction, which can't fail */
+		private void writeElement0(Fraction fraction) {
+			try {
+				writeElement(fraction, Note.EIGHTH);
+			} catch (IOException never) {
+				throw new InternalError();
+			}
+		}
+
+		private void writeNullablePosition(CharStreamPosition pos) {
+			writeBoolean(pos != null);
+			if (pos != null)
+				writePosition(pos);
+		}
+
+		/** Writes a position as deltas from the previous one */
+		private void writePosition(CharStreamPosition pos) {
+			writeSignedVarInt(pos.getStartIndex() - m_lastStart);
+			writeSignedVarInt(pos.getEndIndex() - pos.getStartIndex());
+			writeSignedVarInt(pos.getLine() - m_lastLine);
+			writeSignedVarInt(pos.getColumn());
+			m_lastStart = pos.getStartIndex();
+			m_lastLine = pos.getLine();
+		}
+	}
+
+	/** Reads the parts written by a {@link Writer} */
+	private static class Reader extends Input {
+
+		/** A tuplet, created when all its notes are read */
+		private static class TupletValues {
+
+			private short number;
+
+			private short totalRelativeLength;
+
+			private short defaultNoteLength;
+
+			private CharStreamPosition position;
+
+			private ArrayList<NoteAbstract> notes = new ArrayList<NoteAbstract>();
+		}
+
+		private final ArrayList<Object> m_shared = new ArrayList<Object>();
+
+		private final ArrayList<TupletValues> m_tuplets = new ArrayList<TupletValues>();
+
+		private int m_lastStart = 0;
+
+		private int m_lastLine = 1;
+
+		Reader(byte[] data) {
+			super(data);
+		}
+
+		TuneBook readTuneBook() throws IOException {
+			TuneBook tuneBook = new TuneBook();
+			readInfos(tuneBook.getBookInfos());
+			ArrayList<Instruction> instructions = readInstructions();
+			for (Instruction instruction : instructions)
+				tuneBook.addInstruction(instruction);
+			int count = readCount();
+			for (int i = 0; i < count; i++)
+				tuneBook.putTune(readTune(tuneBook));
+			return tuneBook;
+		}
+
+		/**
+		 * @param tuneBook
+		 *            The book the tune is read with, it is not put in it,
+		 *            <code>null</code> if the tune is read alone.
+		 */
+		Tune readTune(TuneBook tuneBook) throws IOException {
+			Tune tune = new Tune();
+			tune.setReferenceNumber(readSignedVarInt());
+			tune.setElemskip(readSignedVarInt());
+			TuneInfos infos = tune.getTuneInfos();
+			readInfos(infos);
+			if (tuneBook == null) {
+				if (readBoolean()) {
+					TuneInfos bookInfos = new TuneInfos();
+					readInfos(bookInfos);
+					infos.setBookInfos(bookInfos);
+				}
+			}
+			//putTune() will add the book instructions
+			ArrayList<Instruction> instructions = readInstructions();
+			for (Instruction instruction : instructions)
+				tune.addInstruction(instruction);
+			readMusic(tune.getDefaultPart().getMusic());
+			int parts = readCount() - 1;
+			for (int i = 0; i < parts; i++) {
+				String label = readString();
+				if ((label == null) || (label.length() == 0))
+					throw new IOException("Invalid part label");
+				readMusic(tune.createPart(label).getMusic());
+			}
+			if (readBoolean()) {
+				RepeatedPartAbstract rpa = readRepeatedPart(tune);
+				if (!(rpa instanceof MultiPartsDefinition))
+					throw new IOException("Invalid multi parts definition");
+				tune.setMultiPartsDefinition((MultiPartsDefinition) rpa);
+			}
+			for (TupletValues values : m_tuplets) {
+				Tuplet tuplet = new Tuplet(values.number, values.notes,
+						values.totalRelativeLength, values.defaultNoteLength);
+				if (values.position != null)
+					tuplet.restoreCharStreamPosition(values.position);
+			}
+			m_tuplets.clear();
+			m_shared.clear();
+			return tune;
+		}
+
+		private void readInfos(TuneInfos infos) throws IOException {
+			int count = readCount();
+			for (int i = 0; i < count; i++) {
+				byte key = (byte) readByte();
+				infos.set(key, readString());
+			}
+		}
+
+		private ArrayList<Instruction> readInstructions() throws IOException {
+			int count = readCount();
+			ArrayList<Instruction> ret = new ArrayList<Instruction>(count);
+			for (int i = 0; i < count; i++) {
+				MusicElement element = readElement(Note.EIGHTH);
+				if (!(element instanceof Instruction))
+					throw new IOException("Invalid instruction "
+							+ element.getClass().getName());
+				ret.add((Instruction) element);
+			}
+			return ret;
+		}
+
+		private RepeatedPartAbstract readRepeatedPart(Tune tune)
+				throws IOException {
+			int tag = readByte();
+			byte repeats = (byte) readByte();
+			RepeatedPartAbstract ret;
+			if (tag == MULTI_PARTS) {
+				MultiPartsDefinition mpd = new MultiPartsDefinition();
+				int count = readCount();
+				for (int i = 0; i < count; i++)
+					mpd.addPart(readRepeatedPart(tune));
+				ret = mpd;
+			} else if (tag == REPEATED_PART) {
+				int index = readVarInt() - 1;
+				Part part;
+				if (index == -1)
+					part = tune.getDefaultPart();
+				else if ((index >= 0) && (tune.getParts() != null)
+						&& (index < tune.getParts().size()))
+					part = tune.getParts().get(index);
+				else
+					throw new IOException("Invalid part index " + index);
+				ret = new RepeatedPart(part);
+			} else
+				throw new IOException("Invalid repeated part tag " + tag);
+			ret.setNumberOfRepeats(repeats);
+			return ret;
+		}
+
+		private void readMusic(Music music) throws IOException {
+			int count = readCount();
+			for (int i = 0; i < count; i++) {
+				String id = readString();
+				if (id == null)
+					throw new IOException("Invalid voice id");
+				if (music.voiceExists(id))
+					throw new IOException("Duplicate voice " + id);
+				readVoice(music.getVoice(id));
+			}
+		}
+
+		private void readVoice(Voice voice) throws IOException {
+			String name = readString();
+			if (name != null)
+				voice.setName(name);
+			voice.setSubname(readString());
+			voice.setStemPolicy((byte) readByte());
+			voice.setInstrument((byte) readByte());
+			voice.setVolume((byte) readByte());
+			if (readBoolean()) {
+				Note[] strings = new Note[readCount()];
+				for (int i = 0; i < strings.length; i++)
+					strings[i] = readElement(Note.class);
+				voice.setTablature(new Tablature(strings, readSignedVarInt()));
+			}
+			int size = readCount();
+			voice.ensureCapacity(size);
+			short referenceLength = Note.EIGHTH;
+			for (int i = 0; i < size; i++) {
+				MusicElement element = readElement(referenceLength);
+				if (element instanceof PositionableInTime) {
+					short s = ((PositionableInTime) element)
+							.getReferenceNoteLength();
+					if (s != referenceLength) {
+						referenceLength = s;
+						voice.setReferenceNoteLength(s);
+					}
+				}
+				voice.addElement(element);
+			}
+		}
+
+		private MusicElement readElement(short referenceLength)
+				throws IOException {
+			int tag = readByte();
+			int flags = readVarInt();
+			CharStreamPosition position = null;
+			if ((flags & POSITION) != 0)
+				position = readPosition();
+			Decoration[] decorations = null;
+			Chord chord = null;
+			Dynamic dynamic = null;
+			Vector<Annotation> annotations = null;
+			if ((flags & DECORATIONS) != 0) {
+				decorations = new Decoration[readCount()];
+				for (int i = 0; i < decorations.length; i++)
+					decorations[i] = readElement(Decoration.class);
+			}
+			if ((flags & CHORD_NAME) != 0)
+				chord = readElement(Chord.class);
+			if ((flags & DYNAMIC_MARK) != 0)
+				dynamic = readElement(Dynamic.class);
+			if ((flags & ANNOTATIONS) != 0) {
+				int count = readCount();
+				annotations = new Vector<Annotation>(count);
+				for (int i = 0; i < count; i++)
+					annotations.add(readElement(Annotation.class));
+			}
+			if ((flags & REFERENCE_LENGTH) != 0)
+				referenceLength = (short) readSignedVarInt();
+			byte dotted = 0;
+			NoteAbstract[] graces = null;
+			byte gracingType = GracingType.APPOGGIATURA;
+			TupletValues tuplet = null;
+			TieDefinition tie = null;
+			SlurDefinition[] slurs = null;
+			if ((tag == NOTE) || (tag == MULTI_NOTE)) {
+				if ((flags & DOTTED) != 0)
+					dotted = (byte) readByte();
+				if ((flags & GRACING_NOTES) != 0) {
+					graces = new NoteAbstract[readCount()];
+					for (int i = 0; i < graces.length; i++) {
+						MusicElement grace = readElement(Note.EIGHTH);
+						if (!(grace instanceof NoteAbstract))
+							throw new IOException("Invalid gracing note");
+						graces[i] = (NoteAbstract) grace;
+					}
+				}
+				if ((flags & GRACING_TYPE) != 0)
+					gracingType = (byte) readByte();
+				if ((flags & TUPLET) != 0)
+					tuplet = readTuplet();
+				if ((flags & TIE) != 0)
+					tie = (TieDefinition) readLink(true);
+				if ((flags & SLURS) != 0) {
+					slurs = new SlurDefinition[readCount()];
+					for (int i = 0; i < slurs.length; i++)
+						slurs[i] = (SlurDefinition) readLink(false);
+				}
+			}
+			MusicElement element = readValues(tag, flags);
+			if (position != null)
+				element.restoreCharStreamPosition(position);
+			if (element instanceof DecorableElement) {
+				DecorableElement decorable = (DecorableElement) element;
+				if (decorations != null)
+					for (int i = 0; i < decorations.length; i++)
+						decorable.addDecoration(decorations[i]);
+				decorable.setChord(chord);
+				decorable.setDynamic(dynamic);
+				decorable.setAnnotations(annotations);
+			}
+			if (element instanceof PositionableInTime)
+				((PositionableInTime) element)
+						.setReferenceNoteLength(referenceLength);
+			if (element instanceof NoteAbstract) {
+				NoteAbstract na = (NoteAbstract) element;
+				if (dotted != 0)
+					na.setDotted(dotted);
+				na.setGracingNotes(graces);
+				na.setGracingType(gracingType);
+				na.setGeneralGracing((flags & GENERAL_GRACING) != 0);
+				na.setPartOfSlur((flags & PART_OF_SLUR) != 0);
+				if (tuplet != null)
+					tuplet.notes.add(na);
+				na.setTieDefinition(tie);
+				if (slurs != null)
+					for (int i = 0; i < slurs.length; i++)
+						na.addSlurDefinition(slurs[i]);
+			}
+			if (element instanceof Note) {
+				//dots reset the duration, which may have been set by
+				//a tuplet or in an absolute manner
+				setLength((Note) element, (short) readVarInt());
+			}
+			return element;
+		}
+
+		/** setDuration() would print a warning for each note */
+		@SuppressWarnings("deprecation")
+		private static void setLength(Note note, short length) {
+			note.setLength(length);
+		}
+
+		/** Reads an element which must be of the given class */
+		private <T extends MusicElement> T readElement(Class<T> c)
+				throws IOException {
+			MusicElement element = readElement(Note.EIGHTH);
+			if (!c.isInstance(element))
+				throw new IOException(c.getName() + " expected, found "
+						+ element.getClass().getName());
+			return c.cast(element);
+		}
+
+		/** Creates an element and reads the values specific to its class */
+		private MusicElement readValues(int tag, int flags) throws IOException {
+			switch (tag) {
+			case NOTE: {
+				Note note = new Note((byte) readSignedVarInt());
+				if ((flags & OCTAVE) != 0)
+					note.setOctaveTransposition((byte) readSignedVarInt());
+				if ((flags & ACCIDENTAL) != 0)
+					note.setAccidental(readAccidental());
+				note.setStrictDuration((short) readVarInt());
+				note.setInvisibleRest((flags & INVISIBLE_REST) != 0);
+				return note;
+			}
+			case MULTI_NOTE: {
+				int count = readCount();
+				Vector<Note> notes = new Vector<Note>(count);
+				for (int i = 0; i < count; i++)
+					notes.add(readElement(Note.class));
+				return new MultiNote(notes);
+			}
+			case BAR_LINE:
+				return new BarLine((byte) readByte());
+			case REPEAT_BAR_LINE: {
+				byte type = (byte) readByte();
+				byte[] numbers = null;
+				int count = readCount() - 1;
+				if (count >= 0) {
+					numbers = new byte[count];
+					for (int i = 0; i < count; i++)
+						numbers[i] = (byte) readByte();
+				}
+				String text = readString();
+				if ((numbers != null) && (numbers.length == 0))
+					return new RepeatBarLine(type, text);
+				return new RepeatBarLine(type, numbers);
+			}
+			case KEY_SIGNATURE: {
+				byte keyNote = (byte) readByte();
+				Accidental keyAccidental = readAccidental();
+				byte mode = (byte) readByte();
+				KeySignature key;
+				try {
+					key = new KeySignature(keyNote, keyAccidental, mode);
+				} catch (RuntimeException e) {
+					throw new IOException("Invalid key signature", e);
+				}
+				for (int i = 0; i < KEY_HEIGHTS.length; i++) {
+					Accidental accidental = readAccidental();
+					if (!accidental.equals(key.getAccidentals()[i]))
+						key.setAccidental(KEY_HEIGHTS[i], accidental);
+				}
+				key.setClef(readElement(Clef.class));
+				return key;
+			}
+			case TIME_SIGNATURE: {
+				int[] sum = null;
+				int count = readCount() - 1;
+				if (count >= 0) {
+					sum = new int[count];
+					for (int i = 0; i < count; i++)
+						sum[i] = readSignedVarInt();
+				}
+				int num = readSignedVarInt();
+				int den = readSignedVarInt();
+				if (sum != null)
+					return new TimeSignature(sum, den);
+				return new TimeSignature(num, den);
+			}
+			case FRACTION:
+				return new Fraction(readSignedVarInt(), readSignedVarInt());
+			case TEMPO:
+				return new Tempo((short) readSignedVarInt(),
+						(short) readSignedVarInt());
+			case END_OF_STAFF_LINE:
+				return new EndOfStaffLine();
+			case NOTES_SEPARATOR:
+				return new NotesSeparator();
+			case SPACER:
+				return new Spacer(readFloat());
+			case MEASURE_REST:
+				return new MeasureRest(readSignedVarInt());
+			case MEASURE_REPEAT:
+				return new MeasureRepeat(readSignedVarInt());
+			case REPEAT_END:
+				return new RepeatEnd();
+			case PART_LABEL:
+				return new PartLabel(readString());
+			case WORDS:
+				return new Words(readString());
+			case XCOMMAND:
+				return new Xcommand(readString());
+			case ELEMSKIP:
+				//the value isn't kept by the element
+				return new Elemskip(0);
+			case CLEF:
+				return new Clef(readString(), (byte) readByte(),
+						(byte) readByte(), (byte) readByte(), (byte) readByte(),
+						(byte) readByte());
+			case CHORD: {
+				Chord chord = new Chord(readString());
+				chord.setNote(readBoolean() ? readElement(Note.class) : null);
+				chord.setBass(readBoolean() ? readElement(Note.class) : null);
+				return chord;
+			}
+			case ANNOTATION:
+				return new Annotation(readString(), readString());
+			case DECORATION:
+				return new Decoration((byte) readByte());
+			case DYNAMIC:
+				return new Dynamic((byte) readByte());
+			case USER_DEFINED_PLAY_SYMBOL:
+			case USER_DEFINED_PRINT_SYMBOL: {
+				char symbol = (char) readVarInt();
+				SymbolElement symbolElement = readElement(SymbolElement.class);
+				if (tag == USER_DEFINED_PLAY_SYMBOL)
+					return new UserDefinedPlaySymbol(symbol, symbolElement);
+				return new UserDefinedPrintSymbol(symbol, symbolElement);
+			}
+			default:
+				throw new IOException("Invalid element tag " + tag);
+			}
+		}
+
+		private TupletValues readTuplet() throws IOException {
+			int index = readVarInt() - 1;
+			if (index >= 0)
+				return (TupletValues) getShared(index, TupletValues.class);
+			TupletValues values = new TupletValues();
+			m_shared.add(values);
+			m_tuplets.add(values);
+			values.number = (short) readSignedVarInt();
+			values.totalRelativeLength = (short) readSignedVarInt();
+			values.defaultNoteLength = (short) readSignedVarInt();
+			if (readBoolean())
+				values.position = readPosition();
+			return values;
+		}
+
+		private TwoNotesLink readLink(boolean tie) throws IOException {
+			int index = readVarInt() - 1;
+			if (index >= 0)
+				return (TwoNotesLink) getShared(index,
+						tie ? TieDefinition.class : SlurDefinition.class);
+			TwoNotesLink link = tie ? new TieDefinition()
+					: new SlurDefinition();
+			m_shared.add(link);
+			if (readBoolean())
+				link.restoreCharStreamPosition(readPosition());
+			link.setStart(readReference());
+			link.setEnd(readReference());
+			return link;
+		}
+
+		private Object getShared(int index, Class<?> c) throws IOException {
+			if ((index >= m_shared.size())
+					|| !c.isInstance(m_shared.get(index)))
+				throw new IOException("Invalid shared object index " + index);
+			return m_shared.get(index);
+		}
+
+		private MusicElementReference readReference() throws IOException {
+			if (!readBoolean())
+				return null;
+			MusicElementReference ref = new MusicElementReference();
+			ref.setPart(readString());
+			ref.setVoice(readString());
+			ref.setX((short) readSignedVarInt());
+			ref.setY((byte) readSignedVarInt());
+			return ref;
+		}
+
+		private Accidental readAccidental() throws IOException {
+			int code = readByte();
+			if (code == 0)
+				return Accidental.NONE;
+			if (code <= ACCIDENTALS.length)
+				return ACCIDENTALS[code - 1];
+			if (code == 10)
+				return new Accidental(readFloat());
+			if (code == 11)
+				return new Accidental(readElement(Fraction.class));
+			throw new IOException("Invalid accidental " + code);
+		}
+
+		private CharStreamPosition readPosition() throws IOException {
+			int start = m_lastStart + readSignedVarInt();
+			int end = start + readSignedVarInt();
+			int line = m_lastLine + readSignedVarInt();
+			int column = readSignedVarInt();
+			m_lastStart = start;
+			m_lastLine = line;
+			return new CharStreamPosition(line, column, start, end);
+		}
+	}
+
+}
@@ -19,6 +19,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * TuneInfos is a convenient way to store textual informations about a tune or a
@@ -294,4 +295,16 @@ public class TuneInfos implements Cloneable, Serializable {
 	protected void setBookInfos(TuneInfos bookInfos) {
 		m_bookInfos = bookInfos;
 	}
+
+	/** Returns the infos of the book containing the tune, <TT>null</TT>
+	 * if none. */
+	TuneInfos getBookInfos() {
+		return m_bookInfos;
+	}
+
+	/** Returns the fields defined for the tune itself, without the
+	 * fields of the book. */
+	Map<Byte, String> getOwnInfos() {
+		return m_infos;
+	}
 }
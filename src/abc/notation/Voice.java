@@ -15,10 +15,25 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.notation;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 /**
  * A Voice is a vector of {@link MusicElement music elements} (notes, bars...).
@@ -30,6 +45,16 @@ import java.util.Vector;
  * Voice has a sound (instrument, volume) and some related properties.
  * 
  * Voice can also have lyrics, a {@link abc.notation.Tablature}...
+ * <p>
+ * Unlike a <TT>Vector</TT>, the elements are read and added without
+ * synchronization: a voice is built by one thread, the parser. To be read
+ * by several threads (rendering, playback...), it must be
+ * {@link #freeze() frozen}, see
+ * {@link abc.parser.AbcParserAbstract#setFreezing(boolean)}. Changing a
+ * frozen voice throws an <TT>UnsupportedOperationException</TT>, its
+ * {@link #clone() clone} can be changed. Only <TT>subList</TT>,
+ * <TT>equals</TT> and <TT>hashCode</TT> still lock the voice as a
+ * <TT>Vector</TT> does.
  */
 public class Voice extends Vector<MusicElement> implements Cloneable, Serializable {
 
@@ -39,6 +64,30 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 	
 	private transient PositionableInTime m_lastPosInTime = null;
 	
+	private transient Timeline m_timeline = null;
+	
+	/** Not serialized, a deserialized (or cloned) voice can be changed */
+	private transient volatile boolean m_frozen = false;
+	
+	/**
+	 * Index of the notes and multi notes, and of the notes of multi notes,
+	 * for {@link #indexOf(MusicElement)}. Built on request, then maintained
+	 * by {@link #addElement(MusicElement)}, <TT>null</TT> after other
+	 * changes. Volatile as it is published once built.
+	 */
+	private transient volatile IdentityHashMap<MusicElement, Integer> m_noteIndexes = null;
+	
+	/**
+	 * Built on request, <TT>null</TT> after changes, built again after
+	 * changes of the heights of the notes
+	 */
+	private transient NoteHeightTable m_highestNotes = null;
+	
+	private transient NoteHeightTable m_lowestNotes = null;
+	
+	/** Count of the changes, tells the indexes of the music when to build again */
+	private transient int m_changeCount = 0;
+	
 	private transient short m_ReferenceNoteLength = Note.EIGHTH;
 	
 	/**
@@ -89,7 +138,8 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 		addElement0(element);
 	}
 	
-	private synchronized void addElement0(MusicElement me) {
+	private void addElement0(MusicElement me) {
+		checkNotFrozen();
   		//CD EF | CD/E/ F2 | (3CDE F2
   		if (me == null)
 			System.err.println(toString() + " addElement0 null");
@@ -125,12 +175,418 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 				PositionableInTime pit = (PositionableInTime) me;
 				pit.setPreviousElement(m_lastPosInTime);
 				pit.setReferenceNoteLength(m_ReferenceNoteLength);
-				m_lastPosInTime = pit;
+				addToTimeline(pit);
 			}
-			super.addElement(me);
+			IdentityHashMap<MusicElement, Integer> noteIndexes = m_noteIndexes;
+			if (noteIndexes != null)
+				indexNote(noteIndexes, me, elementCount);
+			m_highestNotes = null;
+			m_lowestNotes = null;
+			m_changeCount++;
+			modCount++;
+			if (elementCount == elementData.length)
+				elementData = Arrays.copyOf(elementData, Math.max(
+						elementCount * 2, 10));
+			elementData[elementCount++] = me;
 		}
 	}
 	
+	/**
+	 * Adds an element at the end of the timeline, the notes of a multi note
+	 * get the position of the multi note.
+	 */
+	private void addToTimeline(PositionableInTime pit) {
+		if ((m_timeline == null) || (m_lastPosInTime == null))
+			m_timeline = new Timeline();
+		int index = m_timeline.add(pit);
+		pit.setTimeline(m_timeline, index);
+		if (pit instanceof MultiNote) {
+			//changes of the notes durations change the multi note one
+			Note[] notes = ((MultiNote) pit).toArray();
+			if (notes != null)
+				for (int i = 0; i < notes.length; i++)
+					notes[i].setTimeline(m_timeline, index);
+		}
+		m_lastPosInTime = pit;
+	}
+	
+	/**
+	 * The timeline isn't serialized, it is built again once for all the
+	 * elements, rather than by each element from its previous ones.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		for (int i = 0; i < elementCount; i++) {
+			if (elementData[i] instanceof PositionableInTime) {
+				PositionableInTime pit = (PositionableInTime) elementData[i];
+				//elements not added at the end keep their own chain
+				if (pit.getPreviousElement() == m_lastPosInTime)
+					addToTimeline(pit);
+			}
+		}
+	}
+	
+	/**
+	 * Makes this voice read only, e.g. at the end of parsing.
+	 */
+	public void freeze() {
+		m_frozen = true;
+	}
+	
+	/**
+	 * Returns <TT>true</TT> if this voice is read only.
+	 * 
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return m_frozen;
+	}
+	
+	private void checkNotFrozen() {
+		if (m_frozen)
+			throw new UnsupportedOperationException("Voice " + m_voiceId
+					+ " is frozen");
+	}
+	
+	/** Called before changes other than adding an element at the end */
+	private void beforeChange() {
+		checkNotFrozen();
+		m_noteIndexes = null;
+		m_highestNotes = null;
+		m_lowestNotes = null;
+		m_changeCount++;
+	}
+	
+	/** Returns the count of the changes made to this voice */
+	int getChangeCount() {
+		return m_changeCount;
+	}
+	
+	/** Adds a note, or a multi note and its notes, to the index */
+	private static void indexNote(
+			IdentityHashMap<MusicElement, Integer> noteIndexes,
+			MusicElement me, int index) {
+		if (me instanceof NoteAbstract) {
+			Integer i = Integer.valueOf(index);
+			//the first occurrence is kept
+			if (!noteIndexes.containsKey(me))
+				noteIndexes.put(me, i);
+			if (me instanceof MultiNote) {
+				Note[] notes = ((MultiNote) me).toArray();
+				if (notes != null)
+					for (int j = 0; j < notes.length; j++)
+						if (!noteIndexes.containsKey(notes[j]))
+							noteIndexes.put(notes[j], i);
+			}
+		}
+	}
+	
+	// Read methods, not synchronized
+	
+	public int size() {
+		return elementCount;
+	}
+	
+	public boolean isEmpty() {
+		return elementCount == 0;
+	}
+	
+	public MusicElement elementAt(int index) {
+		if (index >= elementCount)
+			throw new ArrayIndexOutOfBoundsException(index + " >= "
+					+ elementCount);
+		return (MusicElement) elementData[index];
+	}
+	
+	public MusicElement get(int index) {
+		return elementAt(index);
+	}
+	
+	public MusicElement firstElement() {
+		if (elementCount == 0)
+			throw new NoSuchElementException();
+		return (MusicElement) elementData[0];
+	}
+	
+	public MusicElement lastElement() {
+		if (elementCount == 0)
+			throw new NoSuchElementException();
+		return (MusicElement) elementData[elementCount - 1];
+	}
+	
+	public boolean contains(Object o) {
+		return indexOf(o, 0) >= 0;
+	}
+	
+	public boolean containsAll(Collection<?> c) {
+		for (Object o : c)
+			if (!contains(o))
+				return false;
+		return true;
+	}
+	
+	public int indexOf(Object o) {
+		return indexOf(o, 0);
+	}
+	
+	public int indexOf(Object o, int index) {
+		for (int i = index; i < elementCount; i++)
+			if (o == null ? elementData[i] == null : o.equals(elementData[i]))
+				return i;
+		return -1;
+	}
+	
+	public int lastIndexOf(Object o) {
+		return lastIndexOf(o, elementCount - 1);
+	}
+	
+	public int lastIndexOf(Object o, int index) {
+		if (index >= elementCount)
+			throw new IndexOutOfBoundsException(index + " >= "
+					+ elementCount);
+		for (int i = index; i >= 0; i--)
+			if (o == null ? elementData[i] == null : o.equals(elementData[i]))
+				return i;
+		return -1;
+	}
+	
+	public Object[] toArray() {
+		return Arrays.copyOf(elementData, elementCount);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public <T> T[] toArray(T[] a) {
+		if (a.length < elementCount)
+			return (T[]) Arrays.copyOf(elementData, elementCount, a.getClass());
+		System.arraycopy(elementData, 0, a, 0, elementCount);
+		if (a.length > elementCount)
+			a[elementCount] = null;
+		return a;
+	}
+	
+	public void copyInto(Object[] anArray) {
+		System.arraycopy(elementData, 0, anArray, 0, elementCount);
+	}
+	
+	public void forEach(Consumer<? super MusicElement> action) {
+		int expectedModCount = modCount;
+		for (int i = 0; i < elementCount; i++)
+			action.accept((MusicElement) elementData[i]);
+		if (modCount != expectedModCount)
+			throw new ConcurrentModificationException();
+	}
+	
+	public Enumeration<MusicElement> elements() {
+		return new Enumeration<MusicElement>() {
+			private int cursor = 0;
+			
+			public boolean hasMoreElements() {
+				return cursor < elementCount;
+			}
+			
+			public MusicElement nextElement() {
+				if (cursor >= elementCount)
+					throw new NoSuchElementException();
+				return (MusicElement) elementData[cursor++];
+			}
+		};
+	}
+	
+	public Iterator<MusicElement> iterator() {
+		return new Itr(0);
+	}
+	
+	public ListIterator<MusicElement> listIterator() {
+		return new Itr(0);
+	}
+	
+	public ListIterator<MusicElement> listIterator(int index) {
+		if ((index < 0) || (index > elementCount))
+			throw new IndexOutOfBoundsException("Index: " + index);
+		return new Itr(index);
+	}
+	
+	/** Also used by <TT>stream()</TT>, through the iterator */
+	public Spliterator<MusicElement> spliterator() {
+		return Spliterators.spliterator(this, Spliterator.ORDERED);
+	}
+	
+	/** Iterator reading without synchronization, changes go to the voice */
+	private class Itr implements ListIterator<MusicElement> {
+		private int cursor;
+		private int lastRet = -1;
+		private int expectedModCount = modCount;
+		
+		Itr(int index) {
+			cursor = index;
+		}
+		
+		public boolean hasNext() {
+			return cursor < elementCount;
+		}
+		
+		public MusicElement next() {
+			checkForComodification();
+			if (cursor >= elementCount)
+				throw new NoSuchElementException();
+			lastRet = cursor++;
+			return (MusicElement) elementData[lastRet];
+		}
+		
+		public boolean hasPrevious() {
+			return cursor > 0;
+		}
+		
+		public MusicElement previous() {
+			checkForComodification();
+			if (cursor == 0)
+				throw new NoSuchElementException();
+			lastRet = --cursor;
+			return (MusicElement) elementData[lastRet];
+		}
+		
+		public int nextIndex() {
+			return cursor;
+		}
+		
+		public int previousIndex() {
+			return cursor - 1;
+		}
+		
+		public void remove() {
+			if (lastRet == -1)
+				throw new IllegalStateException();
+			checkForComodification();
+			Voice.this.remove(lastRet);
+			cursor = lastRet;
+			lastRet = -1;
+			expectedModCount = modCount;
+		}
+		
+		public void set(MusicElement e) {
+			if (lastRet == -1)
+				throw new IllegalStateException();
+			checkForComodification();
+			Voice.this.set(lastRet, e);
+		}
+		
+		public void add(MusicElement e) {
+			checkForComodification();
+			Voice.this.add(cursor++, e);
+			lastRet = -1;
+			expectedModCount = modCount;
+		}
+		
+		private void checkForComodification() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+	}
+	
+	// Write methods, not allowed once frozen
+	
+	public boolean add(MusicElement e) {
+		beforeChange();
+		return super.add(e);
+	}
+	
+	public void add(int index, MusicElement element) {
+		beforeChange();
+		super.add(index, element);
+	}
+	
+	public boolean addAll(Collection<? extends MusicElement> c) {
+		beforeChange();
+		return super.addAll(c);
+	}
+	
+	public boolean addAll(int index,
+			Collection<? extends MusicElement> c) {
+		beforeChange();
+		return super.addAll(index, c);
+	}
+	
+	public void clear() {
+		beforeChange();
+		super.clear();
+	}
+	
+	public void insertElementAt(MusicElement obj, int index) {
+		beforeChange();
+		super.insertElementAt(obj, index);
+	}
+	
+	public MusicElement remove(int index) {
+		beforeChange();
+		return super.remove(index);
+	}
+	
+	public boolean remove(Object o) {
+		beforeChange();
+		return super.remove(o);
+	}
+	
+	public boolean removeAll(Collection<?> c) {
+		beforeChange();
+		return super.removeAll(c);
+	}
+	
+	public void removeAllElements() {
+		beforeChange();
+		super.removeAllElements();
+	}
+	
+	public boolean removeElement(Object obj) {
+		beforeChange();
+		return super.removeElement(obj);
+	}
+	
+	public void removeElementAt(int index) {
+		beforeChange();
+		super.removeElementAt(index);
+	}
+	
+	public boolean removeIf(Predicate<? super MusicElement> filter) {
+		beforeChange();
+		return super.removeIf(filter);
+	}
+	
+	protected void removeRange(int fromIndex, int toIndex) {
+		beforeChange();
+		super.removeRange(fromIndex, toIndex);
+	}
+	
+	public void replaceAll(UnaryOperator<MusicElement> operator) {
+		beforeChange();
+		super.replaceAll(operator);
+	}
+	
+	public boolean retainAll(Collection<?> c) {
+		beforeChange();
+		return super.retainAll(c);
+	}
+	
+	public MusicElement set(int index, MusicElement element) {
+		beforeChange();
+		return super.set(index, element);
+	}
+	
+	public void setElementAt(MusicElement obj, int index) {
+		beforeChange();
+		super.setElementAt(obj, index);
+	}
+	
+	public void setSize(int newSize) {
+		beforeChange();
+		super.setSize(newSize);
+	}
+	
+	public void sort(Comparator<? super MusicElement> c) {
+		beforeChange();
+		super.sort(c);
+	}
+	
 	/**
 	 * Return true if the bar is empty or contains only barline and spacer(s).
 	 * False if barline contain other kind of music element
@@ -146,7 +602,16 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 	}
 	
 	public Object clone() {
-		return super.clone();
+		Voice ret = (Voice) super.clone();
+		//elements added to the clone mustn't be added to this timeline
+		if (m_timeline != null)
+			ret.m_timeline = m_timeline.copy();
+		ret.m_frozen = false;
+		//shared by the two voices else
+		ret.m_noteIndexes = null;
+		ret.m_highestNotes = null;
+		ret.m_lowestNotes = null;
+		return ret;
 	}
 
 	public Collection<MusicElement> getBarContent(Bar bar) {
@@ -163,6 +628,29 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 		return ret;
 	}
 
+	/**
+	 * Returns the element of this voice having the given reference,
+	 * <TT>null</TT> if not found.
+	 * <p>
+	 * The element at the horizontal index of the reference is checked first,
+	 * all the elements are checked only if it doesn't match.
+	 */
+	public MusicElement getElementByReference(MusicElementReference ref) {
+		int x = ref.getX();
+		if ((x >= 0) && (x < elementCount)) {
+			MusicElement element = (MusicElement) elementData[x];
+			if ((element != null) && element.getReference().equals(ref))
+				return element;
+		}
+		//voice has been changed, or the element isn't in the voice
+		for (int i = 0; i < elementCount; i++) {
+			MusicElement element = (MusicElement) elementData[i];
+			if ((element != null) && element.getReference().equals(ref))
+				return element;
+		}
+		return null;
+	}
+
 	public Bar getFirstBar() {
 		return (Bar) m_bars.get(new Short(m_firstBarNumber));
 	}
@@ -207,24 +695,28 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 		if (idxBegin > idxEnd)
 			throw new IllegalArgumentException("Note " + elmtBegin
 					+ " is located after " + elmtEnd + " in voice "+getVoiceId());
-		MusicElement currentScoreEl;
-		int currentNoteHeight;
-		for (int i = idxBegin + 1; i <= idxEnd; i++) {
-			currentScoreEl = (MusicElement) elementAt(i);
-			if (currentScoreEl instanceof NoteAbstract) {
-				currentNoteHeight = (currentScoreEl instanceof MultiNote) ? ((MultiNote) currentScoreEl)
-						.getHighestNote().getMidiLikeHeight()
-						: ((Note) currentScoreEl).getMidiLikeHeight();
-				if ((currentNoteHeight != Note.REST)
-						&& ((highestNoteHeight == Note.REST) || (currentNoteHeight > highestNoteHeight))) {
-					highestNoteHeight = currentNoteHeight;
-					highestNote = (NoteAbstract) currentScoreEl;
-				}
-			}
+		int heightChanges = getHeightChanges();
+		NoteHeightTable table = m_highestNotes;
+		if ((table == null) || (table.getHeightChanges() != heightChanges)) {
+			table = new NoteHeightTable(this, true, heightChanges);
+			m_highestNotes = table;
 		}
+		int i = table.indexOfNote(idxBegin + 1, idxEnd);
+		if ((i != -1)
+				&& ((highestNoteHeight == Note.REST) || (table.getHeight(i) > highestNoteHeight)))
+			highestNote = (NoteAbstract) elementAt(i);
 		return highestNote;
 	}
 
+	/**
+	 * Returns the count of the changes of the heights of the notes, which
+	 * make the highest and lowest note tables out of date
+	 */
+	private int getHeightChanges() {
+		Timeline timeline = m_timeline;
+		return (timeline == null) ? 0 : timeline.getHeightChanges();
+	}
+
 	/** Get MIDI program (instrument) */
 	public byte getInstrument() {
 		return m_instrument;
@@ -301,21 +793,16 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 		if (idxBegin > idxEnd)
 			throw new IllegalArgumentException("Note " + elmtBegin
 					+ " is located after " + elmtEnd + " in voice "+getVoiceId());
-		MusicElement currentScoreEl;
-		int currentNoteHeight;
-		for (int i = idxBegin + 1; i <= idxEnd; i++) {
-			currentScoreEl = (MusicElement) elementAt(i);
-			if (currentScoreEl instanceof NoteAbstract) {
-				currentNoteHeight = (currentScoreEl instanceof MultiNote) ? ((MultiNote) currentScoreEl)
-						.getLowestNote().getMidiLikeHeight()
-						: ((Note) currentScoreEl).getMidiLikeHeight();
-				if ((currentNoteHeight != Note.REST)
-						&& ((lowestNoteHeight == Note.REST) || (currentNoteHeight < lowestNoteHeight))) {
-					lowestNoteHeight = currentNoteHeight;
-					lowestNote = (NoteAbstract) currentScoreEl;
-				}
-			}
+		int heightChanges = getHeightChanges();
+		NoteHeightTable table = m_lowestNotes;
+		if ((table == null) || (table.getHeightChanges() != heightChanges)) {
+			table = new NoteHeightTable(this, false, heightChanges);
+			m_lowestNotes = table;
 		}
+		int i = table.indexOfNote(idxBegin + 1, idxEnd);
+		if ((i != -1)
+				&& ((lowestNoteHeight == Note.REST) || (table.getHeight(i) < lowestNoteHeight)))
+			lowestNote = (NoteAbstract) elementAt(i);
 		return lowestNote;
 
 	}
@@ -497,6 +984,19 @@ public class Voice extends Vector<MusicElement> implements Cloneable, Serializab
 	}
 
 	public int indexOf(MusicElement elmnt) {
+		if (elmnt instanceof NoteAbstract) {
+			//notes are equal only to themselves, use the index
+			IdentityHashMap<MusicElement, Integer> noteIndexes = m_noteIndexes;
+			if (noteIndexes == null) {
+				//built aside, a frozen voice may be read by several threads
+				noteIndexes = new IdentityHashMap<MusicElement, Integer>();
+				for (int i = 0; i < elementCount; i++)
+					indexNote(noteIndexes, (MusicElement) elementData[i], i);
+				m_noteIndexes = noteIndexes;
+			}
+			Integer i = noteIndexes.get(elmnt);
+			return i != null ? i.intValue() : -1;
+		}
 		if (elmnt != null) {
 			Object elmntIt = null;
 			boolean isLooking4Note = elmnt instanceof Note;
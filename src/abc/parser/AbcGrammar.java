@@ -23,16 +23,48 @@ import org.parboiled.annotations.BuildParseTree;
 @BuildParseTree
 public class AbcGrammar extends BaseParser implements AbcTokens {
 
-	private static AbcGrammar instance = null;
+	/**
+	 * Holds the single grammar instance, built by the JVM when
+	 * {@link AbcGrammar#getInstance()} is first called, so getting it
+	 * needs no lock.
+	 */
+	private static class InstanceHolder {
+		private static final AbcGrammar instance = new AbcGrammar();
+	}
+	
+	/**
+	 * Returns the grammar, which can be shared by threads: rules are built
+	 * once, and parboiled matchers are not modified when input is matched.
+	 */
+	protected static AbcGrammar getInstance() {
+		return InstanceHolder.instance;
+	}
+	
+	private final Rule abcTuneRule;
 	
-	protected static synchronized AbcGrammar getInstance() {
-		if (instance == null) {
-			instance = new AbcGrammar();
-		}
-		return instance;
+	private final Rule abcFileRule;
+	
+	private AbcGrammar() {
+		//AbcFile() uses the tune rule, build it first
+		abcTuneRule = AbcTune();
+		abcFileRule = AbcFile();
+	}
+	
+	/**
+	 * Returns the {@link #AbcFile()} rule, built once since building the
+	 * whole rule tree is expensive.
+	 */
+	protected Rule getAbcFileRule() {
+		return abcFileRule;
 	}
 	
-	private AbcGrammar() {}
+	/**
+	 * Returns the {@link #AbcTune()} rule, built once since building the
+	 * whole rule tree is expensive.
+	 */
+	protected Rule getAbcTuneRule() {
+		return abcTuneRule;
+	}
 	
 	/**
 	 * abc-file ::= *(abc-tune / comment / xcommand / file-field / text-line /
@@ -41,19 +73,21 @@ public class AbcGrammar extends BaseParser implements AbcTokens {
 	public Rule AbcFile() {
 		//return ZeroOrMore(FirstOfS(AbcTune(), Comment(), Xcommand(),
 		//		FileField(), TextLine(), Tex())).label("AbcFile");
+		//the tune rule is shared, it is expensive to build
+		Rule abcTune = getAbcTuneRule();
 		return Sequence(
 			ZeroOrMore(
 				FirstOfS(Eols(),
 					Comment(), Xcommand(), Tex(),
 					FileField(), TextLine() 
 				)).label(AbcTuneBookHeader),
-			AbcTune(),
+			abcTune,
 			ZeroOrMoreS(
 				//SequenceS(
 				//	ZeroOrMoreS(Comment()),
 				//	OptionalS(Eols()),
 					//FirstOf(EOI, AbcTune())
-					AbcTune()
+					abcTune
 				//)
 			)
 		).label(AbcFile);
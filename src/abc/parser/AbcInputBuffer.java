@@ -15,6 +15,8 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.util.Arrays;
+
 import org.parboiled.buffers.DefaultInputBuffer;
 
 /**
@@ -23,21 +25,115 @@ import org.parboiled.buffers.DefaultInputBuffer;
  * exact position in *source* ABC string. The parser builds
  * an input buffer but adds some {@link org.parboiled.support.Chars}
  * to mark del/ins errors.
+ * <p>
+ * The index of newlines is built once, when the buffer is created, and
+ * shared by the parser and by the nodes built from the parsing: an index
+ * is mapped to its line and column by a binary search, and a line and
+ * column to an index in constant time.
  */
 public class AbcInputBuffer extends DefaultInputBuffer {
 
+	/** Line of the first char of the buffer in the whole source */
+	private int m_firstLine = 1;
+
+	/** Index of the first char of the buffer in the whole source */
+	private int m_firstIndex = 0;
+
 	protected AbcInputBuffer(char[] buffer) {
-        super(buffer);
-    }
+		this(buffer, 1, 0);
+	}
+
+	/**
+	 * Creates a buffer for a part of a bigger source, e.g. one tune of a
+	 * tune book, so that {@link #getIndex(Position)} and
+	 * {@link #getLine(Position)} return values relative to the whole source.
+	 * 
+	 * @param buffer
+	 * @param firstLine line of buffer first char in the whole source
+	 * (starting at 1), buffer must start at the beginning of a line.
+	 * @param firstIndex index of buffer first char in the whole source
+	 * (starting at 0)
+	 */
+	protected AbcInputBuffer(char[] buffer, int firstLine, int firstIndex) {
+		super(buffer);
+		m_firstLine = firstLine;
+		m_firstIndex = firstIndex;
+		int[] lfs = new int[64];
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			if (buffer[i] == '\n') {
+				if (count == lfs.length)
+					lfs = Arrays.copyOf(lfs, count * 2);
+				lfs[count++] = i;
+			}
+		}
+		newlines = Arrays.copyOf(lfs, count);
+	}
+
+	/** The index is built by the constructor */
+	protected void buildNewlines() {
+	}
 
 	protected int getIndex(Position position) {
-		buildNewlines();
 		if ((position.line <= 0) || (position.line > newlines.length + 1))
 			throw new IllegalArgumentException("Line "+ position.line + " out of bounds");
 		int linestart = (position.line > 1)
 				? (newlines[position.line - 2] + 1)
 				: 0;
-		return linestart + position.column - 1;
+		return m_firstIndex + linestart + position.column - 1;
+	}
+
+	/** Returns the line of position in the whole source */
+	protected int getLine(Position position) {
+		return m_firstLine + position.line - 1;
+	}
+
+	/**
+	 * Returns the line of an index of the whole source, which must be in
+	 * this buffer (starting at 1)
+	 */
+	protected int getLine(int sourceIndex) {
+		return m_firstLine + getLine0(newlines, sourceIndex - m_firstIndex);
+	}
+
+	/**
+	 * Returns the column of an index of the whole source, which must be in
+	 * this buffer (starting at 1)
+	 */
+	protected int getColumn(int sourceIndex) {
+		int index = sourceIndex - m_firstIndex;
+		int line0 = getLine0(newlines, index);
+		return index - (line0 > 0 ? newlines[line0 - 1] : -1);
+	}
+
+	/**
+	 * Returns the position in the whole source of chars of this buffer, from
+	 * startIndex to endIndex excluded, without creating a {@link Position}.
+	 * endIndex is bounded to the end of the buffer.
+	 */
+	protected CharStreamPosition getCharStreamPosition(int startIndex,
+			int endIndex) {
+		int line0 = getLine0(newlines, startIndex);
+		int column = startIndex - (line0 > 0 ? newlines[line0 - 1] : -1);
+		return new CharStreamPosition(m_firstLine + line0, column,
+				m_firstIndex + startIndex,
+				m_firstIndex + Math.min(endIndex, length));
+	}
+	/**
+	 * Returns the index following the last char of the buffer in the whole
+	 * source
+	 */
+	protected int getEndIndex() {
+		return m_firstIndex + length;
+	}
+
+	/**
+	 * Returns the chars between two indexes of the whole source, which must
+	 * be in this buffer.
+	 */
+	protected String extractSource(int startIndex, int endIndex) {
+		return new String(buffer, startIndex - m_firstIndex,
+				endIndex - startIndex);
 	}
 	
 }
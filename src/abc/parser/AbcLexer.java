@@ -0,0 +1,384 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts ABC text into tokens for lexical highlighting, e.g. in a text
+ * editor after each key stroke, without parsing it nor building any
+ * {@link abc.notation.MusicElement}.
+ * <p>
+ * A token is a range of chars with the {@link AbcTokens} label of the node
+ * the parser would build for it: {@link #Pitch} (with its accidental and
+ * octave), {@link #NoteLength}, {@link #Tie}, {@link #Barline},
+ * {@link #NthRepeat}, {@link #Gracing}, {@link #TuneField} (the letter of
+ * text fields, and the whole line of other fields), {@link #TexText},
+ * {@link #Comment}, {@link #Xcommand}, etc. Chars which are not part of a
+ * token, such as spaces, are skipped.
+ * <p>
+ * ABC is line oriented, so lines are tokenized independently of each other,
+ * and any range of lines can be tokenized without the rest of the text.
+ * Errors are not detected: tokens are the best guess for each char, the
+ * parser remains the reference, see {@link TuneParser}.
+ * <p>
+ * A lexer has no state and can be used by several threads.
+ */
+public class AbcLexer implements AbcTokens {
+
+	/** Letters of fields whose value is a {@link #TexText} */
+	private static final String TEXT_FIELDS = "ABCDEFGHJNORSTWYZ"
+			+ "abcdefghijklnopqrstvxyz";
+
+	/** Chars of {@link #UserdefSymbol} */
+	private static final String USERDEF_SYMBOLS =
+		"~HIJKLMNOPQRSTUVWXYhijklmnopqrstuvw";
+
+	private static final String BASE_NOTES = "CDEFGABcdefgab";
+
+	private static final String UNUSED_CHARS = "#$*+;?@`";
+
+	/** A range of chars and the label of its node */
+	public static class Token {
+
+		private String type;
+
+		private int startIndex;
+
+		private int endIndex;
+
+		private Token(String type, int startIndex, int endIndex) {
+			this.type = type;
+			this.startIndex = startIndex;
+			this.endIndex = endIndex;
+		}
+
+		/** Returns one of {@link AbcTokens} constants */
+		public String getType() {
+			return type;
+		}
+
+		/** Returns the index of the first char of the token */
+		public int getStartIndex() {
+			return startIndex;
+		}
+
+		/** Returns the index following the last char of the token */
+		public int getEndIndex() {
+			return endIndex;
+		}
+
+		public int getLength() {
+			return endIndex - startIndex;
+		}
+
+		public String toString() {
+			return type + "[" + startIndex + "," + endIndex + "]";
+		}
+	}
+
+	/**
+	 * Returns the tokens of text.
+	 */
+	public List<Token> tokenize(CharSequence text) {
+		return tokenize(text, 0, text.length());
+	}
+
+	/**
+	 * Returns the tokens of the lines of text which contain chars between
+	 * start and end, e.g. the lines changed by an edit. Indexes of tokens
+	 * are indexes in text.
+	 *
+	 * @param start
+	 *            index of the first char, its whole line is tokenized
+	 * @param end
+	 *            index following the last char, its whole line is
+	 *            tokenized
+	 */
+	public List<Token> tokenize(CharSequence text, int start, int end) {
+		List<Token> tokens = new ArrayList<Token>();
+		int length = text.length();
+		int i = getLineStart(text, Math.max(0, Math.min(start, length)));
+		end = Math.min(end, length);
+		do {
+			int lineEnd = getLineEnd(text, i);
+			tokenizeLine(text, i, lineEnd, tokens);
+			i = lineEnd + 1;
+		} while (i < end);
+		return tokens;
+	}
+
+	/**
+	 * Returns the index of the first char of the line containing index.
+	 */
+	public static int getLineStart(CharSequence text, int index) {
+		while ((index > 0) && (text.charAt(index - 1) != '\n'))
+			index--;
+		return index;
+	}
+
+	/**
+	 * Returns the index of the <TT>LF</TT> ending the line containing
+	 * index, or the text length for the last line.
+	 */
+	public static int getLineEnd(CharSequence text, int index) {
+		int length = text.length();
+		while ((index < length) && (text.charAt(index) != '\n'))
+			index++;
+		return index;
+	}
+
+	private void tokenizeLine(CharSequence text, int start, int end,
+			List<Token> tokens) {
+		int i = skipSpaces(text, start, end);
+		if (i == end)
+			return;
+		if (text.charAt(i) == '%') {
+			boolean xcommand = (i + 1 < end) && (text.charAt(i + 1) == '%');
+			tokens.add(new Token(xcommand ? Xcommand : Comment, i, end));
+		} else if ((i + 1 < end) && (text.charAt(i + 1) == ':')
+				&& isLetter(text.charAt(i))) {
+			tokenizeField(text, i, end, tokens);
+		} else {
+			tokenizeMusic(text, i, end, tokens);
+		}
+	}
+
+	private void tokenizeField(CharSequence text, int start, int end,
+			List<Token> tokens) {
+		if (TEXT_FIELDS.indexOf(text.charAt(start)) != -1) {
+			tokens.add(new Token(TuneField, start, start + 2));
+			int i = skipSpaces(text, start + 2, end);
+			if (i < end)
+				tokens.add(new Token(TexText, i, end));
+		} else {
+			int comment = indexOf(text, '%', start + 2, end);
+			tokens.add(new Token(TuneField, start, comment));
+			if (comment < end)
+				tokens.add(new Token(Comment, comment, end));
+		}
+	}
+
+	private void tokenizeMusic(CharSequence text, int start, int end,
+			List<Token> tokens) {
+		boolean inMultiNote = false;
+		int i = start;
+		while (i < end) {
+			char c = text.charAt(i);
+			int next = i + 1;
+			if ((c == ' ') || (c == '\t')) {
+				//skipped
+			} else if (c == '%') {
+				tokens.add(new Token(Comment, i, end));
+				next = end;
+			} else if (c == '"') {
+				next = Math.min(indexOf(text, '"', i + 1, end) + 1, end);
+				tokens.add(new Token(ChordOrText, i, next));
+			} else if ((c == '!') || (c == '+')) {
+				int close = indexOf(text, c, i + 1, end);
+				if ((close < end) && (close > i + 1)
+						&& (indexOf(text, ' ', i + 1, close) == close)) {
+					next = close + 1;
+					tokens.add(new Token(Gracing, i, next));
+				} else {
+					tokens.add(new Token(c == '!' ? HardLineBreak
+							: UnusedChar, i, next));
+				}
+			} else if ((c == '{') || (c == '}')) {
+				if ((c == '{') && (next < end) && (text.charAt(next) == '/'))
+					next++;
+				tokens.add(new Token(GraceNotes, i, next));
+			} else if (c == '[') {
+				next = tokenizeBracket(text, i, end, tokens);
+				if (next == i + 1) {
+					inMultiNote = true;
+					tokens.add(new Token(_MultiNote, i, next));
+				}
+			} else if (c == ']') {
+				if (inMultiNote) {
+					inMultiNote = false;
+					tokens.add(new Token(_MultiNote, i, next));
+					next = tokenizeLength(text, next, end, tokens);
+				} else
+					tokens.add(new Token(EndNthRepeat, i, next));
+			} else if ((c == '|') || (c == ':')) {
+				next = tokenizeBarline(text, i, end, tokens);
+			} else if (c == '.') {
+				if ((next < end) && (text.charAt(next) == '|')) {
+					next++;
+					tokens.add(new Token(Barline, i, next));
+				} else
+					tokens.add(new Token(Gracing, i, next));
+			} else if (c == '(') {
+				if ((next < end) && (text.charAt(next) >= '2')
+						&& (text.charAt(next) <= '9')) {
+					next = skip(text, next + 1, end, "123456789:");
+					tokens.add(new Token(Tuplet, i, next));
+				} else
+					tokens.add(new Token(SlurBegin, i, next));
+			} else if (c == ')') {
+				tokens.add(new Token(SlurEnd, i, next));
+			} else if ((c == '<') || (c == '>')) {
+				next = skip(text, next, end, String.valueOf(c));
+				tokens.add(new Token(BrokenRhythm, i, next));
+			} else if (c == '-') {
+				tokens.add(new Token(Tie, i, next));
+			} else if (c == '\\') {
+				tokens.add(new Token(LineContinuation, i, next));
+			} else if (c == '&') {
+				tokens.add(new Token(Rollback, i, next));
+			} else if (c == '/') {
+				if ((next < end) && (text.charAt(next) == '/'))
+					next++;
+				tokens.add(new Token(MeasureRepeat, i, next));
+			} else if ((c == 'z') || (c == 'x') || (c == 'y')) {
+				tokens.add(new Token(Rest, i, next));
+				next = tokenizeLength(text, next, end, tokens);
+			} else if (c == 'Z') {
+				next = skip(text, next, end, "0123456789");
+				tokens.add(new Token(MultiMeasureRest, i, next));
+			} else if ((c == '^') || (c == '_') || (c == '=')
+					|| (BASE_NOTES.indexOf(c) != -1)) {
+				next = tokenizePitch(text, i, end, tokens);
+			} else if (USERDEF_SYMBOLS.indexOf(c) != -1) {
+				tokens.add(new Token(Gracing, i, next));
+			} else if (UNUSED_CHARS.indexOf(c) != -1) {
+				tokens.add(new Token(UnusedChar, i, next));
+			}
+			i = next;
+		}
+	}
+
+	/**
+	 * Tokenizes a barline starting with <TT>|</TT> or <TT>:</TT>, and the
+	 * number of a repeat following it, returns the index following them.
+	 */
+	private int tokenizeBarline(CharSequence text, int start, int end,
+			List<Token> tokens) {
+		int colons = skip(text, start, end, ":");
+		int pipes = skip(text, skip(text, colons, end, "["), end, "|");
+		if (pipes == skip(text, colons, end, "[")) {
+			//no pipe, "::" is a barline, a single colon is ignored
+			if (colons - start < 2)
+				return start + 1;
+			tokens.add(new Token(Barline, start, colons));
+			return colons;
+		}
+		int i = skip(text, skip(text, pipes, end, "]"), end, ":");
+		if ((i < end) && Character.isDigit(text.charAt(i))) {
+			i = skip(text, i, end, "0123456789,-");
+			tokens.add(new Token(NthRepeat, start, i));
+		} else
+			tokens.add(new Token(Barline, start, i));
+		return i;
+	}
+
+	/**
+	 * Tokenizes what starts with <TT>[</TT>: an inline field, a barline or
+	 * the beginning of a repeat, returns the index following them, or the
+	 * index following <TT>[</TT> if it starts a chord.
+	 */
+	private int tokenizeBracket(CharSequence text, int start, int end,
+			List<Token> tokens) {
+		int next = start + 1;
+		char c = next < end ? text.charAt(next) : '\n';
+		if ((c == ']') || ((c == '|') && (next + 1 < end)
+				&& (text.charAt(next + 1) == ']'))) {
+			//invisible barline
+			next = c == ']' ? next + 1 : next + 2;
+			tokens.add(new Token(Barline, start, next));
+		} else if (c == '|') {
+			//the barline or repeat begins with [
+			next = tokenizeBarline(text, start + 1, end, tokens);
+			Token barline = tokens.get(tokens.size() - 1);
+			barline.startIndex = start;
+		} else if (isLetter(c) && (next + 1 < end)
+				&& (text.charAt(next + 1) == ':')) {
+			next = Math.min(indexOf(text, ']', next, end) + 1, end);
+			tokens.add(new Token(InlineField, start, next));
+		} else if (Character.isDigit(c)) {
+			next = skip(text, next, end, "0123456789,-");
+			tokens.add(new Token(NthRepeat, start, next));
+		} else if (c == '"') {
+			next = Math.min(indexOf(text, '"', next + 1, end) + 1, end);
+			tokens.add(new Token(NthRepeat, start, next));
+		}
+		return next;
+	}
+
+	/**
+	 * Tokenizes a pitch and its length, returns the index following them.
+	 */
+	private int tokenizePitch(CharSequence text, int start, int end,
+			List<Token> tokens) {
+		int i = start;
+		char c = text.charAt(i);
+		if ((c == '^') || (c == '_')) {
+			i++;
+			if ((i < end) && ((text.charAt(i) == c)
+					|| (text.charAt(i) == '/')))
+				i++;
+		} else if (c == '=')
+			i++;
+		if ((i == end) || (BASE_NOTES.indexOf(text.charAt(i)) == -1)) {
+			tokens.add(new Token(_Accidental, start, i));
+			return i;
+		}
+		//base note and octave
+		i = skip(text, i + 1, end, "',");
+		tokens.add(new Token(Pitch, start, i));
+		return tokenizeLength(text, i, end, tokens);
+	}
+
+	/**
+	 * Tokenizes a note length if any, returns the index following it.
+	 */
+	private int tokenizeLength(CharSequence text, int start, int end,
+			List<Token> tokens) {
+		int i = skip(text, start, end, "0123456789");
+		i = skip(text, i, end, "/");
+		i = skip(text, i, end, "0123456789");
+		if (i > start)
+			tokens.add(new Token(NoteLength, start, i));
+		return i;
+	}
+
+	/** Returns the first index from start which is not one of chars */
+	private static int skip(CharSequence text, int start, int end,
+			String chars) {
+		while ((start < end) && (chars.indexOf(text.charAt(start)) != -1))
+			start++;
+		return start;
+	}
+
+	private static int skipSpaces(CharSequence text, int start, int end) {
+		return skip(text, start, end, " \t\r");
+	}
+
+	/** Returns the index of c between start and end, end if not found */
+	private static int indexOf(CharSequence text, char c, int start,
+			int end) {
+		while ((start < end) && (text.charAt(start) != c))
+			start++;
+		return start;
+	}
+
+	private static boolean isLetter(char c) {
+		return ((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z'));
+	}
+
+}
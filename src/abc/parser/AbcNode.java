@@ -15,11 +15,17 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.parboiled.Node;
 import org.parboiled.buffers.InputBuffer;
@@ -53,15 +59,45 @@ public class AbcNode extends PositionableInCharStream {
 
 	private static final AbcTextReplacements bundle = AbcTextReplacements.getInstance();
 
+	private static final List<AbcNode> NO_CHILDS = Collections.emptyList();
+
+	/** Labels paths such as <TT>"FieldNumber/DIGITS"</TT>, split once */
+	private static final Map<String, String[]> paths =
+		new ConcurrentHashMap<String, String[]>();
+
 	private List<AbcNode> childs;
 
+	/**
+	 * Childs by label, built at first lookup. Labels are {@link AbcTokens}
+	 * constants, so the same instances are compared.
+	 */
+	private transient volatile Map<String, List<AbcNode>> childsByLabel = null;
+
 	private List<AbcParseError> errors;
 
+	/** Errors of the subtree, collected at first call */
+	private transient volatile List<AbcParseError> allErrors = null;
+
+	/** <code>null</code> until {@link #hasError()} is computed */
+	private transient volatile Boolean hasError = null;
+
 	private String label;
 
 	private AbcNode parent;
 
-	private String value;
+	/**
+	 * The source of the tree, shared by its nodes. The value of a parsed
+	 * node is extracted from it at first request, at the node position, so
+	 * that the tree doesn't keep a copy of the source for each level of
+	 * depth, only for the nodes which are read.
+	 */
+	private transient AbcInputBuffer source = null;
+
+	/**
+	 * The value of a node which is not extracted from the source, or the
+	 * value extracted at first request
+	 */
+	private volatile String value = null;
 	
 	// @SuppressWarnings("unchecked")
 	@SuppressWarnings("rawtypes")
@@ -69,66 +105,99 @@ public class AbcNode extends PositionableInCharStream {
 			List<ParseError> parseErrors, AbcInputBuffer abcInputBuffer) {
 		super(null);
 		if (node != null) {
-			this.label = node.getLabel();
-			this.value = parseInputBuffer.extract(node.getStartIndex(), node
-					.getEndIndex());
-			Position pos = parseInputBuffer.getPosition(node.getStartIndex());
-			int sourceStartIndex = abcInputBuffer.getIndex(pos);
-			int sourceEndIndex = sourceStartIndex + value.length();
-			setCharStreamPosition(
-				new CharStreamPosition(
-						pos.line,
-						pos.column,
-						sourceStartIndex,
-						sourceEndIndex
-					));
-			this.childs = new ArrayList<AbcNode>(node.getChildren().size());
-			for (Object n : node.getChildren()) {
-				AbcNode abcn = new AbcNode((Node) n, parseInputBuffer,
-						parseErrors, abcInputBuffer);
-				abcn.parent = this;
-				childs.add(abcn);
-			}
-			if (!hasError()/*(childs.size() == 0)*/ && node.hasError()) {
-				this.errors = new ArrayList<AbcParseError>();
-				for (ParseError pe : parseErrors) {
-					String peValue = pe.getInputBuffer().extract(
-							pe.getStartIndex(), pe.getEndIndex());
-					String peMsg = pe.getErrorMessage();
-					Position pePos = pe.getInputBuffer().getPosition(pe.getStartIndex());
-					int peIndex = abcInputBuffer.getIndex(pePos);
-					CharStreamPosition csp = new CharStreamPosition(
-							pePos.line, pePos.column, peIndex,
-							peIndex + (peValue.length()>0?peValue.length():1));
-					//if ((pe.getStartIndex() >= node.getStartIndex())
-					//		&& (pe.getStartIndex() </*=*/ node.getEndIndex())) {
-					if ((peIndex >= sourceStartIndex)
-							&& ((peIndex < sourceEndIndex)
-								|| (sourceStartIndex == sourceEndIndex))
-						) {
-						errors.add(new AbcParseError(peMsg, peValue, csp));
-					}
-				}
-			}
+			init(node, parseInputBuffer, new ErrorIndex(parseErrors,
+					abcInputBuffer), abcInputBuffer);
 		} else {
 			this.label = "AbcFile-Error";
-			this.value = "";
+			StringBuffer sb = new StringBuffer();
 			int nbL = parseInputBuffer.getLineCount();
 			for (int i = 1; i <= nbL; i++)
-				this.value += parseInputBuffer.extractLine(i)+"\n";
+				sb.append(parseInputBuffer.extractLine(i)).append('\n');
+			this.value = sb.toString();
 			this.childs = new ArrayList<AbcNode>(0);
-			setCharStreamPosition(new CharStreamPosition(1, 1, 0, 1));
+			Position pos = parseInputBuffer.getPosition(0);
+			int sourceStartIndex = abcInputBuffer.getIndex(pos);
+			setCharStreamPosition(new CharStreamPosition(
+					abcInputBuffer.getLine(pos), 1, sourceStartIndex,
+					sourceStartIndex + 1));
 			if (parseErrors != null) {
 				this.errors = new ArrayList<AbcParseError>();
 				Iterator it = parseErrors.iterator();
 				while (it.hasNext()) {
 					ParseError pe = (ParseError) it.next();
-					errors.add(new AbcParseError(pe.getErrorMessage(), value, getCharStreamPosition()));
+					//locate the error, a strict parser reports only one
+					Position pePos = parseInputBuffer.getPosition(pe.getStartIndex());
+					int peIndex = abcInputBuffer.getIndex(pePos);
+					CharStreamPosition csp = new CharStreamPosition(
+							abcInputBuffer.getLine(pePos), pePos.column,
+							peIndex, peIndex + 1);
+					errors.add(new AbcParseError(pe.getErrorMessage(), value, csp));
 				}
 			}
 		}
 	}
 
+	@SuppressWarnings("rawtypes")
+	private AbcNode(Node node, InputBuffer parseInputBuffer,
+			ErrorIndex errorIndex, AbcInputBuffer abcInputBuffer) {
+		super(null);
+		init(node, parseInputBuffer, errorIndex, abcInputBuffer);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void init(Node node, InputBuffer parseInputBuffer,
+			ErrorIndex errorIndex, AbcInputBuffer abcInputBuffer) {
+		this.label = node.getLabel();
+		this.source = abcInputBuffer;
+		CharStreamPosition csp;
+		if (parseInputBuffer == abcInputBuffer) {
+			//parsed from the source as is, indexes are the same
+			csp = abcInputBuffer.getCharStreamPosition(node.getStartIndex(),
+					node.getEndIndex());
+		} else {
+			//error recovery inserted chars, which are not extracted
+			Position pos = parseInputBuffer.getPosition(node.getStartIndex());
+			int sourceStartIndex = abcInputBuffer.getIndex(pos);
+			csp = new CharStreamPosition(abcInputBuffer.getLine(pos),
+					pos.column, sourceStartIndex, sourceStartIndex
+							+ parseInputBuffer.extract(node.getStartIndex(),
+									node.getEndIndex()).length());
+		}
+		setCharStreamPosition(csp);
+		int sourceStartIndex = csp.getStartIndex();
+		int sourceEndIndex = csp.getEndIndex();
+		this.childs = new ArrayList<AbcNode>(node.getChildren().size());
+		for (Object n : node.getChildren()) {
+			AbcNode abcn = new AbcNode((Node) n, parseInputBuffer,
+					errorIndex, abcInputBuffer);
+			abcn.parent = this;
+			childs.add(abcn);
+		}
+		if (!hasChildError()/*(childs.size() == 0)*/ && node.hasError()) {
+			//errors starting in this node, or at its index if it is empty
+			this.errors = errorIndex.getErrors(sourceStartIndex,
+					Math.max(sourceEndIndex, sourceStartIndex + 1));
+		}
+	}
+
+	/**
+	 * Creates a node grouping nodes which have been parsed separately, e.g.
+	 * the tunes of a tune book parsed one at a time.
+	 * 
+	 * @param label One of {@link AbcTokens} constants
+	 * @param value the source of the grouped nodes
+	 * @param childs the nodes to group, their parent is set to this node
+	 */
+	protected AbcNode(String label, String value, List<AbcNode> childs) {
+		super(new CharStreamPosition(1, 1, 0, value.length()));
+		this.label = label;
+		this.value = value;
+		this.childs = childs;
+		for (AbcNode abcn : childs) {
+			abcn.parent = this;
+		}
+	}
+
 	/**
 	 * Returns the first child having the request label, <code>null</code> if
 	 * doesn't exist.
@@ -142,24 +211,13 @@ public class AbcNode extends PositionableInCharStream {
 	public AbcNode getChild(String label) {
 		if (label == null || label.equals(""))
 			return null;
-		String[] generation = label.split("/");
-		String child = generation[0];
-		String grandchild = "";
-		if (generation.length > 1) {
-			for (int i = 1; i < generation.length; i++) {
-				grandchild += (grandchild.equals("") ? "" : "/");
-				grandchild += generation[i];
-			}
+		String[] generation = getPath(label);
+		AbcNode ret = this;
+		for (int i = 0; (i < generation.length) && (ret != null); i++) {
+			List<AbcNode> nodes = ret.getChildsByLabel().get(generation[i]);
+			ret = nodes != null ? nodes.get(0) : null;
 		}
-		for (AbcNode abcn : childs) {
-			if (child.equals(abcn.getLabel())) {
-				if (grandchild.equals(""))
-					return abcn;
-				else
-					return abcn.getChild(grandchild);
-			}
-		}
-		return null;
+		return ret;
 	}
 	
 	public List<AbcNode> getChilds() {
@@ -172,27 +230,76 @@ public class AbcNode extends PositionableInCharStream {
 	 * Can get directly grandchilds if label contains <tt>/</tt> e.g.
 	 * titleFields.getChild("FieldTitle/TexText") returns all grandchilds
 	 * "TexText" in all "FieldTitle" childs.
+	 * <p>
+	 * The returned list can not be modified.
 	 */
 	public List<AbcNode> getChilds(String label) {
 		if (label == null || label.equals(""))
-			return new ArrayList<AbcNode>(0);
-		String[] generation = label.split("/");
-		String child = generation[0];
-		String grandchild = "";
-		if (generation.length > 1) {
-			for (int i = 1; i < generation.length; i++) {
-				grandchild += (grandchild.equals("") ? "" : "/");
-				grandchild += generation[i];
-			}
+			return NO_CHILDS;
+		return getChilds(getPath(label), 0);
+	}
+
+	private List<AbcNode> getChilds(String[] generation, int index) {
+		List<AbcNode> nodes = getChildsByLabel().get(generation[index]);
+		if (nodes == null)
+			return NO_CHILDS;
+		if (index == generation.length - 1)
+			return nodes;
+		if (nodes.size() == 1)
+			return nodes.get(0).getChilds(generation, index + 1);
+		List<AbcNode> ret = new ArrayList<AbcNode>();
+		for (AbcNode abcn : nodes) {
+			ret.addAll(abcn.getChilds(generation, index + 1));
 		}
-		List<AbcNode> ret = new ArrayList<AbcNode>(childs.size());
-		for (AbcNode abcn : childs) {
-			if (abcn.getLabel().equals(child)) {
-				if (grandchild.equals(""))
-					ret.add(abcn);
-				else
-					ret.addAll(abcn.getChilds(grandchild));
+		return ret;
+	}
+
+	/**
+	 * Returns the childs grouped by label, built at first call. Childs are
+	 * not modified once the tree is built.
+	 */
+	private Map<String, List<AbcNode>> getChildsByLabel() {
+		Map<String, List<AbcNode>> ret = childsByLabel;
+		if (ret == null) {
+			if (childs.size() == 0) {
+				ret = Collections.emptyMap();
+			} else if (childs.size() == 1) {
+				AbcNode child = childs.get(0);
+				ret = Collections.singletonMap(child.getLabel(),
+						Collections.singletonList(child));
+			} else {
+				Map<String, List<AbcNode>> lists =
+					new HashMap<String, List<AbcNode>>();
+				for (AbcNode abcn : childs) {
+					List<AbcNode> nodes = lists.get(abcn.getLabel());
+					if (nodes == null) {
+						nodes = new ArrayList<AbcNode>(1);
+						lists.put(abcn.getLabel(), nodes);
+					}
+					nodes.add(abcn);
+				}
+				ret = new HashMap<String, List<AbcNode>>(lists.size() * 2);
+				for (Map.Entry<String, List<AbcNode>> e : lists.entrySet()) {
+					ret.put(e.getKey(),
+						Collections.unmodifiableList(e.getValue()));
+				}
 			}
+			childsByLabel = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the labels of a path such as <TT>"FieldNumber/DIGITS"</TT>,
+	 * split at first call only.
+	 */
+	private static String[] getPath(String label) {
+		String[] ret = paths.get(label);
+		if (ret == null) {
+			ret = label.split("/");
+			for (int i = 0; i < ret.length; i++)
+				ret[i] = ret[i].intern();
+			paths.put(label, ret);
 		}
 		return ret;
 	}
@@ -208,7 +315,7 @@ public class AbcNode extends PositionableInCharStream {
 			return new ArrayList<AbcNode>(0);
 		List<AbcNode> ret = new ArrayList<AbcNode>();
 		for (AbcNode abcn : childs) {
-			if (abcn.getLabel().equals(label)) {
+			if (label.equals(abcn.getLabel())) {
 				ret.add(abcn);
 			} else {
 				ret.addAll(abcn.getChildsInAllGenerations(label));
@@ -247,17 +354,26 @@ public class AbcNode extends PositionableInCharStream {
 
 	/**
 	 * Returns a List of errors in all childs, grand-childs...
+	 * <p>
+	 * The list is collected at first call, it can not be modified.
 	 */
 	public List<AbcParseError> getErrors() {
-		if (hasChilds()) {
-			List<AbcParseError> ret = new ArrayList<AbcParseError>(0);
-			for (AbcNode abcn : getChilds()) {
-				ret.addAll(abcn.getErrors());
+		List<AbcParseError> ret = allErrors;
+		if (ret == null) {
+			if (!hasError()) {
+				ret = Collections.emptyList();
+			} else if (hasChilds()) {
+				List<AbcParseError> list = new ArrayList<AbcParseError>();
+				for (AbcNode abcn : getChilds()) {
+					list.addAll(abcn.getErrors());
+				}
+				ret = Collections.unmodifiableList(list);
+			} else {
+				ret = Collections.unmodifiableList(errors);
 			}
-			return ret;
-		} else {
-			return errors != null ? errors : new ArrayList<AbcParseError>(0);
+			allErrors = ret;
 		}
+		return ret;
 	}
 
 	/**
@@ -278,7 +394,7 @@ public class AbcNode extends PositionableInCharStream {
 		if (label.equals(AbcTokens.DIGIT)
 				|| label.equals(AbcTokens.DIGITS)) {
 			try {
-				return Integer.parseInt(value);
+				return Integer.parseInt(getValue());
 			} catch (NumberFormatException nfe) {
 				return -1;
 			}
@@ -309,7 +425,7 @@ public class AbcNode extends PositionableInCharStream {
 		if (label.equals(AbcTokens.DIGIT)
 				|| label.equals(AbcTokens.DIGITS)) {
 			try {
-				return Short.parseShort(value);
+				return Short.parseShort(getValue());
 			} catch (NumberFormatException nfe) {
 				return -1;
 			}
@@ -321,15 +437,9 @@ public class AbcNode extends PositionableInCharStream {
 	 * escaped chars (e.g. <TT>\'i</TT> => <TT></TT>)
 	 */
 	public String getTexTextValue() {
-		String text = value;
-		if ((text != null) && (text.trim().length() > 0)) {
-			Enumeration<String> e = bundle.getKeys();
-			while (e.hasMoreElements()) {
-				String key = (String) e.nextElement();
-				if (text.indexOf(key) != -1)
-					text = stringReplace(text, key, bundle.getString(key));
-			}
-		}
+		String text = getValue();
+		if ((text != null) && (text.trim().length() > 0))
+			text = bundle.replace(text);
 		return text;
 	}
 	  
@@ -340,7 +450,14 @@ public class AbcNode extends PositionableInCharStream {
 	 * escaped chars (e.g. <TT>\'i</TT> => <TT></TT>)
 	 */
 	public String getValue() {
-		return value;
+		String ret = value;
+		if ((ret == null) && (source != null)) {
+			CharStreamPosition position = getCharStreamPosition();
+			ret = source.extractSource(position.getStartIndex(),
+					position.getEndIndex());
+			value = ret;
+		}
+		return ret;
 	}
 
 	/**
@@ -352,14 +469,13 @@ public class AbcNode extends PositionableInCharStream {
 	 * "TexText" in all "FieldTitle" childs.
 	 */
 	public List<AbcNode> getValuedChilds(String label) {
-		List<AbcNode> ret = getChilds(label);
-		Iterator<AbcNode> it = ret.iterator();
-		while (it.hasNext()) {
-			AbcNode node = it.next();
-			if (node.hasError()
-				|| (node.getValue() == null)
-				|| (node.getValue().length() == 0))
-				it.remove();
+		List<AbcNode> nodes = getChilds(label);
+		List<AbcNode> ret = new ArrayList<AbcNode>(nodes.size());
+		for (AbcNode node : nodes) {
+			if (!node.hasError()
+				&& (node.getValue() != null)
+				&& (node.getValue().length() > 0))
+				ret.add(node);
 		}
 		return ret;
 	}
@@ -382,15 +498,23 @@ public class AbcNode extends PositionableInCharStream {
 	}
 
 	public boolean hasError() {
-		if (hasChilds()) {
-			for (AbcNode abcn : getChilds()) {
-				if (abcn.hasError())
-					return true;
-			}
-			return false;
-		} else {
-			return errors != null ? (errors.size() > 0) : false;
+		Boolean ret = hasError;
+		if (ret == null) {
+			if (hasChilds())
+				ret = Boolean.valueOf(hasChildError());
+			else
+				ret = Boolean.valueOf(errors != null ? (errors.size() > 0) : false);
+			hasError = ret;
+		}
+		return ret.booleanValue();
+	}
+
+	private boolean hasChildError() {
+		for (AbcNode abcn : getChilds()) {
+			if (abcn.hasError())
+				return true;
 		}
+		return false;
 	}
 
 	/**
@@ -449,10 +573,75 @@ public class AbcNode extends PositionableInCharStream {
 		return is(label) || isChildOf(label);
 	}
 	
-	/** String.replace(String arg0, String arg1) in java 1.5 */
-	private String stringReplace(String text, String target, String replacement) {
-		return Pattern.compile(target.toString(), Pattern.LITERAL).matcher(
-				text).replaceAll(replacement);
+	/**
+	 * The errors of a parsing, converted once and sorted by their index in
+	 * the source, so that the errors of a node are found by a binary search
+	 * on its position.
+	 */
+	private static class ErrorIndex {
+
+		private int[] indexes;
+
+		private AbcParseError[] errors;
+
+		private ErrorIndex(List<ParseError> parseErrors,
+				AbcInputBuffer abcInputBuffer) {
+			int size = parseErrors != null ? parseErrors.size() : 0;
+			errors = new AbcParseError[size];
+			for (int i = 0; i < size; i++) {
+				ParseError pe = parseErrors.get(i);
+				String peValue = pe.getInputBuffer().extract(
+						pe.getStartIndex(), pe.getEndIndex());
+				Position pePos = pe.getInputBuffer().getPosition(pe.getStartIndex());
+				int peIndex = abcInputBuffer.getIndex(pePos);
+				CharStreamPosition csp = new CharStreamPosition(
+						abcInputBuffer.getLine(pePos), pePos.column, peIndex,
+						peIndex + (peValue.length()>0?peValue.length():1));
+				errors[i] = new AbcParseError(pe.getErrorMessage(), peValue, csp);
+			}
+			//stable, errors at the same index keep the parser order
+			Arrays.sort(errors, new Comparator<AbcParseError>() {
+				public int compare(AbcParseError e1, AbcParseError e2) {
+					int i1 = e1.getCharStreamPosition().getStartIndex();
+					int i2 = e2.getCharStreamPosition().getStartIndex();
+					return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+				}
+			});
+			indexes = new int[size];
+			for (int i = 0; i < size; i++)
+				indexes[i] = errors[i].getCharStreamPosition().getStartIndex();
+		}
+
+		/** Returns the errors whose index is in [startIndex, endIndex[ */
+		private List<AbcParseError> getErrors(int startIndex, int endIndex) {
+			int from = lowerBound(startIndex);
+			int to = (endIndex == Integer.MAX_VALUE) ? indexes.length
+					: lowerBound(endIndex);
+			List<AbcParseError> ret = new ArrayList<AbcParseError>(to - from);
+			for (int i = from; i < to; i++)
+				ret.add(errors[i]);
+			return ret;
+		}
+
+		/** Returns the position of the first error at or after index */
+		private int lowerBound(int index) {
+			int low = 0;
+			int high = indexes.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (indexes[middle] < index)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+	}
+
+	/** The value is serialized, the source is not */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		getValue();
+		out.defaultWriteObject();
 	}
 
 	// @Override
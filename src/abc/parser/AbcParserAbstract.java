@@ -15,18 +15,28 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.EventListener;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.parboiled.Rule;
 import org.parboiled.common.StringUtils;
 import org.parboiled.parserunners.RecoveringParseRunner;
+import org.parboiled.parserunners.ReportingParseRunner;
 import org.parboiled.support.ParsingResult;
 
 import abc.instructions.Xcommand;
@@ -46,7 +56,6 @@ import abc.notation.MeasureRepeat;
 import abc.notation.MeasureRest;
 import abc.notation.MultiNote;
 import abc.notation.MultiPartsDefinition;
-import abc.notation.Music;
 import abc.notation.MusicElement;
 import abc.notation.Note;
 import abc.notation.NoteAbstract;
@@ -113,60 +122,102 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 	}
 	
-	private List<Annotation> m_annotations = new ArrayList<Annotation>();
+	/** Recover from syntax errors, or stop at the first one. */
+	private boolean m_recovering = true;
 
-	/** The number of dots inherited from the previous note broken rythm. */
-	private byte m_brknRthmDotsCorrection = 0;
-	
-	private String m_currentVoice = "1";
-	
-	/** The current default note length. */
-	private short m_defaultNoteLength = Note.EIGHTH;
+	/** Freeze the voices of parsed tunes. */
+	private boolean m_freezing = false;
 
-	/** Graces notes to add to next NoteAbstract */
-	private List<NoteAbstract> m_graceNotes = new ArrayList<NoteAbstract>();
-	
-	private byte m_graceNotesType = GracingType.APPOGGIATURA;
-	
-	private KeySignature m_lastParsedKey = new KeySignature(Note.C,
-			KeySignature.MAJOR);
-
-	/**
-	 * Keep track of the last parsed note. Used for instance to value the end
-	 * slur in case of slur
-	 */
-	private NoteAbstract m_lastParsedNote = null;
+	/** The charset of parsed files. */
+	private Charset m_charset = Charset.defaultCharset();
 
 	/** Listeners of this parser. */
-	private ArrayList<EventListener> m_listeners = new ArrayList<EventListener>(3);
-
-	/** The music of the current tune. */
-	private Music m_music = null;
-
-	private List<Note> m_notesStartingTies = new ArrayList<Note>();
+	private List<EventListener> m_listeners = new CopyOnWriteArrayList<EventListener>();
 
-	private List<SlurDefinition> m_slursDefinitionStack = new ArrayList<SlurDefinition>();
-
-	private List<SymbolElement> m_symbols = new ArrayList<SymbolElement>();
+	/**
+	 * The context of the tune being built by each thread, for the protected
+	 * methods which don't take it.
+	 */
+	private final ThreadLocal<ParsingContext> m_context = new ThreadLocal<ParsingContext>();
 
-	private TimeSignature m_timeSignature = null;
+	/** void constructor */
+	protected AbcParserAbstract() {
+		//
+	}
 
-	/** The tune resulting of the last parsing. */
-	private AbcTune m_tune = null;
+	/**
+	 * Returns <code>true</code> if the parser recovers from syntax errors,
+	 * which is the default.
+	 * 
+	 * @see #setRecovering(boolean)
+	 */
+	public boolean isRecovering() {
+		return m_recovering;
+	}
 
-	private int m_tupletInTimeOf = -1;
+	/**
+	 * Chooses how syntax errors are handled.
+	 * <p>
+	 * In both modes the source is first matched without error handling, so
+	 * a valid source costs the same. When it does not match:
+	 * <ul>
+	 * <li>a recovering parser finds all errors, skipping or inserting
+	 * characters to go on, and builds the tree of what it understood,
+	 * <li>a strict parser only locates the first error and stops. The tune
+	 * containing it is dropped, its parsing tree is a node labelled
+	 * <TT>AbcFile-Error</TT> holding the error. This is faster for sources
+	 * which are expected to be valid.
+	 * </ul>
+	 * 
+	 * @param recovering
+	 *            <code>false</code> for a strict parser
+	 */
+	public void setRecovering(boolean recovering) {
+		m_recovering = recovering;
+	}
 
-	private List<NoteAbstract> m_tupletNotes = new ArrayList<NoteAbstract>();
+	/**
+	 * Returns <code>true</code> if the voices of parsed tunes are frozen.
+	 * 
+	 * @see #setFreezing(boolean)
+	 */
+	public boolean isFreezing() {
+		return m_freezing;
+	}
 
-	private int m_tupletNumber = -1;
+	/**
+	 * Chooses if parsed tunes are {@link abc.notation.Tune#freeze() frozen}
+	 * before listeners are notified and before they are returned. The
+	 * voices of a frozen tune can't be changed, but can be read by several
+	 * threads, e.g. for rendering and playback. By default tunes are not
+	 * frozen and can be changed, as in previous versions.
+	 * 
+	 * @param freezing
+	 *            <code>true</code> to freeze parsed tunes
+	 */
+	public void setFreezing(boolean freezing) {
+		m_freezing = freezing;
+	}
 
-	private int m_tupletNumberOfNotes = -1;
+	/**
+	 * Returns the charset used to decode parsed files, the platform default
+	 * charset unless {@link #setCharset(Charset)} has been invoked.
+	 */
+	public Charset getCharset() {
+		return m_charset;
+	}
 
-	private CharStreamPosition m_tupletPosition = null;
-	
-	/** void constructor */
-	protected AbcParserAbstract() {
-		//
+	/**
+	 * Sets the charset used to decode parsed files. Malformed input is
+	 * replaced, like a {@link java.io.InputStreamReader} does.
+	 * 
+	 * @param charset
+	 *            The charset of ABC files.
+	 */
+	public void setCharset(Charset charset) {
+		if (charset == null)
+			throw new NullPointerException("charset");
+		m_charset = charset;
 	}
 
 	/**
@@ -188,31 +239,31 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 * element accept them (is DecorableElement).
 	 * @param me
 	 */
-	private void addToMusic(MusicElement me) {
+	private void addToMusic(ParsingContext ctx, MusicElement me) {
 		if (me != null) {
 			if (me instanceof DecorableElement)
-				applySymbolsAndAnnotations((DecorableElement) me);
+				applySymbolsAndAnnotations(ctx, (DecorableElement) me);
 			if (!(me instanceof NotesSeparator)
 					&& !(me instanceof Spacer)) {
-				m_graceNotes.clear();
-				m_graceNotesType = GracingType.APPOGGIATURA;
+				ctx.m_graceNotes.clear();
+				ctx.m_graceNotesType = GracingType.APPOGGIATURA;
 				//TODO attach graces to last parsed note ?
 			}
-			if ((m_tupletNumberOfNotes != -1)
+			if ((ctx.m_tupletNumberOfNotes != -1)
 				&& (me instanceof NoteAbstract)) {
 				//we are filling a tuplet
-				m_tupletNotes.add((NoteAbstract) me);
-				if (m_tupletNotes.size() == m_tupletNumberOfNotes)
-					closeTuplet();
+				ctx.m_tupletNotes.add((NoteAbstract) me);
+				if (ctx.m_tupletNotes.size() == ctx.m_tupletNumberOfNotes)
+					closeTuplet(ctx);
 			}
-			Voice v = m_music.getVoice(m_currentVoice);
-			v.setReferenceNoteLength(m_defaultNoteLength);
+			Voice v = ctx.m_music.getVoice(ctx.m_currentVoice);
+			v.setReferenceNoteLength(ctx.m_defaultNoteLength);
 			v.addElement(me);
 		}
 	}
 
-	private void applyBrokenRhythmToNote(NoteAbstract note) {
-		if ((note != null) && (m_brknRthmDotsCorrection != 0)) {
+	private void applyBrokenRhythmToNote(ParsingContext ctx, NoteAbstract note) {
+		if ((note != null) && (ctx.m_brknRthmDotsCorrection != 0)) {
 			List<Note> notes = new ArrayList<Note>();
 			if (note instanceof Note)
 				notes.add((Note) note);
@@ -224,12 +275,12 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				}
 			}
 			for (Note n : notes) {
-				if (m_brknRthmDotsCorrection > 0) {
-					n.setDotted(m_brknRthmDotsCorrection);
+				if (ctx.m_brknRthmDotsCorrection > 0) {
+					n.setDotted(ctx.m_brknRthmDotsCorrection);
 				} else {
 					short correctedDuration = (short)
 							(n.getStrictDuration() / Math.pow(2,
-							-m_brknRthmDotsCorrection));
+							-ctx.m_brknRthmDotsCorrection));
 					try {
 						n.setStrictDuration(correctedDuration);
 					} catch (IllegalArgumentException e) {
@@ -237,16 +288,16 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					}
 				}
 			}
-			m_brknRthmDotsCorrection = (byte) -m_brknRthmDotsCorrection;
+			ctx.m_brknRthmDotsCorrection = (byte) -ctx.m_brknRthmDotsCorrection;
 		} else
-			m_brknRthmDotsCorrection = 0;
+			ctx.m_brknRthmDotsCorrection = 0;
 	}
 	
-	private void applySymbolsAndAnnotations(DecorableElement decorable) {
-		if (m_symbols.isEmpty() && m_annotations.isEmpty())
+	private void applySymbolsAndAnnotations(ParsingContext ctx, DecorableElement decorable) {
+		if (ctx.m_symbols.isEmpty() && ctx.m_annotations.isEmpty())
 			return;
 		Dynamic dynamic = null;
-		Iterator<SymbolElement> itSymb = m_symbols.iterator();
+		Iterator<SymbolElement> itSymb = ctx.m_symbols.iterator();
 		while (itSymb.hasNext()) {
 			SymbolElement symbol = itSymb.next();
 			if (symbol instanceof Dynamic) {
@@ -256,12 +307,12 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 		if (dynamic != null)
 			decorable.setDynamic(dynamic);
-		if (m_symbols.size() > 0)
-			decorable.setDecorations((Decoration[]) m_symbols
+		if (ctx.m_symbols.size() > 0)
+			decorable.setDecorations((Decoration[]) ctx.m_symbols
 				.toArray(new Decoration[0]));
 		
 		Chord chord = null;
-		Iterator<Annotation> itAnnot = m_annotations.iterator();
+		Iterator<Annotation> itAnnot = ctx.m_annotations.iterator();
 		while (itAnnot.hasNext()) {
 			Annotation ann = itAnnot.next();
 			if (ann instanceof Chord) {
@@ -273,24 +324,24 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		if (chord != null)
 			decorable.setChord(chord);
 		
-		m_symbols.clear();
-		m_annotations.clear();
+		ctx.m_symbols.clear();
+		ctx.m_annotations.clear();
 		
 	}
 	
-	private void closeTuplet() {
-		if (m_tupletNumberOfNotes != -1) {
-			Tuplet t = new Tuplet(m_tupletNumber,
-					m_tupletNotes,
-					(short)m_tupletInTimeOf,
-					m_defaultNoteLength
+	private void closeTuplet(ParsingContext ctx) {
+		if (ctx.m_tupletNumberOfNotes != -1) {
+			Tuplet t = new Tuplet(ctx.m_tupletNumber,
+					ctx.m_tupletNotes,
+					(short)ctx.m_tupletInTimeOf,
+					ctx.m_defaultNoteLength
 					);
-			t.setCharStreamPosition(m_tupletPosition);
-			m_tupletNotes.clear();
-			m_tupletNumber = -1;
-			m_tupletInTimeOf = -1;
-			m_tupletNumberOfNotes = -1;
-			m_tupletPosition = null;
+			t.setCharStreamPosition(ctx.m_tupletPosition);
+			ctx.m_tupletNotes.clear();
+			ctx.m_tupletNumber = -1;
+			ctx.m_tupletInTimeOf = -1;
+			ctx.m_tupletNumberOfNotes = -1;
+			ctx.m_tupletPosition = null;
 		}
 	}
 	
@@ -311,23 +362,23 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 *                Thrown if the computing of the absolute note duration is
 	 *                impossible.
 	 */
-	private DurationDescription getAbsoluteDurationFor(Fraction relativeDuration)
+	private DurationDescription getAbsoluteDurationFor(ParsingContext ctx, Fraction relativeDuration)
 			throws IllegalArgumentException {
 		// This algorithm is closely linked to the way constants are defined
 		// in the Note class !!!
 		int absoluteDuration = -1;
 		byte dotsNumber = 0;
-		if (!Note.isStrictDuration(m_defaultNoteLength))
+		if (!Note.isStrictDuration(ctx.m_defaultNoteLength))
 			throw new IllegalArgumentException("Invalid default note duration "
-					+ m_defaultNoteLength);
-		absoluteDuration = m_defaultNoteLength
+					+ ctx.m_defaultNoteLength);
+		absoluteDuration = ctx.m_defaultNoteLength
 				* relativeDuration.getNumerator();
 		absoluteDuration = absoluteDuration / relativeDuration.getDenominator();
 		int remainingDurTmp = 0;
 		if (absoluteDuration >= 2 * Note.LONG) {
 			throw new IllegalArgumentException("Cannot calculate the dots for "
 					+ relativeDuration + " with a default duration equals to "
-					+ m_defaultNoteLength
+					+ ctx.m_defaultNoteLength
 					+ " : absolute note length was equal to "
 					+ absoluteDuration);
 		} else {
@@ -358,7 +409,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					throw new IllegalArgumentException(
 							"Cannot calculate the dots for " + relativeDuration
 									+ " with a default duration equals to "
-									+ m_defaultNoteLength
+									+ ctx.m_defaultNoteLength
 									+ " : absolute note length was equal to "
 									+ absoluteDuration);
 			}
@@ -366,9 +417,24 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return new DurationDescription((short) absoluteDuration, dotsNumber);
 	}
 	
+	/**
+	 * Returns the last note starting a tie at the height of aNote, in the
+	 * tune being built by the calling thread.
+	 * 
+	 * @return <code>null</code> if there is none, or if no tune is being
+	 *         built by the calling thread.
+	 * @deprecated the notes starting ties are kept by the context of each
+	 *             tune, they are only known while the tune is built.
+	 */
+	@Deprecated
 	protected Note getNoteStartingTieFor(Note aNote) {
-		for (int i = m_notesStartingTies.size() - 1; i >= 0; i--) {
-			Note n = (Note) m_notesStartingTies.get(i);
+		ParsingContext ctx = m_context.get();
+		return (ctx == null) ? null : getNoteStartingTieFor(ctx, aNote);
+	}
+	
+	private Note getNoteStartingTieFor(ParsingContext ctx, Note aNote) {
+		for (int i = ctx.m_notesStartingTies.size() - 1; i >= 0; i--) {
+			Note n = (Note) ctx.m_notesStartingTies.get(i);
 			if (n == aNote)
 				continue;//do not return the same note
 			// This is the end of the tie, the two notes have same height.
@@ -387,13 +453,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 * @throws IOException
 	 */
 	protected AbcNode getParseTree(Reader reader) throws IOException {
-		StringWriter writer = new StringWriter();
-		char[] buffer = new char[32 * 1024];
-		int n;
-		while ((n = reader.read(buffer)) != -1) {
-			writer.write(buffer, 0, n);
-		}
-		return getParseTree(writer.toString());
+		return getParseTree(read(reader));
 	}
 	
 	/**
@@ -403,15 +463,66 @@ public abstract class AbcParserAbstract implements AbcTokens {
 	 * @param abcString
 	 */
 	protected AbcNode getParseTree(String abcString) {
-		long startTime = System.currentTimeMillis();
+		return getParseTree(AbcGrammar.getInstance().getAbcFileRule(),
+				abcString.toCharArray(), 1, 0);
+	}
+	
+	/**
+	 * Parse one segment of a source and get the parsing tree by its root
+	 * {@link AbcNode}, labelled {@link AbcTokens#AbcFile} for the first
+	 * segment, {@link AbcTokens#AbcTune} for the following ones. Positions
+	 * of nodes are relative to the whole source.
+	 * 
+	 * @param segment
+	 */
+	protected AbcNode getParseTree(AbcSegment segment) {
 		AbcGrammar grammar = AbcGrammar.getInstance();
-		// AbcGrammar parser = Parboiled.createParser(AbcGrammar.class);
-		ParsingResult<?> result = RecoveringParseRunner.run(grammar.AbcFile(),
-				abcString);
+		return getParseTree(segment.isFirst() ? grammar.getAbcFileRule()
+				: grammar.getAbcTuneRule(), toCharArray(segment.getText()),
+				segment.getStartLine(), segment.getStartIndex());
+	}
+	
+	/**
+	 * Parse the beginning of abcString, up to the <TT>K:</TT> field of the
+	 * first tune, and get the parsing tree by its root {@link AbcNode}. The
+	 * music of the first tune and following tunes are not parsed.
+	 * 
+	 * @param abcString
+	 */
+	protected AbcNode getHeaderParseTree(CharSequence abcString) {
+		return getParseTree(new AbcSegment(abcString, 0, 1, true)
+				.getHeaderSegment());
+	}
+	
+	/**
+	 * Copies the chars of a segment, once, for the input buffer of the parser
+	 */
+	private static char[] toCharArray(CharSequence text) {
+		if (text instanceof String)
+			return ((String) text).toCharArray();
+		char[] chars = new char[text.length()];
+		if (text instanceof CharBuffer)
+			((CharBuffer) text).duplicate().get(chars);
+		else
+			for (int i = 0; i < chars.length; i++)
+				chars[i] = text.charAt(i);
+		return chars;
+	}
+
+	private AbcNode getParseTree(Rule rule, char[] abcChars, int firstLine,
+			int firstIndex) {
+		long startTime = System.currentTimeMillis();
+		//the parser runs on the buffer of the nodes, which shares its
+		//newlines index with them
+		AbcInputBuffer abcInputBuffer = new AbcInputBuffer(abcChars,
+				firstLine, firstIndex);
+		ParsingResult<?> result = m_recovering
+				? new RecoveringParseRunner<Object>(rule).run(abcInputBuffer)
+				: new ReportingParseRunner<Object>(rule).run(abcInputBuffer);
 		if (DEBUG) {
 			System.out.println("Parse : "+(System.currentTimeMillis() - startTime) + "ms");
 		}
-		if (result.hasErrors()) {
+		if (DEBUG && result.hasErrors()) {
 			System.err.println("Parse errors: "
 					+ result.parseErrors.size());
 			/*Iterator it = result.parseErrors.iterator();
@@ -423,24 +534,80 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 
 		AbcNode abcRoot = new AbcNode(result.parseTreeRoot, result.inputBuffer,
-				result.parseErrors, new AbcInputBuffer(abcString.toCharArray()));
-		if (result.hasErrors() || DEBUG)
+				result.parseErrors, abcInputBuffer);
+		if (DEBUG)
 			debugTree(abcRoot);
 		return abcRoot;
 	}
 	
-	/** Inits all attributes that are related to one parsing sequence ONLY. */
-	protected void initNewTune() {
-		m_brknRthmDotsCorrection = 0;
-		m_slursDefinitionStack.clear();
-		m_lastParsedNote = null;
-		m_notesStartingTies.clear();
-		m_defaultNoteLength = Note.EIGHTH;
-		m_timeSignature = null;
-		m_graceNotes.clear();
-		m_graceNotesType = GracingType.APPOGGIATURA;
-		m_tune = new AbcTune();
-		m_music = m_tune.getMusic();
+	/**
+	 * Maps the file in memory and decodes it with {@link #getCharset()}.
+	 * <p>
+	 * The returned chars are decoded once in a single buffer, without the
+	 * copies made when reading a {@link Reader} into a String. Indexes in the
+	 * returned sequence are the char positions of the file. To parse the
+	 * file tune by tune, see {@link #segment(File)} which doesn't decode the
+	 * whole file at once.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	protected CharSequence map(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return newDecoder().decode(channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Maps the file in memory and cuts it into segments, each one being
+	 * decoded with {@link #getCharset()} when it is read. Only the current
+	 * segment is decoded in memory, the bytes of the file being paged in and
+	 * out by the system. If the charset is not ASCII compatible, the whole
+	 * file is decoded first, as by {@link #map(File)}.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	AbcSegmenter segment(File file) throws IOException {
+		if (!AbcSegmenter.canCutBytes(m_charset))
+			return new AbcSegmenter(map(file));
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			//the mapping stays valid once the channel is closed
+			return new AbcSegmenter(channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+					newDecoder());
+		} finally {
+			in.close();
+		}
+	}
+
+	private CharsetDecoder newDecoder() {
+		return m_charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Reads the whole content of the reader.
+	 * 
+	 * @param reader
+	 * @throws IOException
+	 */
+	protected static String read(Reader reader) throws IOException {
+		StringWriter writer = new StringWriter();
+		char[] buffer = new char[32 * 1024];
+		int n;
+		while ((n = reader.read(buffer)) != -1) {
+			writer.write(buffer, 0, n);
+		}
+		return writer.toString();
 	}
 	
 	/**
@@ -457,6 +624,23 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return ret;
 	}
 	
+	/**
+	 * Returns <code>true</code> if some listeners are
+	 * {@link TuneParserListenerInterface}s (<TT>tuneBook</TT>
+	 * <code>false</code>) or {@link TuneBookParserListenerInterface}s
+	 * (<TT>tuneBook</TT> <code>true</code>), i.e. if parsing trees are given
+	 * to someone.
+	 */
+	protected boolean hasParserListeners(boolean tuneBook) {
+		for (int i = 0; i < m_listeners.size(); i++) {
+			Object o = m_listeners.get(i);
+			if (tuneBook ? (o instanceof TuneBookParserListenerInterface)
+					: (o instanceof TuneParserListenerInterface))
+				return true;
+		}
+		return false;
+	}
+	
 	protected void notifyListenersForEmptyTuneBook() {
 		for (int i = 0; i < m_listeners.size(); i++) {
 			Object o = m_listeners.get(i);
@@ -508,81 +692,138 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 	}
 	
-	private void parseAbcEol(AbcNode abcEol) {
+	private void parseAbcEol(ParsingContext ctx, AbcNode abcEol) {
 		if (abcEol != null) {
 			if (!abcEol.hasChild(LineContinuation))
-				addToMusic(new EndOfStaffLine());
+				addToMusic(ctx, new EndOfStaffLine());
 			//HardLineBreak or nothing -> new EndOfStaffLine()
 		}
 	}
 	
-	/** If you call directly parseAbcHeader, be sure to
-	 * call {@link #initNewTune()} and listener notifiers.
+	/**
+	 * Inits all attributes that are related to one parsing sequence ONLY,
+	 * i.e. the context of the tune being built by the calling thread.
+	 * <p>
+	 * It is called when a tune, a tune header or a tune book header is
+	 * started, after the creation of a new context.
+	 * 
+	 * @deprecated each tune has its own context, which doesn't need to be
+	 *             reset.
+	 */
+	@Deprecated
+	protected void initNewTune() {
+		ParsingContext ctx = m_context.get();
+		if (ctx != null)
+			ctx.init();
+	}
+	
+	/**
+	 * Creates the context of a new tune, current for the calling thread
+	 * until {@link #endTune(ParsingContext)}, and calls
+	 * {@link #initNewTune()}.
+	 */
+	private ParsingContext beginTune() {
+		ParsingContext ctx = new ParsingContext(m_context.get());
+		m_context.set(ctx);
+		initNewTune();
+		//initNewTune() may be overridden without calling super
+		if (ctx.m_tune == null)
+			ctx.init();
+		return ctx;
+	}
+	
+	/** Makes current the context which was before ctx */
+	private void endTune(ParsingContext ctx) {
+		if (ctx.m_previous == null)
+			m_context.remove();
+		else
+			m_context.set(ctx.m_previous);
+	}
+	
+	/** Parses a header into a new tune. If you call directly
+	 * parseAbcHeader, be sure to call listener notifiers.
 	 * <p>
 	 * See {@link TuneParser#parseHeader0(AbcNode)} for example.
 	 */
 	protected AbcTune parseAbcHeader(AbcNode abcHeader) {
+		ParsingContext ctx = beginTune();
+		try {
+			return parseAbcHeader(ctx, abcHeader);
+		} finally {
+			endTune(ctx);
+		}
+	}
+	
+	private AbcTune parseAbcHeader(ParsingContext ctx, AbcNode abcHeader) {
 		// X: number
 		AbcNode digits = abcHeader.getChild(FieldNumber+"/"+DIGITS);
 		if (digits != null)
-			m_tune.setReferenceNumber(Integer.parseInt(digits.getValue()));
+			ctx.m_tune.setReferenceNumber(Integer.parseInt(digits.getValue()));
 		// T: titles
-		parseTitleFields(abcHeader.getChild(TitleFields));
-		parseOtherFields(abcHeader);
+		parseTitleFields(ctx, abcHeader.getChild(TitleFields));
+		parseOtherFields(ctx, abcHeader);
 		//TODO getChildsInAllGeneration(Xcommand)
-		parseFieldKey(abcHeader.getChild(FieldKey));
-		return m_tune;
+		parseFieldKey(ctx, abcHeader.getChild(FieldKey));
+		return ctx.m_tune;
 	}
 	
-	private void parseAbcLine(AbcNode abcLine) {
+	private void parseAbcLine(ParsingContext ctx, AbcNode abcLine) {
 		String label;
 		for (AbcNode node : abcLine.getChilds()) {
 			label = node.getLabel();
 			if (label.equals(Element))
-				parseElement(node);
+				parseElement(ctx, node);
 			else if (label.equals(AbcEol)) {
-				parseAbcEol(node);
+				parseAbcEol(ctx, node);
 			}
 		}
-		closeTuplet();
-		m_brknRthmDotsCorrection = 0;
+		closeTuplet(ctx);
+		ctx.m_brknRthmDotsCorrection = 0;
 	}
 	
-	private void parseAbcMusic(AbcNode abcMusic) {
+	private void parseAbcMusic(ParsingContext ctx, AbcNode abcMusic) {
 		String label;
 		for (AbcNode node : abcMusic.getChilds()) {
 			label = node.getLabel();
 			if (label.equals(AbcLine)) {
-				parseAbcLine(node);
+				parseAbcLine(ctx, node);
 			} else if (label.equals(TuneField)) {
-				parseTuneAndInlineFields(node);
+				parseTuneAndInlineFields(ctx, node);
 			} else if (label.equals(Xcommand)) {
-				parseXcommand(node);
+				parseXcommand(ctx, node);
 			}
 		}
 	}
 	
 	protected AbcTune parseAbcTune(AbcNode abcTune) {
 		notifyListenersForTuneBegin();
-		initNewTune();
-		if (abcTune == null) {
-			m_tune.setAbcString("");
-			notifyListenersForNoTune();
-		} else {
-			m_tune.setAbcString(abcTune.getValue());
-			AbcNode abcHeader = abcTune.getChild(AbcHeader);
-			if (abcHeader != null)
-				parseAbcHeader(abcHeader);
-			AbcNode abcMusic = abcTune.getChild(AbcMusic);
-			if (abcMusic != null)
-				parseAbcMusic(abcMusic);
+		//the state of this tune only, dropped when it is built
+		ParsingContext ctx = beginTune();
+		try {
+			if (abcTune == null) {
+				ctx.m_tune.setAbcString("");
+				notifyListenersForNoTune();
+			} else {
+				ctx.m_tune.setAbcString(abcTune.getValue());
+				AbcNode abcHeader = abcTune.getChild(AbcHeader);
+				if (abcHeader != null)
+					parseAbcHeader(ctx, abcHeader);
+				AbcNode abcMusic = abcTune.getChild(AbcMusic);
+				if (abcMusic != null)
+					parseAbcMusic(ctx, abcMusic);
+			}
+		} finally {
+			endTune(ctx);
 		}
 		//TODO alter position of PositionableInCharStream of all elements
 		//set AbcTune positionable.
 		//new pos of elemets = their pos - tune pos.row
 		//the same for start index and end index
-		notifyListenersForTuneEnd(m_tune, abcTune);
-		return m_tune;
+		AbcTune tune = ctx.m_tune;
+		if (m_freezing)
+			tune.freeze();
+		notifyListenersForTuneEnd(tune, abcTune);
+		return tune;
 	}
 	
 	private Accidental parseAccidental(AbcNode accidental) {
@@ -592,7 +833,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			return Accidental.NONE;
 	}
 	
-	private void parseAnnotationsOrChord(AbcNode chordOrText) {
+	private void parseAnnotationsOrChord(ParsingContext ctx, AbcNode chordOrText) {
 		if (chordOrText != null) {
 			for (AbcNode node : chordOrText.getChilds()) {
 				String label = node.getLabel();
@@ -602,24 +843,24 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					//Chord pc = parseChord(node);
 					Chord pc = new Chord(node.getTexTextValue());
 					if (pc.isChord()) {
-						m_annotations.add(pc);
+						ctx.m_annotations.add(pc);
 						pc.setCharStreamPosition(node.getCharStreamPosition());
 					} else {
 						Annotation ann = new Annotation(pc.getText());
 						ann.setCharStreamPosition(node.getCharStreamPosition());
-						m_annotations.add(ann);
+						ctx.m_annotations.add(ann);
 					}
-					//m_annotations.add(parseChord(node));					
+					//ctx.m_annotations.add(parseChord(node));					
 				}
 			//	else if (label.equals("TextExpression")
 			//			&& (node.getValue().length() > 0)) {
-			//		m_annotations.add(new Annotation(node.getTexTextValue()));
+			//		ctx.m_annotations.add(new Annotation(node.getTexTextValue()));
 			//	}
 			}
 		}
 	}
 	
-	private void parseBarlineOrNthRepeat(AbcNode barlineOrNthRepeat) {
+	private void parseBarlineOrNthRepeat(ParsingContext ctx, AbcNode barlineOrNthRepeat) {
 		String label = barlineOrNthRepeat.getLabel();
 		String value = barlineOrNthRepeat.getValue();
 		CharStreamPosition pos = barlineOrNthRepeat.getCharStreamPosition();
@@ -631,7 +872,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				for (int i = 0; i < b.length; i++) {
 					BarLine bl = new BarLine(b[i]);
 					bl.setCharStreamPosition(pos);
-					addToMusic(bl);
+					addToMusic(ctx, bl);
 				}
 			}
 		}
@@ -655,7 +896,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					}
 					RepeatBarLine rbl = new RepeatBarLine(nthBarlineType, nums);
 					rbl.setCharStreamPosition(pos);
-					addToMusic(rbl);
+					addToMusic(ctx, rbl);
 				}
 			} else {
 				AbcNode nthRepeatText = barlineOrNthRepeat.getChild(NthRepeatText);
@@ -663,19 +904,19 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					RepeatBarLine rbl = new RepeatBarLine(nthBarlineType,
 							nthRepeatText.getValue());
 					rbl.setCharStreamPosition(pos);
-					addToMusic(rbl);
+					addToMusic(ctx, rbl);
 				} else {
 					//really not found, a simple barline
 					BarLine bl = new BarLine(nthBarlineType);
 					bl.setCharStreamPosition(pos);
-					addToMusic(bl);
+					addToMusic(ctx, bl);
 				}
 			}
 		}
 		else if (label.equals(EndNthRepeat)) {
 			RepeatEnd re = new RepeatEnd();
 			re.setCharStreamPosition(pos);
-			addToMusic(re);
+			addToMusic(ctx, re);
 		}
 	}
 	
@@ -683,20 +924,20 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return Note.convertToNoteType(baseNote.getValue());
 	}
 	
-	private void parseBrokenRhythm(AbcNode brokenRhythm) {
+	private void parseBrokenRhythm(ParsingContext ctx, AbcNode brokenRhythm) {
 		if (brokenRhythm != null) {
 			String s = brokenRhythm.getValue();
 			byte br = (byte) s.length();
 			if (s.charAt(0) == '<')
-				m_brknRthmDotsCorrection = (byte) -br;
+				ctx.m_brknRthmDotsCorrection = (byte) -br;
 			else if (s.charAt(0) == '>')
-				m_brknRthmDotsCorrection = (byte) br;
+				ctx.m_brknRthmDotsCorrection = (byte) br;
 			else
-				m_brknRthmDotsCorrection = 0;
+				ctx.m_brknRthmDotsCorrection = 0;
 
 			// correct last note
 			// and invert dot correction for next note
-			applyBrokenRhythmToNote(m_lastParsedNote);
+			applyBrokenRhythmToNote(ctx, ctx.m_lastParsedNote);
 		}
 	}
 	
@@ -750,66 +991,66 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return new Chord(sb.toString());
 	}*/
 
-	private void parseElement(AbcNode element) {
+	private void parseElement(ParsingContext ctx, AbcNode element) {
 		AbcNode firstChild = element.getFirstChild();
 		if (firstChild != null) {
 			String label = firstChild.getLabel();
 			if (label.equals(Stem)) {
-				addToMusic(parseStem(firstChild));
+				addToMusic(ctx, parseStem(ctx, firstChild));
 			}
 			else if (label.equals(Barline)
 					|| label.equals(NthRepeat)
 					|| label.equals(EndNthRepeat)) {
-				closeTuplet();
-				m_brknRthmDotsCorrection = 0;
-				parseBarlineOrNthRepeat(firstChild);
+				closeTuplet(ctx);
+				ctx.m_brknRthmDotsCorrection = 0;
+				parseBarlineOrNthRepeat(ctx, firstChild);
 			}
 			else if (label.equals(Space)) {
 				//separate group of notes
-				addToMusic(new NotesSeparator());
+				addToMusic(ctx, new NotesSeparator());
 			}
 			else if (label.equals(GraceNotes)) {
-				parseGraceNotes(firstChild);
+				parseGraceNotes(ctx, firstChild);
 			}
 			else if (label.equals(Gracing)) {
 				SymbolElement se = parseGracing(firstChild);
 				if (se != null)
-					m_symbols.add(se);
+					ctx.m_symbols.add(se);
 			}
 			else if (label.equals(ChordOrText)) {
-				parseAnnotationsOrChord(firstChild);
+				parseAnnotationsOrChord(ctx, firstChild);
 			}
 			else if (label.equals(Rest)) {
-				addToMusic(parseRest(firstChild));
+				addToMusic(ctx, parseRest(ctx, firstChild));
 			}
 			else if (label.equals(SlurBegin)) {
-				parseSlurBegin(firstChild);
+				parseSlurBegin(ctx, firstChild);
 			}
 			else if (label.equals(SlurEnd)) {
-				parseSlurEnd(firstChild);
+				parseSlurEnd(ctx, firstChild);
 			}
 			else if (label.equals(Tuplet)) {
-				closeTuplet();
-				parseTuplet(firstChild);
-				m_brknRthmDotsCorrection = 0;
+				closeTuplet(ctx);
+				parseTuplet(ctx, firstChild);
+				ctx.m_brknRthmDotsCorrection = 0;
 			}
 			else if (label.equals(BrokenRhythm)) {
-				parseBrokenRhythm(firstChild);
+				parseBrokenRhythm(ctx, firstChild);
 			}
 			else if (label.equals(MultiMeasureRest)) {
-				closeTuplet();
-				m_brknRthmDotsCorrection = 0;
-				addToMusic(parseMultiMeasureRest(firstChild));
+				closeTuplet(ctx);
+				ctx.m_brknRthmDotsCorrection = 0;
+				addToMusic(ctx, parseMultiMeasureRest(firstChild));
 			}
 			else if (label.equals(MeasureRepeat)) {
-				closeTuplet();
-				m_brknRthmDotsCorrection = 0;
-				addToMusic(parseMeasureRepeat(firstChild));
+				closeTuplet(ctx);
+				ctx.m_brknRthmDotsCorrection = 0;
+				addToMusic(ctx, parseMeasureRepeat(firstChild));
 			}
 			else if (label.equals(InlineField)) {
-				closeTuplet();
-				m_brknRthmDotsCorrection = 0;
-				parseTuneAndInlineFields(firstChild);
+				closeTuplet(ctx);
+				ctx.m_brknRthmDotsCorrection = 0;
+				parseTuneAndInlineFields(ctx, firstChild);
 			}
 			else if (label.equals(UnusedChar)
 					|| label.equals(Rollback)) {
@@ -821,45 +1062,45 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 	}
 	
-	private void parseFieldArea(AbcNode fieldArea) {
+	private void parseFieldArea(ParsingContext ctx, AbcNode fieldArea) {
 		if (fieldArea != null) {
-			m_tune.setArea(parseTexText(fieldArea.getChild(TexText)));
+			ctx.m_tune.setArea(parseTexText(fieldArea.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldBook(AbcNode fieldBook) {
+	private void parseFieldBook(ParsingContext ctx, AbcNode fieldBook) {
 		if (fieldBook != null) {
-			m_tune.addBook(parseTexText(fieldBook.getChild(TexText)));
+			ctx.m_tune.addBook(parseTexText(fieldBook.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldComposer(AbcNode fieldComposer) {
+	private void parseFieldComposer(ParsingContext ctx, AbcNode fieldComposer) {
 		if (fieldComposer != null) {
-			m_tune.addComposer(parseTexText(fieldComposer.getChild(TexText)));
+			ctx.m_tune.addComposer(parseTexText(fieldComposer.getChild(TexText)));
 		}
 	}
 
-	private void parseFieldDiscography(AbcNode fieldDiscography) {
+	private void parseFieldDiscography(ParsingContext ctx, AbcNode fieldDiscography) {
 		if (fieldDiscography != null) {
-			m_tune.addDiscography(parseTexText(fieldDiscography.getChild(TexText)));
+			ctx.m_tune.addDiscography(parseTexText(fieldDiscography.getChild(TexText)));
 		}
 	}
 
-	private void parseFieldFile(AbcNode fieldFile) {
+	private void parseFieldFile(ParsingContext ctx, AbcNode fieldFile) {
 		if (fieldFile != null) {
-			m_tune.setFileURL(parseTexText(fieldFile.getChild(TexText)));
+			ctx.m_tune.setFileURL(parseTexText(fieldFile.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldGroup(AbcNode fieldGroup) {
+	private void parseFieldGroup(ParsingContext ctx, AbcNode fieldGroup) {
 		if (fieldGroup != null) {
-			m_tune.addGroup(parseTexText(fieldGroup.getChild(TexText)));
+			ctx.m_tune.addGroup(parseTexText(fieldGroup.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldHistory(AbcNode fieldHistory) {
+	private void parseFieldHistory(ParsingContext ctx, AbcNode fieldHistory) {
 		if (fieldHistory != null) {
-			m_tune.addHistory(parseTexText(fieldHistory.getChild(TexText)));
+			ctx.m_tune.addHistory(parseTexText(fieldHistory.getChild(TexText)));
 		}
 	}
 	private String parseTexText(AbcNode texTextNode) {
@@ -869,7 +1110,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			return null;
 	}
 
-	private KeySignature parseFieldKey(AbcNode fieldKey) {
+	private KeySignature parseFieldKey(ParsingContext ctx, AbcNode fieldKey) {
 		KeySignature ret = null;
 		if (fieldKey != null) {
 			AbcNode key = fieldKey.getChild(Key);
@@ -888,15 +1129,15 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					ret = parseKeyDef(keyDef);
 					if (ret == null) {
 						try {
-							ret = (KeySignature) m_lastParsedKey.clone();
+							ret = (KeySignature) ctx.m_lastParsedKey.clone();
 						} catch (CloneNotSupportedException never) {}
 					}
 				}
 				AbcNode clef = key.getChild(_Clef);
 				if (clef != null) {
-					if (ret == null && m_lastParsedKey != null) {
+					if (ret == null && ctx.m_lastParsedKey != null) {
 						try {
-							ret = (KeySignature)m_lastParsedKey.clone();
+							ret = (KeySignature)ctx.m_lastParsedKey.clone();
 						} catch (CloneNotSupportedException cnse) {
 							cnse.printStackTrace();
 						}
@@ -906,12 +1147,12 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				}
 			}
 			if (ret != null)
-				addToMusic(ret);
+				addToMusic(ctx, ret);
 		}
 		return ret;
 	}
 	
-	private short parseFieldLength(AbcNode fieldLength) {
+	private short parseFieldLength(ParsingContext ctx, AbcNode fieldLength) {
 		if (fieldLength != null) {
 			AbcNode noteLengthStrict = fieldLength.getChild(NoteLengthStrict);
 			if (noteLengthStrict != null) {
@@ -919,7 +1160,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				try {
 					short ret = Note.convertToNoteLengthStrict(fraction);
 					if (ret != -1)
-						m_defaultNoteLength = ret;
+						ctx.m_defaultNoteLength = ret;
 					return ret;
 				} catch (IllegalArgumentException e) {
 					// will return -1
@@ -929,7 +1170,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return -1;
 	}
 
-	private TimeSignature parseFieldMeter(AbcNode fieldMeter) {
+	private TimeSignature parseFieldMeter(ParsingContext ctx, AbcNode fieldMeter) {
 		TimeSignature ret = null;
 		if (fieldMeter != null) {
 			AbcNode timeSignature = fieldMeter.getChild(TimeSignature);
@@ -960,47 +1201,47 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					ret = abc.notation.TimeSignature.SIGNATURE_NONE;
 				else if (label.equals(DIGIT))
 					ret = new TimeSignature(Integer.parseInt(tsChild
-							.getValue()), m_defaultNoteLength);
+							.getValue()), ctx.m_defaultNoteLength);
 			}
 			if (ret != null) {
 				//TODO add timeSig to "master" voice
 				ret.setCharStreamPosition(fieldMeter.getCharStreamPosition());
-				addToMusic(ret);
-				m_defaultNoteLength = ret.getDefaultNoteLength();
-				m_timeSignature = ret;
+				addToMusic(ctx, ret);
+				ctx.m_defaultNoteLength = ret.getDefaultNoteLength();
+				ctx.m_timeSignature = ret;
 			}
 		}
 		return ret;
 	}
 	
-	private void parseFieldNotes(AbcNode fieldNotes) {
+	private void parseFieldNotes(ParsingContext ctx, AbcNode fieldNotes) {
 		if (fieldNotes != null) {
-			m_tune.addNotes(parseTexText(fieldNotes.getChild(TexText)));
+			ctx.m_tune.addNotes(parseTexText(fieldNotes.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldOrigin(AbcNode fieldOrigin) {
+	private void parseFieldOrigin(ParsingContext ctx, AbcNode fieldOrigin) {
 		if (fieldOrigin != null) {
-			m_tune.setOrigin(parseTexText(fieldOrigin.getChild(TexText)));
+			ctx.m_tune.setOrigin(parseTexText(fieldOrigin.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldPart(AbcNode fieldPart) {
+	private void parseFieldPart(ParsingContext ctx, AbcNode fieldPart) {
 		if (fieldPart != null) {
 			AbcNode alpha = fieldPart.getChild(ALPHA);
 			if (alpha != null) {
-				closeTuplet();
-				m_brknRthmDotsCorrection = 0;
+				closeTuplet(ctx);
+				ctx.m_brknRthmDotsCorrection = 0;
 				String value = alpha.getValue();
 				AbcNode next = fieldPart.getChild(TexText);
 				if (next != null)
 					value += next.getTexTextValue();
-				m_music = m_tune.createPart(value).getMusic();
+				ctx.m_music = ctx.m_tune.createPart(value).getMusic();
 			}
 		}
 	}
 	
-	private MultiPartsDefinition parseFieldParts(AbcNode fieldParts) {
+	private MultiPartsDefinition parseFieldParts(ParsingContext ctx, AbcNode fieldParts) {
 		if (fieldParts != null) {
 			AbcNode partsPlayOrder = fieldParts.getChild(PartsPlayOrder);
 			if (partsPlayOrder != null) {
@@ -1022,7 +1263,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 						} else
 							last = null;
 					} else if (label.equals(ALPHA)) {
-						last = new RepeatedPart(m_tune.createPart(node.getValue()));
+						last = new RepeatedPart(ctx.m_tune.createPart(node.getValue()));
 						((MultiPartsDefinition) lifo.lastElement())
 							.addPart(last);
 					} else if (label.equals(DIGITS)) {
@@ -1037,26 +1278,26 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					.addPart(last);
 				}
 				MultiPartsDefinition ret = (MultiPartsDefinition) lifo.pop();
-				m_tune.setMultiPartsDefinition(ret);
+				ctx.m_tune.setMultiPartsDefinition(ret);
 				return ret;
 			}
 		}
 		return null;
 	}
 	
-	private void parseFieldRhythm(AbcNode fieldRhythm) {
+	private void parseFieldRhythm(ParsingContext ctx, AbcNode fieldRhythm) {
 		if (fieldRhythm != null) {
-			m_tune.setRhythm(parseTexText(fieldRhythm.getChild(TexText)));
+			ctx.m_tune.setRhythm(parseTexText(fieldRhythm.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldSource(AbcNode fieldSource) {
+	private void parseFieldSource(ParsingContext ctx, AbcNode fieldSource) {
 		if (fieldSource != null) {
-			m_tune.addSource(parseTexText(fieldSource.getChild(TexText)));
+			ctx.m_tune.addSource(parseTexText(fieldSource.getChild(TexText)));
 		}
 	}
 	
-	private Tempo parseFieldTempo(AbcNode fieldTempo) {
+	private Tempo parseFieldTempo(ParsingContext ctx, AbcNode fieldTempo) {
 		Tempo ret = null;
 		if (fieldTempo != null) {
 			AbcNode tempo = fieldTempo.getChild(Tempo);
@@ -1067,11 +1308,11 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					//Q:C [note-length] = DIGITS
 					Fraction fraction = parseNoteLength(tempo.getChild(NoteLength));
 					ret = new Tempo(
-							(short)(m_defaultNoteLength * fraction.floatValue()),
+							(short)(ctx.m_defaultNoteLength * fraction.floatValue()),
 							digits);
 				} else if (noteLengthStrict == null) {
 					//Q:DIGIT
-					ret = new Tempo(m_defaultNoteLength, digits);
+					ret = new Tempo(ctx.m_defaultNoteLength, digits);
 				} else {
 					//Q:num/denom = DIGITS
 					Fraction fraction = parseNoteLengthStrict(noteLengthStrict);
@@ -1080,31 +1321,31 @@ public abstract class AbcParserAbstract implements AbcTokens {
 							Note.convertToNoteLengthStrict(fraction),
 							digits);
 					} catch (IllegalArgumentException e) {
-						ret = new Tempo(m_defaultNoteLength, digits);
+						ret = new Tempo(ctx.m_defaultNoteLength, digits);
 					}
 				}
 			}
 			if (ret != null) {
 				ret.setCharStreamPosition(tempo.getCharStreamPosition());
-				addToMusic(ret);
+				addToMusic(ctx, ret);
 			}
 		}
 		return ret;
 	}
 	
-	private void parseFieldTitle(AbcNode fieldTitle) {
+	private void parseFieldTitle(ParsingContext ctx, AbcNode fieldTitle) {
 		if (fieldTitle != null) {
-			m_tune.addTitle(parseTexText(fieldTitle.getChild(TexText)));
+			ctx.m_tune.addTitle(parseTexText(fieldTitle.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldTranscription(AbcNode fieldTranscription) {
+	private void parseFieldTranscription(ParsingContext ctx, AbcNode fieldTranscription) {
 		if (fieldTranscription != null) {
-			m_tune.addTranscriptionNotes(parseTexText(fieldTranscription.getChild(TexText)));
+			ctx.m_tune.addTranscriptionNotes(parseTexText(fieldTranscription.getChild(TexText)));
 		}
 	}
 	
-	private void parseFieldVoice(AbcNode fieldVoice) {
+	private void parseFieldVoice(ParsingContext ctx, AbcNode fieldVoice) {
 		if (fieldVoice != null && fieldVoice.hasChild(Voice)) {
 			String number = fieldVoice.getChild(Voice+"/"+VoiceNumber).getValue();
 			//in header:
@@ -1112,11 +1353,11 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			//V:Soprano
 			//V:Alto
 			//copy key Cm (V:1 default voice) to newly created voice
-			boolean exists = m_tune.getMusic().voiceExists(number);
-			Voice v = m_tune.getVoice(number);
+			boolean exists = ctx.m_tune.getMusic().voiceExists(number);
+			Voice v = ctx.m_tune.getVoice(number);
 			if (!exists) {
 				try {
-					v.addElement((KeySignature) m_tune.getKey().clone());
+					v.addElement((KeySignature) ctx.m_tune.getKey().clone());
 				} catch (CloneNotSupportedException cnse) {
 					//never
 				}
@@ -1135,47 +1376,47 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				}
 				v.getKey().setClef(parseClef(voice));
 			}
-			m_currentVoice = v.getVoiceId();
+			ctx.m_currentVoice = v.getVoiceId();
 		}
 	}
 	
-	private void parseFieldWords(AbcNode fieldWords) {
+	private void parseFieldWords(ParsingContext ctx, AbcNode fieldWords) {
 		if (fieldWords != null) {
-			m_tune.addWords(parseTexText(fieldWords.getChild(TexText)));
+			ctx.m_tune.addWords(parseTexText(fieldWords.getChild(TexText)));
 		}
 	}
 	
-	private MultiNote parseGraceMultiNote(AbcNode graceMultiNote) {
+	private MultiNote parseGraceMultiNote(ParsingContext ctx, AbcNode graceMultiNote) {
 		if (graceMultiNote != null) {
 			Vector<Note> notes = new Vector<Note>(graceMultiNote.getChilds().size(), 1);
 			for (AbcNode node : graceMultiNote.getChilds(GraceNote)) {
-				notes.add(parseGraceNote(node));
+				notes.add(parseGraceNote(ctx, node));
 			}
 			return new MultiNote(notes);
 		}
 		return null;
 	}
 	
-	private Note parseGraceNote(AbcNode graceNote) {
+	private Note parseGraceNote(ParsingContext ctx, AbcNode graceNote) {
 		if (graceNote != null) {
 			Note n = parsePitch(graceNote.getChild(Pitch));
 			Fraction fraction = parseNoteLength(graceNote.getChild(NoteLength));
 			if (n != null) {
 				fraction.setDenominator(fraction.getDenominator() * 2);
 				//if (fraction.floatValue() == 1f) {
-				//	n.setStrictDuration((short)(m_defaultNoteLength / 2));
+				//	n.setStrictDuration((short)(ctx.m_defaultNoteLength / 2));
 				/*} else*/ {
 					try {
 						// Try to convert the abc duration into standard note
 						// duration
-						DurationDescription dd = getAbsoluteDurationFor(fraction);
+						DurationDescription dd = getAbsoluteDurationFor(ctx, fraction);
 						n.setStrictDuration(dd.getStrictDuration());
 						n.setDotted(dd.countDots());
 					} catch (IllegalArgumentException e) {
 						// The duration cannot be converted into standard
 						// duration
 						// So use the absolute duration instead.
-						n.setDuration((short) (m_defaultNoteLength * fraction
+						n.setDuration((short) (ctx.m_defaultNoteLength * fraction
 								.floatValue()));
 					}
 				}
@@ -1185,20 +1426,20 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return null;
 	}
 	
-	private void parseGraceNotes(AbcNode graceNotes) {
+	private void parseGraceNotes(ParsingContext ctx, AbcNode graceNotes) {
 		if (graceNotes != null) {
-			m_graceNotes.clear();
-			m_graceNotesType = graceNotes.hasChild(Acciaccatura)
+			ctx.m_graceNotes.clear();
+			ctx.m_graceNotesType = graceNotes.hasChild(Acciaccatura)
 				? GracingType.ACCIACCATURA : GracingType.APPOGGIATURA;
 			for (AbcNode gnStem : graceNotes.getChilds(GraceNoteStem)) {
 				AbcNode firstChild = gnStem.getFirstChild();
 				NoteAbstract note;
 				if (firstChild.is(GraceNote))
-					note = parseGraceNote(firstChild);
+					note = parseGraceNote(ctx, firstChild);
 				else //GraceMultiNote
-					note = parseGraceMultiNote(firstChild);
+					note = parseGraceMultiNote(ctx, firstChild);
 				if (note != null)
-					m_graceNotes.add(note);
+					ctx.m_graceNotes.add(note);
 			}
 		}
 	}
@@ -1304,13 +1545,13 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return null;
 	}
 	
-	private NoteAbstract parseMultiNote(AbcNode multiNote) {
+	private NoteAbstract parseMultiNote(ParsingContext ctx, AbcNode multiNote) {
 		if (multiNote != null) {
 			AbcNode multiNoteTie = multiNote.getChild(Tie);
 			AbcNode multiNoteLength = multiNote.getChild(NoteLength);
 			Vector<Note> notes = new Vector<Note>(multiNote.getChilds().size(), 1);
 			for (AbcNode node : multiNote.getChilds(_Note)) {
-				notes.add(parseNote(node, multiNoteLength, multiNoteTie));
+				notes.add(parseNote(ctx, node, multiNoteLength, multiNoteTie));
 			}
 			//somtimes a single note is writed like a multinote
 			//[C]... this is bogus but I saw it often
@@ -1325,7 +1566,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return null;
 	}
 	
-	private Note parseNote(AbcNode note, AbcNode multiLength, AbcNode multiTie) {
+	private Note parseNote(ParsingContext ctx, AbcNode note, AbcNode multiLength, AbcNode multiTie) {
 		if (note != null) {
 			Note n = parsePitch(note.getChild(Pitch));
 			Fraction fraction = parseNoteLength(note.getChild(NoteLength));
@@ -1336,19 +1577,19 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					:note.hasChild(Tie);
 			if (n != null) {
 				if (fraction.equalsOne()) {
-					n.setStrictDuration(m_defaultNoteLength);
+					n.setStrictDuration(ctx.m_defaultNoteLength);
 				} else {
 					try {
 						// Try to convert the abc duration into standard note
 						// duration
-						DurationDescription dd = getAbsoluteDurationFor(fraction);
+						DurationDescription dd = getAbsoluteDurationFor(ctx, fraction);
 						n.setStrictDuration(dd.getStrictDuration());
 						n.setDotted(dd.countDots());
 					} catch (IllegalArgumentException e) {
 						// The duration cannot be converted into standard
 						// duration
 						// So use the absolute duration instead.
-						n.setDuration((short) (m_defaultNoteLength * fraction
+						n.setDuration((short) (ctx.m_defaultNoteLength * fraction
 								.floatValue()));
 					}
 				}
@@ -1358,13 +1599,13 @@ public abstract class AbcParserAbstract implements AbcTokens {
 					tieDef.setCharStreamPosition(tieNode.getCharStreamPosition());
 					tieDef.setStart(n.getReference());
 					n.setTieDefinition(tieDef);
-					m_notesStartingTies.add(n);
+					ctx.m_notesStartingTies.add(n);
 				}
-				Note startTieNote = getNoteStartingTieFor(n);
+				Note startTieNote = getNoteStartingTieFor(ctx, n);
 				if (startTieNote != null) {
 					startTieNote.getTieDefinition().setEnd(n.getReference());
 					n.setTieDefinition(startTieNote.getTieDefinition());
-					m_notesStartingTies.remove(startTieNote);
+					ctx.m_notesStartingTies.remove(startTieNote);
 				}
 				return n;
 			}
@@ -1437,52 +1678,52 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return 0;
 	}
 	
-	private void parseOtherFields(AbcNode otherFields) {
+	private void parseOtherFields(ParsingContext ctx, AbcNode otherFields) {
 		if (otherFields == null)
 			return;
 		// A: area
-		parseFieldArea(otherFields.getChild(FieldArea));
+		parseFieldArea(ctx, otherFields.getChild(FieldArea));
 		// B: book
 		for (AbcNode node : otherFields.getChilds(FieldBook)) {
-			parseFieldBook(node);
+			parseFieldBook(ctx, node);
 		}
 		// C: composer
 		for (AbcNode node : otherFields.getChilds(FieldComposer)) {
-			parseFieldComposer(node);
+			parseFieldComposer(ctx, node);
 		}
 		// D: discography
 		for (AbcNode node : otherFields.getChilds(FieldDiscography)) {
-			parseFieldDiscography(node);
+			parseFieldDiscography(ctx, node);
 		}
 		// F: file
-		parseFieldFile(otherFields.getChild(FieldFile));
+		parseFieldFile(ctx, otherFields.getChild(FieldFile));
 		// G: group
 		for (AbcNode node : otherFields.getChilds(FieldGroup)) {
-			parseFieldGroup(node);
+			parseFieldGroup(ctx, node);
 		}
 		// H: history
 		for (AbcNode node : otherFields.getChilds(FieldHistory)) {
-			parseFieldHistory(node);
+			parseFieldHistory(ctx, node);
 		}
 		// N: notes
 		for (AbcNode node : otherFields.getChilds(FieldNotes)) {
-			parseFieldNotes(node);
+			parseFieldNotes(ctx, node);
 		}
 		// O: origin
-		parseFieldOrigin(otherFields.getChild(FieldOrigin));
+		parseFieldOrigin(ctx, otherFields.getChild(FieldOrigin));
 		// R: rhythm
-		parseFieldRhythm(otherFields.getChild(FieldRhythm));
+		parseFieldRhythm(ctx, otherFields.getChild(FieldRhythm));
 		// S: source
 		for (AbcNode node : otherFields.getChilds(FieldSource)) {
-			parseFieldSource(node);
+			parseFieldSource(ctx, node);
 		}
 		// Z: transcription
 		for (AbcNode node : otherFields.getChilds(FieldTranscription)) {
-			parseFieldTranscription(node);
+			parseFieldTranscription(ctx, node);
 		}
 		// W: words
 		for (AbcNode node : otherFields.getChilds(FieldWords)) {
-			parseFieldWords(node);
+			parseFieldWords(ctx, node);
 		}
 
 		// TODO I: instructions
@@ -1491,20 +1732,20 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		
 		// V: voice
 		for (AbcNode node : otherFields.getChilds(FieldVoice)) {
-			parseFieldVoice(node);
+			parseFieldVoice(ctx, node);
 		}
 		
 		// TODO m: macro
 
 		// M: meter
-		parseFieldMeter(otherFields.getChild(FieldMeter));
+		parseFieldMeter(ctx, otherFields.getChild(FieldMeter));
 		// L: length
-		parseFieldLength(otherFields.getChild(FieldLength));
+		parseFieldLength(ctx, otherFields.getChild(FieldLength));
 		// Q: tempo
-		parseFieldTempo(otherFields.getChild(FieldTempo));
+		parseFieldTempo(ctx, otherFields.getChild(FieldTempo));
 
 		// P: parts
-		parseFieldParts(otherFields.getChild(FieldParts));
+		parseFieldParts(ctx, otherFields.getChild(FieldParts));
 
 	}
 
@@ -1517,7 +1758,7 @@ public abstract class AbcParserAbstract implements AbcTokens {
         return n;
 	}
 	
-	private MusicElement parseRest(AbcNode rest) {
+	private MusicElement parseRest(ParsingContext ctx, AbcNode rest) {
 		MusicElement ret = null;
 		Fraction fraction = parseNoteLength(rest.getChild(NoteLength));
 		if (rest.hasChild(NormalRest)) { //z
@@ -1528,25 +1769,25 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 		if (ret != null) {
 			if (fraction.floatValue() == 1f) {
-				((Note)ret).setStrictDuration(m_defaultNoteLength);
+				((Note)ret).setStrictDuration(ctx.m_defaultNoteLength);
 			} else {
 				try {
 					// Try to convert the abc duration into standard note
 					// duration
-					DurationDescription dd = getAbsoluteDurationFor(fraction);
+					DurationDescription dd = getAbsoluteDurationFor(ctx, fraction);
 					((Note)ret).setStrictDuration(dd.getStrictDuration());
 					((Note)ret).setDotted(dd.countDots());
 				} catch (IllegalArgumentException e) {
 					// The duration cannot be converted into standard
 					// duration
 					// So use the absolute duration instead.
-					((Note)ret).setDuration((short) (m_defaultNoteLength * fraction
+					((Note)ret).setDuration((short) (ctx.m_defaultNoteLength * fraction
 							.floatValue()));
 				}
 			}
-			applyBrokenRhythmToNote((Note)ret);
-			m_brknRthmDotsCorrection = 0;
-			m_lastParsedNote = (Note)ret;
+			applyBrokenRhythmToNote(ctx, (Note)ret);
+			ctx.m_brknRthmDotsCorrection = 0;
+			ctx.m_lastParsedNote = (Note)ret;
 			return ret;
 		}
 		//Spacer
@@ -1558,26 +1799,26 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		return ret;
 	}
 	
-	private void parseSlurBegin(AbcNode slurBegin) {
+	private void parseSlurBegin(ParsingContext ctx, AbcNode slurBegin) {
 		SlurDefinition sd = new SlurDefinition();
 		sd.setCharStreamPosition(slurBegin.getCharStreamPosition());
-		m_slursDefinitionStack.add(sd);
+		ctx.m_slursDefinitionStack.add(sd);
 	}
 	
-	private void parseSlurEnd(AbcNode slurEnd) {
-		if (!m_slursDefinitionStack.isEmpty()
-				&& (m_lastParsedNote != null)) {
-			int i = m_slursDefinitionStack.size() - 1;
+	private void parseSlurEnd(ParsingContext ctx, AbcNode slurEnd) {
+		if (!ctx.m_slursDefinitionStack.isEmpty()
+				&& (ctx.m_lastParsedNote != null)) {
+			int i = ctx.m_slursDefinitionStack.size() - 1;
 			while (i >= 0) {
-				SlurDefinition slurDef = (SlurDefinition) m_slursDefinitionStack
+				SlurDefinition slurDef = (SlurDefinition) ctx.m_slursDefinitionStack
 						.get(i);
 				if ((slurDef != null)
 					&& (slurDef.getStart() != null)
 					&& !slurDef.getStart().equals(
-						m_lastParsedNote.getReference())) {
-					slurDef.setEnd(m_lastParsedNote.getReference());
-					m_slursDefinitionStack.remove(i);
-					m_lastParsedNote.addSlurDefinition(slurDef);
+						ctx.m_lastParsedNote.getReference())) {
+					slurDef.setEnd(ctx.m_lastParsedNote.getReference());
+					ctx.m_slursDefinitionStack.remove(i);
+					ctx.m_lastParsedNote.addSlurDefinition(slurDef);
 					break;
 				}
 				i--;
@@ -1585,32 +1826,32 @@ public abstract class AbcParserAbstract implements AbcTokens {
 		}
 	}
 	
-	private NoteAbstract parseStem(AbcNode stem) {
+	private NoteAbstract parseStem(ParsingContext ctx, AbcNode stem) {
 		NoteAbstract note = null;
 		if (stem != null) {
 			AbcNode firstChild = stem.getFirstChild();
 			if (firstChild != null) {
 				String label = firstChild.getLabel();
 				if (label.equals(_Note))
-					note = parseNote(firstChild, null, null);
+					note = parseNote(ctx, firstChild, null, null);
 				else if (label.equals(_MultiNote))
-					note = parseMultiNote(firstChild);
+					note = parseMultiNote(ctx, firstChild);
 			}
 			if (note != null) {
-				if (m_graceNotes != null) {
-					note.setGracingNotes(m_graceNotes);
-					m_graceNotes.clear();
-					note.setGracingType(m_graceNotesType);
-					m_graceNotesType = GracingType.APPOGGIATURA;
+				if (ctx.m_graceNotes != null) {
+					note.setGracingNotes(ctx.m_graceNotes);
+					ctx.m_graceNotes.clear();
+					note.setGracingType(ctx.m_graceNotesType);
+					ctx.m_graceNotesType = GracingType.APPOGGIATURA;
 				}
 
 				// slurs
-				if (!m_slursDefinitionStack.isEmpty()) {
+				if (!ctx.m_slursDefinitionStack.isEmpty()) {
 					note.setPartOfSlur(true);
-					int i = m_slursDefinitionStack.size() - 1;
+					int i = ctx.m_slursDefinitionStack.size() - 1;
 					while (i >= 0) {
 						SlurDefinition currentSlurDef =
-							(SlurDefinition) m_slursDefinitionStack
+							(SlurDefinition) ctx.m_slursDefinitionStack
 								.get(i);
 						if (currentSlurDef.getStart() == null) {
 							currentSlurDef.setStart(note.getReference());
@@ -1619,23 +1860,23 @@ public abstract class AbcParserAbstract implements AbcTokens {
 						i--;
 					}
 				}
-				applyBrokenRhythmToNote(note);
-				m_brknRthmDotsCorrection = 0;
-				m_lastParsedNote = note;
+				applyBrokenRhythmToNote(ctx, note);
+				ctx.m_brknRthmDotsCorrection = 0;
+				ctx.m_lastParsedNote = note;
 			}
 		}
 		return note;
 	}
 	
-	private void parseTitleFields(AbcNode titleFields) {
+	private void parseTitleFields(ParsingContext ctx, AbcNode titleFields) {
 		if (titleFields != null) {
 			for (AbcNode node : titleFields.getChilds(FieldTitle)) {
-				parseFieldTitle(node);
+				parseFieldTitle(ctx, node);
 			}
 		}
 	}
 	
-	private void parseTuneAndInlineFields(AbcNode field) {
+	private void parseTuneAndInlineFields(ParsingContext ctx, AbcNode field) {
 		if (field == null)
 			return;
 		AbcNode firstChild = field.getFirstChild();
@@ -1643,51 +1884,51 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			return;
 		String label = firstChild.getLabel();
 		if (label.endsWith("Part"))
-			parseFieldPart(firstChild);
+			parseFieldPart(ctx, firstChild);
 		else if (label.endsWith("Length"))
-			parseFieldLength(firstChild);
+			parseFieldLength(ctx, firstChild);
 		else if (label.endsWith("Meter"))
-			parseFieldMeter(firstChild);
+			parseFieldMeter(ctx, firstChild);
 		else if (label.endsWith("Key"))
-			parseFieldKey(firstChild);
+			parseFieldKey(ctx, firstChild);
 		else if (label.endsWith("Tempo"))
-			parseFieldTempo(firstChild);
+			parseFieldTempo(ctx, firstChild);
 		else if (label.endsWith("Voice")) {
-			parseFieldVoice(firstChild);
+			parseFieldVoice(ctx, firstChild);
 		}
 		else if (label.endsWith("Lyrics")) {
 			//TODO parseFieldLyrics(firstChild);
 		}
 		else if (label.endsWith("Area"))
-			parseFieldArea(firstChild);
+			parseFieldArea(ctx, firstChild);
 		else if (label.endsWith("Book"))
-			parseFieldBook(firstChild);
+			parseFieldBook(ctx, firstChild);
 		else if (label.endsWith("Composer"))
-			parseFieldComposer(firstChild);
+			parseFieldComposer(ctx, firstChild);
 		else if (label.endsWith("Discography"))
-			parseFieldDiscography(firstChild);
+			parseFieldDiscography(ctx, firstChild);
 		else if (label.endsWith("File"))
-			parseFieldFile(firstChild);
+			parseFieldFile(ctx, firstChild);
 		else if (label.endsWith("Group"))
-			parseFieldFile(firstChild);
+			parseFieldFile(ctx, firstChild);
 		else if (label.endsWith("History"))
-			parseFieldHistory(firstChild);
+			parseFieldHistory(ctx, firstChild);
 		else if (label.endsWith("Instruction"))
-			parseXcommand(firstChild);
+			parseXcommand(ctx, firstChild);
 		else if (label.endsWith("Notes"))
-			parseFieldNotes(firstChild);
+			parseFieldNotes(ctx, firstChild);
 		else if (label.endsWith("Origin"))
-			parseFieldOrigin(firstChild);
+			parseFieldOrigin(ctx, firstChild);
 		else if (label.endsWith("Rhythm"))
-			parseFieldRhythm(firstChild);
+			parseFieldRhythm(ctx, firstChild);
 		else if (label.endsWith("Source"))
-			parseFieldSource(firstChild);
+			parseFieldSource(ctx, firstChild);
 		else if (label.endsWith("Title"))
-			parseFieldTitle(firstChild);
+			parseFieldTitle(ctx, firstChild);
 		else if (label.endsWith("Transcription"))
-			parseFieldTranscription(firstChild);
+			parseFieldTranscription(ctx, firstChild);
 		else if (label.endsWith("Words"))
-			parseFieldWords(firstChild);
+			parseFieldWords(ctx, firstChild);
 		
 	}
 	
@@ -1697,23 +1938,27 @@ public abstract class AbcParserAbstract implements AbcTokens {
 			tb.setAbcHeaderString(tbHeader.getValue());
 			//init a new tune to put header informations
 			//and instruction into
-			initNewTune();
-			for (AbcNode node : tbHeader.getChilds()) {
-				String label = node.getLabel();
-				if (label.equals(FileField))
-					parseTuneAndInlineFields(node);
-				else if (label.equals(Xcommand))
-					parseXcommand(node);
+			ParsingContext ctx = beginTune();
+			try {
+				for (AbcNode node : tbHeader.getChilds()) {
+					String label = node.getLabel();
+					if (label.equals(FileField))
+						parseTuneAndInlineFields(ctx, node);
+					else if (label.equals(Xcommand))
+						parseXcommand(ctx, node);
+				}
+			} finally {
+				endTune(ctx);
 			}
-			tb.getInstructions().addAll(m_tune.getInstructions());
-			tb.setBookInfos(m_tune.getTuneInfos());
+			tb.getInstructions().addAll(ctx.m_tune.getInstructions());
+			tb.setBookInfos(ctx.m_tune.getTuneInfos());
 		}
 		return tb;
 	}
 	
-	private void parseTuplet(AbcNode tuplet) {
+	private void parseTuplet(ParsingContext ctx, AbcNode tuplet) {
 		if (tuplet != null) {
-			m_tupletPosition = tuplet.getCharStreamPosition();
+			ctx.m_tupletPosition = tuplet.getCharStreamPosition();
 			int i = 1;
 			for (AbcNode node : tuplet.getChilds()) {
 				if (node.is(":"))
@@ -1721,15 +1966,15 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				else if (node.getValue().length() > 0){
 					int digits = node.getIntValue();
 					switch(i) {
-					case 1: m_tupletNumber = digits; break;
-					case 2: m_tupletInTimeOf = digits; break;
-					case 3: m_tupletNumberOfNotes = digits; break;
+					case 1: ctx.m_tupletNumber = digits; break;
+					case 2: ctx.m_tupletInTimeOf = digits; break;
+					case 3: ctx.m_tupletNumberOfNotes = digits; break;
 					}
 				}
 			}
-			if (m_tupletNumberOfNotes <= 1)
-				m_tupletNumberOfNotes = m_tupletNumber;
-			if (m_tupletInTimeOf == -1) {
+			if (ctx.m_tupletNumberOfNotes <= 1)
+				ctx.m_tupletNumberOfNotes = ctx.m_tupletNumber;
+			if (ctx.m_tupletInTimeOf == -1) {
 				//* The values of the particular tuplets are
 				//(to quote the abc specification)
 				//(2 	2 notes in the time of 3
@@ -1742,24 +1987,24 @@ public abstract class AbcParserAbstract implements AbcTokens {
 				//(9 	9 notes in the time of n
 				//n is 3 in compound time signatures (3/4, 3/8, 9/8 etc),
 				//and 2 in simple time signatures (C, 4/4, 2/4 etc.)
-				if (m_tupletNumber==2 || m_tupletNumber==4 || m_tupletNumber==8)
-					m_tupletInTimeOf = 3;
-				else if (m_tupletNumber==3 | m_tupletNumber==6)
-					m_tupletInTimeOf = 2;
+				if (ctx.m_tupletNumber==2 || ctx.m_tupletNumber==4 || ctx.m_tupletNumber==8)
+					ctx.m_tupletInTimeOf = 3;
+				else if (ctx.m_tupletNumber==3 | ctx.m_tupletNumber==6)
+					ctx.m_tupletInTimeOf = 2;
 				else { //5, 7, 9
-					if (m_timeSignature != null) {
-						m_tupletInTimeOf = m_timeSignature.isCoumpound()?3:2;
+					if (ctx.m_timeSignature != null) {
+						ctx.m_tupletInTimeOf = ctx.m_timeSignature.isCoumpound()?3:2;
 					}
 				}
 			}
 		}
 	}
 	
-	private void parseXcommand(AbcNode xcommand) {
+	private void parseXcommand(ParsingContext ctx, AbcNode xcommand) {
 		if (xcommand != null) {
 			AbcNode xcom = xcommand.getChild(Xcom);
 			if (xcom != null) {
-				m_tune.addInstruction(
+				ctx.m_tune.addInstruction(
 						new Xcommand(xcom.getTexTextValue())
 				);
 			}
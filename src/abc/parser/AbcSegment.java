@@ -0,0 +1,92 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+/**
+ * A piece of ABC source cut by {@link AbcSegmenter}: one tune starting with
+ * its <TT>X:</TT> field, or for the first segment of a tune book, the tune
+ * book header followed by the first tune.
+ * <p>
+ * The segment remembers where it starts in the whole source, so that nodes
+ * parsed from it get {@link CharStreamPosition}s relative to the whole source.
+ */
+class AbcSegment {
+
+	private CharSequence m_text;
+
+	private int m_startIndex;
+
+	private int m_startLine;
+
+	private boolean m_isFirst;
+
+	AbcSegment(CharSequence text, int startIndex, int startLine,
+			boolean isFirst) {
+		m_text = text;
+		m_startIndex = startIndex;
+		m_startLine = startLine;
+		m_isFirst = isFirst;
+	}
+
+	/** Returns the ABC source of this segment */
+	CharSequence getText() {
+		return m_text;
+	}
+
+	/**
+	 * Returns the index of the first char of this segment in the whole
+	 * source (starting at 0)
+	 */
+	int getStartIndex() {
+		return m_startIndex;
+	}
+
+	/**
+	 * Returns the line of the first char of this segment in the whole source
+	 * (starting at 1)
+	 */
+	int getStartLine() {
+		return m_startLine;
+	}
+
+	/**
+	 * Returns <code>true</code> if this is the first segment of the source,
+	 * which may begin with the tune book header, and must be parsed as a
+	 * whole {@link AbcTokens#AbcFile}.
+	 */
+	boolean isFirst() {
+		return m_isFirst;
+	}
+
+	/**
+	 * Returns the beginning of this segment, up to the end of the first
+	 * <TT>K:</TT> field following the <TT>X:</TT> field, i.e. the tune header
+	 * without the music. If no such field is found, the whole segment is
+	 * returned.
+	 */
+	AbcSegment getHeaderSegment() {
+		int end = AbcSegmenter.endOfHeader(m_text);
+		if (end == m_text.length())
+			return this;
+		return new AbcSegment(m_text.subSequence(0, end), m_startIndex,
+				m_startLine, m_isFirst);
+	}
+
+	public String toString() {
+		return m_text.toString();
+	}
+
+}
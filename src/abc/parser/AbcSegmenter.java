@@ -0,0 +1,343 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Cuts an ABC source into {@link AbcSegment}s at <TT>X:</TT> boundaries,
+ * without parsing it.
+ * <p>
+ * The first segment contains the tune book header (if any) and the first
+ * tune, each following segment contains exactly one tune, from its
+ * <TT>X:</TT> line to the next one. <TT>X:</TT> lines inside a
+ * <TT>%%begintext</TT> block are text, they don't start a tune. Like
+ * parboiled, only <TT>LF</TT> is
+ * considered as a line separator, so a source using <TT>CR</TT> alone is
+ * returned as a single segment.
+ * <p>
+ * The source can be a {@link CharSequence}, segments are then views of it,
+ * a {@link Reader} which is read one segment at a time, so that only the
+ * current segment is kept in memory, or encoded bytes (e.g. a mapped file)
+ * in which segments are found before being decoded one at a time.
+ */
+class AbcSegmenter {
+
+	private CharSequence m_source = null;
+
+	private Reader m_reader = null;
+
+	private char[] m_buffer = null;
+
+	private int m_bufferIndex = 0;
+
+	private int m_bufferLength = 0;
+
+	/** In bytes mode, the encoded source, seen as chars by m_bytesAsChars */
+	private ByteBuffer m_bytes = null;
+
+	private CharSequence m_bytesAsChars = null;
+
+	private CharsetDecoder m_decoder = null;
+
+	/** In bytes mode, the index of next segment in m_bytes */
+	private int m_byteIndex = 0;
+
+	/** In reader mode, the first line of next segment, already read */
+	private String m_nextLine = null;
+
+	private int m_index = 0;
+
+	private int m_line = 1;
+
+	/** <code>true</code> between <TT>%%begintext</TT> and <TT>%%endtext</TT> */
+	private boolean m_inTextBlock = false;
+
+	AbcSegmenter(CharSequence source) {
+		m_source = source;
+	}
+
+	AbcSegmenter(Reader reader) {
+		m_reader = reader;
+		m_buffer = new char[8 * 1024];
+	}
+
+	/**
+	 * Cuts encoded bytes, which are decoded one segment at a time. The
+	 * charset of the decoder must be ASCII compatible, see
+	 * {@link #canCutBytes(Charset)}.
+	 */
+	AbcSegmenter(ByteBuffer bytes, CharsetDecoder decoder) {
+		m_bytes = bytes;
+		m_bytesAsChars = new BytesAsChars(bytes);
+		m_decoder = decoder;
+	}
+
+	/**
+	 * Returns <code>true</code> if segments can be found in bytes encoded
+	 * with this charset before decoding them, i.e. if the chars looked for
+	 * by the segmenter are encoded as in ASCII. This is the case for
+	 * ISO-8859-x and UTF-8, but not for UTF-16.
+	 */
+	static boolean canCutBytes(Charset charset) {
+		String chars = "\n%% \tX:K:begintext endtext";
+		return Arrays.equals(chars.getBytes(charset),
+				chars.getBytes(Charset.forName("US-ASCII")));
+	}
+
+	/**
+	 * Returns the source given to the constructor, <code>null</code> when
+	 * reading from a {@link Reader} or from bytes
+	 */
+	CharSequence getSource() {
+		return m_source;
+	}
+
+	/** Returns <code>true</code> if there are more segments to read */
+	boolean hasNext() throws IOException {
+		if (m_reader != null) {
+			if (m_nextLine == null)
+				m_nextLine = readLine();
+			return m_nextLine != null;
+		}
+		if (m_bytes != null)
+			return m_byteIndex < m_bytes.limit();
+		return m_index < m_source.length();
+	}
+
+	/**
+	 * Returns the next segment
+	 *
+	 * @throws NoSuchElementException if there are no more segments
+	 */
+	AbcSegment next() throws IOException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		if (m_reader != null)
+			return nextFromReader();
+		if (m_bytes != null)
+			return nextFromBytes();
+		int start = m_index;
+		int startLine = m_line;
+		int end = segmentEnd(m_source, start);
+		m_index = end;
+		return new AbcSegment(m_source.subSequence(start, end), start,
+				startLine, start == 0);
+	}
+
+	private AbcSegment nextFromBytes() throws IOException {
+		int start = m_index;
+		int startLine = m_line;
+		int byteStart = m_byteIndex;
+		int byteEnd = segmentEnd(m_bytesAsChars, byteStart);
+		ByteBuffer bytes = m_bytes.duplicate();
+		bytes.limit(byteEnd);
+		bytes.position(byteStart);
+		CharBuffer text = m_decoder.decode(bytes);
+		m_byteIndex = byteEnd;
+		m_index += text.length();
+		return new AbcSegment(text, start, startLine, byteStart == 0);
+	}
+
+	/**
+	 * Returns the end of the segment starting at index, i.e. the beginning of
+	 * the second <TT>X:</TT> line, and counts its lines.
+	 */
+	private int segmentEnd(CharSequence text, int index) {
+		int length = text.length();
+		boolean numberFound = false;
+		while (index < length) {
+			if (isTuneStart(text, index)) {
+				if (numberFound)
+					break;
+				numberFound = true;
+			}
+			index = nextLineStart(text, index);
+			m_line++;
+		}
+		return index;
+	}
+
+	private AbcSegment nextFromReader() throws IOException {
+		int start = m_index;
+		int startLine = m_line;
+		StringBuilder sb = new StringBuilder();
+		boolean numberFound = false;
+		String line = m_nextLine;
+		m_nextLine = null;
+		while (line != null) {
+			if (isTuneStart(line, 0)) {
+				if (numberFound) {
+					m_nextLine = line;
+					break;
+				}
+				numberFound = true;
+			}
+			sb.append(line);
+			m_index += line.length();
+			m_line++;
+			line = readLine();
+		}
+		return new AbcSegment(sb.toString(), start, startLine, start == 0);
+	}
+
+	/**
+	 * Reads a line from the reader, including its <TT>LF</TT>, returns
+	 * <code>null</code> at the end of the stream.
+	 */
+	private String readLine() throws IOException {
+		StringBuilder sb = null;
+		while (true) {
+			if (m_bufferIndex == m_bufferLength) {
+				m_bufferLength = m_reader.read(m_buffer);
+				m_bufferIndex = 0;
+				if (m_bufferLength == -1) {
+					m_bufferLength = 0;
+					return sb != null ? sb.toString() : null;
+				}
+			}
+			int start = m_bufferIndex;
+			while (m_bufferIndex < m_bufferLength) {
+				if (m_buffer[m_bufferIndex++] == '\n') {
+					if (sb == null)
+						return new String(m_buffer, start, m_bufferIndex - start);
+					sb.append(m_buffer, start, m_bufferIndex - start);
+					return sb.toString();
+				}
+			}
+			if (sb == null)
+				sb = new StringBuilder();
+			sb.append(m_buffer, start, m_bufferIndex - start);
+		}
+	}
+
+	/**
+	 * Returns the index following the first <TT>K:</TT> line after the
+	 * <TT>X:</TT> line, or the length of the text if there is no such line.
+	 */
+	static int endOfHeader(CharSequence text) {
+		int length = text.length();
+		boolean numberFound = false;
+		int i = 0;
+		while (i < length) {
+			if (isField(text, i, 'X')) {
+				numberFound = true;
+				break;
+			}
+			i = nextLineStart(text, i);
+		}
+		if (!numberFound)
+			i = 0;
+		while (i < length) {
+			int next = nextLineStart(text, i);
+			if (isField(text, i, 'K'))
+				return next;
+			i = next;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns <code>true</code> if the line at index is a <TT>X:</TT> field
+	 * out of text blocks. Lines must be given in order, text blocks are
+	 * followed from one line to the next.
+	 */
+	private boolean isTuneStart(CharSequence text, int index) {
+		if (m_inTextBlock) {
+			if (isXcommand(text, index, "endtext"))
+				m_inTextBlock = false;
+			return false;
+		}
+		if (isXcommand(text, index, "begintext")) {
+			m_inTextBlock = true;
+			return false;
+		}
+		return isField(text, index, 'X');
+	}
+
+	/** Returns <code>true</code> if a <TT>%%name</TT> command starts at index */
+	private static boolean isXcommand(CharSequence text, int index,
+			String name) {
+		int length = text.length();
+		if ((index + 1 >= length) || (text.charAt(index) != '%')
+				|| (text.charAt(index + 1) != '%'))
+			return false;
+		index += 2;
+		while ((index < length) && ((text.charAt(index) == ' ')
+				|| (text.charAt(index) == '\t')))
+			index++;
+		if (index + name.length() > length)
+			return false;
+		for (int i = 0; i < name.length(); i++)
+			if (text.charAt(index + i) != name.charAt(i))
+				return false;
+		return true;
+	}
+
+	/** Returns <code>true</code> if a <TT>letter:</TT> field starts at index */
+	private static boolean isField(CharSequence text, int index, char letter) {
+		return (index + 1 < text.length())
+				&& (text.charAt(index) == letter)
+				&& (text.charAt(index + 1) == ':');
+	}
+
+	/**
+	 * Returns the index of the first char following the <TT>LF</TT> ending
+	 * the line which contains index, or the text length for the last line.
+	 */
+	private static int nextLineStart(CharSequence text, int index) {
+		int length = text.length();
+		while (index < length) {
+			if (text.charAt(index++) == '\n')
+				return index;
+		}
+		return length;
+	}
+
+	/**
+	 * Bytes of an ASCII compatible encoding seen as chars, only to look for
+	 * line starts and fields.
+	 */
+	private static class BytesAsChars implements CharSequence {
+
+		private ByteBuffer m_bytes;
+
+		BytesAsChars(ByteBuffer bytes) {
+			m_bytes = bytes;
+		}
+
+		public char charAt(int index) {
+			return (char) (m_bytes.get(index) & 0xFF);
+		}
+
+		public int length() {
+			return m_bytes.limit();
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -15,6 +15,7 @@
 // along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
 package abc.parser;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -26,16 +27,56 @@ import java.util.ResourceBundle;
  * ABC text replacements resource bundle
  * <BR>
  * e.g.: <TT>\^a</TT> &rarr; <TT></TT>
+ * <p>
+ * {@link #replace(String)} rewrites all the sequences of a text in one pass,
+ * using a tree of the sequences built once.
  */
 public class AbcTextReplacements extends ResourceBundle {
 
-	private static AbcTextReplacements instance = null;
-	
 	static final Map<String, String> map = new HashMap<String, String>();
 
+	//created before the first use, the map is never modified after
+	private static final AbcTextReplacements instance = new AbcTextReplacements();
+
+	/**
+	 * A node of the tree of sequences, its children are sorted by char.
+	 */
+	private static class Node {
+
+		private char[] m_chars = new char[0];
+
+		private Node[] m_childs = new Node[0];
+
+		/** The replacement of the sequence ending here, or null */
+		private String m_replacement = null;
+
+		private Node getChild(char c) {
+			int i = Arrays.binarySearch(m_chars, c);
+			return i >= 0 ? m_childs[i] : null;
+		}
+
+		private Node addChild(char c) {
+			int i = Arrays.binarySearch(m_chars, c);
+			if (i >= 0)
+				return m_childs[i];
+			i = -i - 1;
+			char[] chars = new char[m_chars.length + 1];
+			Node[] childs = new Node[m_childs.length + 1];
+			System.arraycopy(m_chars, 0, chars, 0, i);
+			System.arraycopy(m_childs, 0, childs, 0, i);
+			System.arraycopy(m_chars, i, chars, i + 1, m_chars.length - i);
+			System.arraycopy(m_childs, i, childs, i + 1, m_childs.length - i);
+			chars[i] = c;
+			childs[i] = new Node();
+			m_chars = chars;
+			m_childs = childs;
+			return childs[i];
+		}
+	}
+
+	private final Node m_root = new Node();
+
 	public static AbcTextReplacements getInstance() {
-		if (instance == null)
-			instance = new AbcTextReplacements();
 		return instance;
 	}
 
@@ -255,6 +296,71 @@ public class AbcTextReplacements extends ResourceBundle {
 		map.put("\\.o", "\u022F");//o-dotabove
 		map.put("\\=Y", "\u0232");//Y-macron
 		map.put("\\=y", "\u0233");//y-macron
+
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			String key = entry.getKey();
+			Node node = m_root;
+			for (int i = 0; i < key.length(); i++)
+				node = node.addChild(key.charAt(i));
+			node.m_replacement = entry.getValue();
+		}
+	}
+
+	/**
+	 * Returns text with all its sequences replaced, the longest sequence
+	 * being replaced when several start at the same char.
+	 *
+	 * @return text itself if it contains no sequence
+	 */
+	public String replace(String text) {
+		int i = firstMatch(text, 0, text.length());
+		if (i == -1)
+			return text;
+		StringBuilder sb = new StringBuilder(text.length());
+		sb.append(text, 0, i);
+		replace(text, i, text.length(), sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the chars of text from start to end to sb, the sequences
+	 * being replaced, so that a caller can reuse sb for many texts.
+	 */
+	public void replace(CharSequence text, int start, int end, StringBuilder sb) {
+		int i = start;
+		while (i < end) {
+			int match = firstMatch(text, i, end);
+			if (match == -1)
+				break;
+			sb.append(text, i, match);
+			//the node of the longest sequence, and where it ends
+			Node node = m_root;
+			String replacement = null;
+			int next = match + 1;
+			for (int j = match; (j < end) && (node != null); j++) {
+				node = node.getChild(text.charAt(j));
+				if ((node != null) && (node.m_replacement != null)) {
+					replacement = node.m_replacement;
+					next = j + 1;
+				}
+			}
+			if (replacement != null)
+				sb.append(replacement);
+			else
+				sb.append(text.charAt(match));
+			i = next;
+		}
+		sb.append(text, i, end);
+	}
+
+	/** Returns the index of the first char which may start a sequence */
+	private int firstMatch(CharSequence text, int start, int end) {
+		char[] chars = m_root.m_chars;
+		for (int i = start; i < end; i++) {
+			if (Arrays.binarySearch(chars, text.charAt(i)) >= 0)
+				return i;
+		}
+		return -1;
 	}
 
 	public Enumeration<String> getKeys() {
@@ -39,6 +39,9 @@ public class AbcTuneBook extends TuneBook {
 
 	private static final long serialVersionUID = -641380916972326741L;
 
+	/** Parses the tunes put as strings, shared by all books and threads */
+	private static final TuneParser PARSER = new TuneParser();
+
 	private String m_abcHeaderString = "";
 
 	private ArrayList<TuneBookListenerInterface> m_listeners = new ArrayList<TuneBookListenerInterface>(2);
@@ -89,8 +92,20 @@ public class AbcTuneBook extends TuneBook {
 	}
 	
 	public boolean putTune(String abcString) {
-		TuneParser tp = new TuneParser();
-		return putTune(tp.parse(abcString));
+		return putTune(PARSER.parse(abcString, null));
+	}
+
+	/**
+	 * Parses a tune with a cache and puts it into the book, see
+	 * {@link #putTune(String)}.
+	 * 
+	 * @param abcString
+	 * @param cache
+	 *            the cache of parsed tunes, may be <code>null</code>
+	 * @return true if it replaced an existing tune, false otherwise
+	 */
+	public boolean putTune(String abcString, TuneParseCache cache) {
+		return putTune(PARSER.parse(abcString, cache));
 	}
 
 	/**
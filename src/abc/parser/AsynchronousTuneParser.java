@@ -20,7 +20,8 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.util.Vector;
 
-/** A parser that parses abc gammar into its own thread context. */
+/** A parser that parses abc gammar into its own thread context.
+ * @see ExecutorTuneParser to parse on an executor, without a thread per parser */
 public class AsynchronousTuneParser extends TuneParser
 {
   private Object m_mutex = new Object();
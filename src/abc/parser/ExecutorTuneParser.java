@@ -0,0 +1,318 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A parser that parses tunes on an {@link Executor} given by the caller,
+ * and returns them through {@link CompletableFuture}s.
+ * <p>
+ * Requests are parsed one at a time, in the order they are made, and no
+ * thread is created: at most one task of this parser is queued to the
+ * executor, and it gives back its thread after each tune. Many parsers,
+ * e.g. one per editing session of a server, can share a small pool or an
+ * executor starting a virtual thread per task.
+ * <p>
+ * When the parser is <i>latest-wins</i>, e.g. for an editor parsing its
+ * text after each change, a request cancels the requests made before it:
+ * their futures are cancelled, and a pending one is never parsed.
+ * Otherwise, at most <TT>maxPending</TT> requests wait to be parsed, and
+ * a request made while they are all waiting blocks until one of them is
+ * parsed or cancelled.
+ * <p>
+ * Listeners of {@link #getParser()} are notified in the threads of the
+ * executor.
+ */
+public class ExecutorTuneParser {
+
+	/** Default maximum count of requests waiting to be parsed */
+	public static final int DEFAULT_MAX_PENDING = 16;
+
+	private TuneParser m_parser;
+
+	private Executor m_executor;
+
+	private int m_maxPending;
+
+	private boolean m_latestWins;
+
+	/** Guards the queue, not a monitor so as not to pin virtual threads */
+	private final ReentrantLock m_lock = new ReentrantLock();
+
+	private final Condition m_notFull = m_lock.newCondition();
+
+	private final ArrayDeque<Request> m_queue = new ArrayDeque<Request>();
+
+	/** The request being parsed, <code>null</code> if none */
+	private Request m_running = null;
+
+	/** <code>true</code> while a task of this parser is in the executor */
+	private boolean m_scheduled = false;
+
+	private final Runnable m_task = new Runnable() {
+		public void run() {
+			runNext();
+		}
+	};
+
+	/**
+	 * Constructs a parser keeping up to {@link #DEFAULT_MAX_PENDING}
+	 * requests.
+	 *
+	 * @param executor
+	 *            The executor parsing the tunes.
+	 */
+	public ExecutorTuneParser(Executor executor) {
+		this(new TuneParser(), executor, DEFAULT_MAX_PENDING, false);
+	}
+
+	/**
+	 * @param executor
+	 *            The executor parsing the tunes.
+	 * @param latestWins
+	 *            <code>true</code> if a request cancels the previous ones.
+	 */
+	public ExecutorTuneParser(Executor executor, boolean latestWins) {
+		this(new TuneParser(), executor, DEFAULT_MAX_PENDING, latestWins);
+	}
+
+	/**
+	 * @param parser
+	 *            The parser used in the executor, it may be shared by
+	 *            several <TT>ExecutorTuneParser</TT>s.
+	 * @param executor
+	 *            The executor parsing the tunes.
+	 * @param maxPending
+	 *            The maximum count of requests waiting to be parsed.
+	 * @param latestWins
+	 *            <code>true</code> if a request cancels the previous ones.
+	 */
+	public ExecutorTuneParser(TuneParser parser, Executor executor,
+			int maxPending, boolean latestWins) {
+		if ((parser == null) || (executor == null))
+			throw new NullPointerException();
+		if (maxPending < 1)
+			throw new IllegalArgumentException("maxPending must be > 0");
+		m_parser = parser;
+		m_executor = executor;
+		m_maxPending = maxPending;
+		m_latestWins = latestWins;
+	}
+
+	/** Returns the parser used in the executor. */
+	public TuneParser getParser() {
+		return m_parser;
+	}
+
+	/** Returns <code>true</code> if a request cancels the previous ones. */
+	public boolean isLatestWins() {
+		return m_latestWins;
+	}
+
+	/**
+	 * Parses the given string in the executor, see
+	 * {@link TuneParser#parse(String)}.
+	 *
+	 * @param tune
+	 *            The abc tune, as a String, to be parsed.
+	 * @return The future parsed tune. It completes exceptionally if the
+	 *         parsing fails or the executor rejects it, and is cancelled
+	 *         if the calling thread is interrupted while waiting for a
+	 *         free place.
+	 */
+	public CompletableFuture<AbcTune> parse(String tune) {
+		return submit(new Request(tune, false));
+	}
+
+	/**
+	 * Parses the header of the given string in the executor, see
+	 * {@link TuneParser#parseHeader(String)}.
+	 *
+	 * @param tune
+	 *            The abc tune, as a String, to be parsed.
+	 * @return The future tune with header values only, see
+	 *         {@link #parse(String)}.
+	 */
+	public CompletableFuture<AbcTune> parseHeader(String tune) {
+		return submit(new Request(tune, true));
+	}
+
+	/** Returns the count of requests waiting to be parsed. */
+	public int getPendingCount() {
+		m_lock.lock();
+		try {
+			return m_queue.size();
+		} finally {
+			m_lock.unlock();
+		}
+	}
+
+	/**
+	 * Cancels the waiting requests and the one being parsed, if any.
+	 */
+	public void cancelAll() {
+		List<Request> cancelled;
+		m_lock.lock();
+		try {
+			cancelled = removeAll();
+		} finally {
+			m_lock.unlock();
+		}
+		for (Request request : cancelled)
+			request.cancel(false);
+	}
+
+	private CompletableFuture<AbcTune> submit(Request request) {
+		List<Request> cancelled = null;
+		boolean schedule;
+		m_lock.lock();
+		try {
+			if (m_latestWins)
+				cancelled = removeAll();
+			else {
+				try {
+					while (m_queue.size() >= m_maxPending)
+						m_notFull.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					request.cancel(false);
+					return request;
+				}
+			}
+			m_queue.addLast(request);
+			schedule = !m_scheduled;
+			m_scheduled = true;
+		} finally {
+			m_lock.unlock();
+		}
+		if (cancelled != null)
+			for (Request old : cancelled)
+				old.cancel(false);
+		if (schedule)
+			schedule();
+		return request;
+	}
+
+	/** Removes all requests, to be called with the lock held. */
+	private List<Request> removeAll() {
+		List<Request> ret = new ArrayList<Request>(m_queue);
+		if (m_running != null)
+			ret.add(m_running);
+		m_queue.clear();
+		m_notFull.signalAll();
+		return ret;
+	}
+
+	private void schedule() {
+		try {
+			m_executor.execute(m_task);
+		} catch (RejectedExecutionException e) {
+			List<Request> rejected;
+			m_lock.lock();
+			try {
+				m_scheduled = false;
+				rejected = removeAll();
+			} finally {
+				m_lock.unlock();
+			}
+			for (Request request : rejected)
+				request.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Parses the first waiting request, then queues a new task if requests
+	 * are left, so that parsers sharing an executor take turns.
+	 */
+	private void runNext() {
+		Request request;
+		m_lock.lock();
+		try {
+			request = m_queue.pollFirst();
+			m_running = request;
+			m_notFull.signal();
+			if (request == null) {
+				m_scheduled = false;
+				return;
+			}
+		} finally {
+			m_lock.unlock();
+		}
+		try {
+			request.run();
+		} finally {
+			boolean more;
+			m_lock.lock();
+			try {
+				m_running = null;
+				more = !m_queue.isEmpty();
+				m_scheduled = more;
+			} finally {
+				m_lock.unlock();
+			}
+			if (more)
+				schedule();
+		}
+	}
+
+	/** A tune to parse, and the future of its result */
+	private class Request extends CompletableFuture<AbcTune> {
+
+		private String m_tune;
+
+		private boolean m_headerOnly;
+
+		private Request(String tune, boolean headerOnly) {
+			m_tune = tune;
+			m_headerOnly = headerOnly;
+		}
+
+		/** Removes a cancelled request from the queue, to free its place. */
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean ret = super.cancel(mayInterruptIfRunning);
+			if (ret) {
+				m_lock.lock();
+				try {
+					if (m_queue.remove(this))
+						m_notFull.signal();
+				} finally {
+					m_lock.unlock();
+				}
+			}
+			return ret;
+		}
+
+		private void run() {
+			if (isDone())
+				return;
+			try {
+				complete(m_headerOnly ? m_parser.parseHeader(m_tune)
+						: m_parser.parse(m_tune));
+			} catch (Throwable t) {
+				completeExceptionally(t);
+			}
+		}
+	}
+
+}
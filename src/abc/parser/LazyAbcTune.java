@@ -0,0 +1,224 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import abc.notation.Clef;
+import abc.notation.Instruction;
+import abc.notation.KeySignature;
+import abc.notation.MultiPartsDefinition;
+import abc.notation.Music;
+import abc.notation.Part;
+import abc.notation.Tune;
+import abc.notation.Voice;
+
+/**
+ * A tune of a tune book parsed by
+ * {@link TuneBookParser#parseLazy(String, int)}: header fields are parsed,
+ * the music is parsed when it is requested the first time.
+ * <p>
+ * The music is kept in a {@link BodyCache} shared by the tunes of the
+ * book, so that only the most recently used tunes are kept in memory. When
+ * a tune is removed from the cache, its music is parsed again at next
+ * request, changes made to the previous music are lost.
+ * <p>
+ * The ABC string of a lazy tune is its source up to the next <TT>X:</TT>
+ * field. {@link #getInstructions()} returns the instructions of the tune
+ * book and of the header only, the music gets them all. A serialized
+ * lazy tune, or a copy made by {@link abc.notation.Tune#Tune(Tune)}, is a
+ * plain {@link AbcTune} with its music.
+ */
+class LazyAbcTune extends AbcTune {
+
+	private static final long serialVersionUID = -2950567735127541627L;
+
+	/** The source of the tune, positioned in the source of the book */
+	private transient AbcSegment m_source;
+
+	private transient BodyCache m_cache;
+
+	private transient boolean m_recovering;
+
+	private transient boolean m_freezing;
+
+	/** Number of instructions found in the header */
+	private transient int m_headerInstructions;
+
+	/**
+	 * @param header
+	 *            the tune with header fields only
+	 * @param source
+	 *            the whole tune, from its <TT>X:</TT> field
+	 * @param cache
+	 *            the cache of the book
+	 * @param recovering
+	 *            the mode of the parser, see
+	 *            {@link AbcParserAbstract#setRecovering(boolean)}
+	 * @param freezing
+	 *            see {@link AbcParserAbstract#setFreezing(boolean)}
+	 */
+	LazyAbcTune(AbcTune header, AbcSegment source, BodyCache cache,
+			boolean recovering, boolean freezing) {
+		super(header, source.getText().toString());
+		m_source = source;
+		m_cache = cache;
+		m_recovering = recovering;
+		m_freezing = freezing;
+		m_headerInstructions = header.getInstructions().size();
+	}
+
+	/**
+	 * Returns the tune with its music, parsed if it is not in the cache.
+	 * <p>
+	 * Methods using it fall back to the header tune while the super
+	 * constructor copies it, before the cache is set.
+	 */
+	AbcTune getBody() {
+		synchronized (this) {
+			AbcTune body = m_cache.get(this);
+			if (body == null) {
+				TuneParser parser = new TuneParser();
+				parser.setRecovering(m_recovering);
+				parser.setFreezing(m_freezing);
+				AbcNode root = parser.getParseTree(m_source);
+				body = parser.parseAbcTune(root.is(AbcTokens.AbcTune) ? root
+						: null);
+				//instructions of the header are replaced by the ones of this
+				//tune, which include the instructions of the tune book
+				ArrayList<Instruction> instructions = body.getInstructions();
+				instructions.subList(0, Math.min(m_headerInstructions,
+						instructions.size())).clear();
+				instructions.addAll(0, getInstructions());
+				m_cache.put(this, body);
+			}
+			return body;
+		}
+	}
+
+	/** Returns <code>true</code> if the music is in the cache */
+	boolean isBodyParsed() {
+		return m_cache.get(this) != null;
+	}
+
+	/**
+	 * Returns the key defined in the header, without parsing the music.
+	 */
+	public KeySignature getKey() {
+		return super.getMusic().getKey();
+	}
+
+	/**
+	 * Returns the clef of the key defined in the header, without parsing the
+	 * music.
+	 * 
+	 * @deprecated use getMusic().getVoice(int).getClef()
+	 */
+	@Deprecated
+	public Clef getClef() {
+		return getKey().getClef();
+	}
+
+	public Music getMusic() {
+		return (m_cache == null) ? super.getMusic()
+				: getBody().getMusic();
+	}
+
+	public Music getMusicForGraphicalRendition() {
+		return (m_cache == null) ? super.getMusicForGraphicalRendition()
+				: getBody().getMusicForGraphicalRendition();
+	}
+
+	public Voice getVoice(String voiceId) {
+		return (m_cache == null) ? super.getVoice(voiceId)
+				: getBody().getVoice(voiceId);
+	}
+
+	public Collection<Voice> getVoices() {
+		return (m_cache == null) ? super.getVoices()
+				: getBody().getVoices();
+	}
+
+	public Part getPart(String partLabel) {
+		return (m_cache == null) ? super.getPart(partLabel)
+				: getBody().getPart(partLabel);
+	}
+
+	public Part createPart(String partLabel) {
+		return (m_cache == null) ? super.createPart(partLabel)
+				: getBody().createPart(partLabel);
+	}
+
+	public MultiPartsDefinition getMultiPartsDefinition() {
+		return (m_cache == null) ? super.getMultiPartsDefinition()
+				: getBody().getMultiPartsDefinition();
+	}
+
+	public void setMultiPartsDefinition(MultiPartsDefinition multiPartsDef) {
+		if (m_cache == null)
+			super.setMultiPartsDefinition(multiPartsDef);
+		else
+			getBody().setMultiPartsDefinition(multiPartsDef);
+	}
+
+	/** Copies are made from the music, not from the header */
+	protected Tune copySource() {
+		return (m_cache == null) ? this : getBody();
+	}
+
+	/** The tune is serialized with its music */
+	protected Object writeReplace() throws ObjectStreamException {
+		return getBody();
+	}
+
+	/**
+	 * A bounded cache of parsed music, shared by the lazy tunes of a book.
+	 * The least recently used tune is removed when the cache is full.
+	 */
+	static class BodyCache {
+
+		private Map<LazyAbcTune, AbcTune> m_bodies;
+
+		BodyCache(final int maxSize) {
+			m_bodies = new LinkedHashMap<LazyAbcTune, AbcTune>(16, 0.75f,
+					true) {
+				private static final long serialVersionUID = 5164329380167386113L;
+
+				protected boolean removeEldestEntry(
+						Map.Entry<LazyAbcTune, AbcTune> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		synchronized AbcTune get(LazyAbcTune tune) {
+			return m_bodies.get(tune);
+		}
+
+		synchronized void put(LazyAbcTune tune, AbcTune body) {
+			m_bodies.put(tune, body);
+		}
+
+		synchronized int size() {
+			return m_bodies.size();
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import abc.notation.Annotation;
+import abc.notation.GracingType;
+import abc.notation.KeySignature;
+import abc.notation.Music;
+import abc.notation.Note;
+import abc.notation.NoteAbstract;
+import abc.notation.SlurDefinition;
+import abc.notation.SymbolElement;
+import abc.notation.TimeSignature;
+
+/**
+ * The state of {@link AbcParserAbstract} while it builds one tune.
+ * <p>
+ * A context is created for each tune and passed to the methods building
+ * it, then dropped, so that a parser can be used by several threads at
+ * once and keeps no reference to the tunes it has built. While the tune is
+ * built, it is also the current context of the thread, for the protected
+ * methods of the parser which don't take it.
+ */
+class ParsingContext {
+
+	List<Annotation> m_annotations = new ArrayList<Annotation>();
+
+	/** The number of dots inherited from the previous note broken rythm. */
+	byte m_brknRthmDotsCorrection = 0;
+
+	String m_currentVoice = "1";
+
+	/** The current default note length. */
+	short m_defaultNoteLength = Note.EIGHTH;
+
+	/** Graces notes to add to next NoteAbstract */
+	List<NoteAbstract> m_graceNotes = new ArrayList<NoteAbstract>();
+
+	byte m_graceNotesType = GracingType.APPOGGIATURA;
+
+	KeySignature m_lastParsedKey = new KeySignature(Note.C,
+			KeySignature.MAJOR);
+
+	/**
+	 * Keep track of the last parsed note. Used for instance to value the end
+	 * slur in case of slur
+	 */
+	NoteAbstract m_lastParsedNote = null;
+
+	/** The music of the current tune. */
+	Music m_music = null;
+
+	List<Note> m_notesStartingTies = new ArrayList<Note>();
+
+	List<SlurDefinition> m_slursDefinitionStack = new ArrayList<SlurDefinition>();
+
+	List<SymbolElement> m_symbols = new ArrayList<SymbolElement>();
+
+	TimeSignature m_timeSignature = null;
+
+	/** The tune being built. */
+	AbcTune m_tune = null;
+
+	int m_tupletInTimeOf = -1;
+
+	List<NoteAbstract> m_tupletNotes = new ArrayList<NoteAbstract>();
+
+	int m_tupletNumber = -1;
+
+	int m_tupletNumberOfNotes = -1;
+
+	CharStreamPosition m_tupletPosition = null;
+
+	/** The context of the thread before this one, if tunes are nested */
+	final ParsingContext m_previous;
+
+	/** The tune is created by {@link #init()}. */
+	ParsingContext(ParsingContext previous) {
+		m_previous = previous;
+	}
+
+	/** Inits all attributes that are related to one parsing sequence ONLY. */
+	void init() {
+		m_brknRthmDotsCorrection = 0;
+		m_slursDefinitionStack.clear();
+		m_lastParsedNote = null;
+		m_notesStartingTies.clear();
+		m_defaultNoteLength = Note.EIGHTH;
+		m_timeSignature = null;
+		m_graceNotes.clear();
+		m_graceNotesType = GracingType.APPOGGIATURA;
+		m_tune = new AbcTune();
+		m_music = m_tune.getMusic();
+	}
+
+}
@@ -16,9 +16,15 @@
 package abc.parser;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A convenient class to ease the parsing of a tune book. The result of the
@@ -27,6 +33,9 @@ import java.io.Reader;
  */
 public class TuneBookParser extends AbcParserAbstract {
 
+	/** Number of tunes whose music is kept by {@link #parseLazy(String)} */
+	public static final int DEFAULT_PARSED_TUNES = 64;
+
 	private AbcTuneBook m_tuneBook = null;
 
 	/**
@@ -46,13 +55,17 @@ public class TuneBookParser extends AbcParserAbstract {
 
 	/**
 	 * Parses the specified file in ABC notation.
+	 * <p>
+	 * The file is mapped in memory and decoded with {@link #getCharset()},
+	 * tunes are parsed from views of the decoded chars. Positions of
+	 * parsed elements are char positions in the file.
 	 * 
 	 * @param file
 	 *            Tune book file in ABC notation.
 	 * @return A tune book representing the ABC notation stream.
 	 */
 	public AbcTuneBook parse(File file) throws IOException {
-		return parse0(getParseTree(new FileReader(file)));
+		return parse0(segment(file), false, false, null);
 	}
 
 	/**
@@ -63,7 +76,7 @@ public class TuneBookParser extends AbcParserAbstract {
 	 * @return A tune book representing the ABC notation stream.
 	 */
 	public AbcTuneBook parse(Reader reader) throws IOException {
-		return parse0(getParseTree(reader));
+		return parse0(new AbcSegmenter(read(reader)), false, false, null);
 	}
 
 	/**
@@ -75,29 +88,21 @@ public class TuneBookParser extends AbcParserAbstract {
 	 * @return An object representation of the abc notation string.
 	 */
 	public AbcTuneBook parse(String tune) {
-		return parse0(getParseTree(tune));
-	}
-
-	private AbcTuneBook parse0(AbcNode abcRoot) {
-		notifyListenersForTuneBookBegin();
-		if (abcRoot != null) {
-			AbcNode tuneBookHeader = abcRoot.getChild(AbcTuneBookHeader);
-			m_tuneBook = parseTuneBookHeader(tuneBookHeader);
-			for (AbcNode abcTuneNode : abcRoot.getChilds(AbcTune)) {
-				m_tuneBook.putTune(parseAbcTune(abcTuneNode));
-			}
-		} else {
-			m_tuneBook = newAbcTuneBook();
-			notifyListenersForEmptyTuneBook();
+		try {
+			return parse0(new AbcSegmenter(tune), false, false, null);
+		} catch (IOException never) {
+			//no I/O when reading a String
+			throw new IllegalStateException(never.getMessage());
 		}
-		notifyListenersForTuneBookEnd(m_tuneBook, abcRoot);
-		return m_tuneBook;
 	}
 
 	/**
 	 * Parse the given file and creates a <TT>TuneBook</TT> object with no music
 	 * as parsing result. This purpose of this method method is to provide a
 	 * faster parsing when just tune book and its tunes header fields are needed.
+	 * <p>
+	 * Each tune is parsed up to its <TT>K:</TT> field, its music is skipped
+	 * until the next <TT>X:</TT> field.
 	 * 
 	 * @param file
 	 *            The file to be parsed.
@@ -105,13 +110,16 @@ public class TuneBookParser extends AbcParserAbstract {
 	 *         string.
 	 */
 	public AbcTuneBook parseHeaders(File file) throws IOException {
-		return parseHeaders0(getParseTree(new FileReader(file)));
+		return parse0(segment(file), true, false, null);
 	}
 
 	/**
 	 * Parse the given stream and creates a <TT>TuneBook</TT> object with no music
 	 * as parsing result. This purpose of this method method is to provide a
 	 * faster parsing when just tune book and its tunes header fields are needed.
+	 * <p>
+	 * Each tune is parsed up to its <TT>K:</TT> field, its music is skipped
+	 * until the next <TT>X:</TT> field.
 	 * 
 	 * @param reader
 	 *            The stream to be parsed.
@@ -119,50 +127,495 @@ public class TuneBookParser extends AbcParserAbstract {
 	 *         string.
 	 */
 	public AbcTuneBook parseHeaders(Reader reader) throws IOException {
-		return parseHeaders0(getParseTree(reader));
+		return parse0(new AbcSegmenter(read(reader)), true, false, null);
 	}
 
 	/**
 	 * Parse the given String and creates a <TT>TuneBook</TT> object with no music
 	 * as parsing result. This purpose of this method method is to provide a
 	 * faster parsing when just tune book and its tunes header fields are needed.
+	 * <p>
+	 * Each tune is parsed up to its <TT>K:</TT> field, its music is skipped
+	 * until the next <TT>X:</TT> field.
 	 * 
 	 * @param tune
 	 *            A tune notation in ABC.
 	 * @return A tune representing the ABC notation with header values only.
 	 */
 	public AbcTuneBook parseHeaders(String tune) {
-		return parseHeaders0(getParseTree(tune));
+		try {
+			return parse0(new AbcSegmenter(tune), true, false, null);
+		} catch (IOException never) {
+			//no I/O when reading a String
+			throw new IllegalStateException(never.getMessage());
+		}
+	}
+
+	/**
+	 * Parses the specified file in ABC notation, music being parsed on
+	 * demand. See {@link #parseLazy(String, int)}.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parseLazy(File file) throws IOException {
+		return parseLazy(file, DEFAULT_PARSED_TUNES);
+	}
+
+	/**
+	 * Parses the specified file in ABC notation, music being parsed on
+	 * demand. See {@link #parseLazy(String, int)}.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @param maxParsedTunes
+	 *            The maximum number of tunes whose music is kept in memory.
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parseLazy(File file, int maxParsedTunes)
+			throws IOException {
+		return parseLazy0(segment(file), maxParsedTunes);
+	}
+
+	/**
+	 * Parses the specified stream in ABC notation, music being parsed on
+	 * demand. See {@link #parseLazy(String, int)}.
+	 * 
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parseLazy(Reader reader) throws IOException {
+		return parseLazy(read(reader), DEFAULT_PARSED_TUNES);
+	}
+
+	/**
+	 * Parses the specified string in ABC notation, music being parsed on
+	 * demand. See {@link #parseLazy(String, int)}.
+	 * 
+	 * @param tuneBook
+	 *            Tune book in ABC notation.
+	 * @return A tune book representing the ABC notation string.
+	 */
+	public AbcTuneBook parseLazy(String tuneBook) {
+		return parseLazy(tuneBook, DEFAULT_PARSED_TUNES);
+	}
+
+	/**
+	 * Parses the specified string in ABC notation, music being parsed on
+	 * demand. This is much faster than {@link #parse(String)} for big tune
+	 * books which are browsed rather than played or rendered.
+	 * <p>
+	 * Tunes are parsed up to their <TT>K:</TT> field like
+	 * {@link #parseHeaders(String)}, and keep their whole ABC source. The
+	 * music of a tune is parsed the first time it is requested, e.g. by
+	 * {@link abc.notation.Tune#getMusic()}, and only the music of the
+	 * <TT>maxParsedTunes</TT> most recently used tunes is kept in memory.
+	 * {@link abc.notation.Tune#getKey()} answers from the header without
+	 * parsing the music.
+	 * <p>
+	 * Listeners are notified as for {@link #parseHeaders(String)}, errors
+	 * found in the music of tunes are not reported.
+	 * 
+	 * @param tuneBook
+	 *            Tune book in ABC notation.
+	 * @param maxParsedTunes
+	 *            The maximum number of tunes whose music is kept in memory.
+	 * @return A tune book representing the ABC notation string.
+	 */
+	public AbcTuneBook parseLazy(String tuneBook, int maxParsedTunes) {
+		try {
+			return parseLazy0(new AbcSegmenter(tuneBook), maxParsedTunes);
+		} catch (IOException never) {
+			//no I/O when reading a String
+			throw new IllegalStateException(never.getMessage());
+		}
+	}
+
+	private AbcTuneBook parseLazy0(AbcSegmenter segmenter, int maxParsedTunes)
+			throws IOException {
+		if (maxParsedTunes < 1)
+			throw new IllegalArgumentException("maxParsedTunes must be > 0");
+		return parse0(segmenter, true, false,
+				new LazyAbcTune.BodyCache(maxParsedTunes));
+	}
+
+	/**
+	 * Parses the specified file in ABC notation tune by tune. See
+	 * {@link #parseStream(Reader)}.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @return A tune book containing the tune book header, but no tune.
+	 */
+	public AbcTuneBook parseStream(File file) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(file),
+				getCharset());
+		try {
+			return parseStream(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parses the specified stream in ABC notation tune by tune, which is
+	 * useful for tune books too big to be kept in memory.
+	 * <p>
+	 * The stream is read up to the next <TT>X:</TT> field, this tune is
+	 * parsed and given to listeners with
+	 * {@link TuneParserListenerInterface#tuneEnd(abc.notation.Tune, AbcNode)},
+	 * then dropped before the next tune is read. Tunes are not added to the
+	 * returned tune book, and
+	 * {@link TuneBookParserListenerInterface#tuneBookEnd(abc.notation.TuneBook, AbcNode)}
+	 * is invoked with a <code>null</code> parsing tree.
+	 * 
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @return A tune book containing the tune book header, but no tune.
+	 */
+	public AbcTuneBook parseStream(Reader reader) throws IOException {
+		return parse0(new AbcSegmenter(reader), false, true, null);
+	}
+
+	/**
+	 * Parses the specified file in ABC notation, using all available
+	 * processors. See {@link #parseParallel(String, ForkJoinPool)}.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parseParallel(File file) throws IOException {
+		return parseParallel(file, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Parses the specified file in ABC notation on the threads of a
+	 * fork-join pool. See {@link #parseParallel(String, ForkJoinPool)}.
+	 * 
+	 * @param file
+	 *            Tune book file in ABC notation.
+	 * @param pool
+	 *            The pool executing the parsing tasks.
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parseParallel(File file, ForkJoinPool pool)
+			throws IOException {
+		return parseParallel0(segment(file), pool);
 	}
 
-	private AbcTuneBook parseHeaders0(AbcNode abcRoot) {
+	/**
+	 * Parses the specified stream in ABC notation, using all available
+	 * processors. See {@link #parseParallel(String, ForkJoinPool)}.
+	 * 
+	 * @param reader
+	 *            Tune book stream in ABC notation.
+	 * @return A tune book representing the ABC notation stream.
+	 */
+	public AbcTuneBook parseParallel(Reader reader) throws IOException {
+		return parseParallel(read(reader));
+	}
+
+	/**
+	 * Parses the specified string in ABC notation, using all available
+	 * processors. See {@link #parseParallel(String, ForkJoinPool)}.
+	 * 
+	 * @param tuneBook
+	 *            The abc tune book, as a String, to be parsed.
+	 * @return An object representation of the abc notation string.
+	 */
+	public AbcTuneBook parseParallel(String tuneBook) {
+		return parseParallel(tuneBook, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Parses the specified string in ABC notation on the threads of a
+	 * fork-join pool.
+	 * <p>
+	 * The tune book is cut into tunes at <TT>X:</TT> fields, and the tunes
+	 * are parsed at once by one parser without listeners. Then, from the
+	 * calling thread, tunes are put into the tune book and listeners are
+	 * notified in the order of the source, so the result and the events
+	 * are the same as {@link #parse(String)}. Listeners are only notified
+	 * once all tunes are parsed: a <TT>tuneBegin</TT> event is immediately
+	 * followed by the <TT>tuneEnd</TT> event of the same tune.
+	 * 
+	 * @param tuneBook
+	 *            The abc tune book, as a String, to be parsed.
+	 * @param pool
+	 *            The pool executing the parsing tasks.
+	 * @return An object representation of the abc notation string.
+	 */
+	public AbcTuneBook parseParallel(String tuneBook, ForkJoinPool pool) {
+		try {
+			return parseParallel0(new AbcSegmenter(tuneBook), pool);
+		} catch (IOException never) {
+			//no I/O when reading a String
+			throw new IllegalStateException(never.getMessage());
+		}
+	}
+
+	private AbcTuneBook parseParallel0(AbcSegmenter segmenter,
+			ForkJoinPool pool) throws IOException {
+		List<AbcSegment> segments = new ArrayList<AbcSegment>();
+		while (segmenter.hasNext())
+			segments.add(segmenter.next());
+		ParsedSegment[] parsedSegments = new ParsedSegment[segments.size()];
+		//events are sent from this thread, in order, once tunes are parsed
+		TuneBookParser parser = new TuneBookParser();
+		parser.setRecovering(isRecovering());
+		parser.setFreezing(isFreezing());
+		pool.invoke(new ParsingTask(parser, segments, parsedSegments, 0,
+				parsedSegments.length, hasParserListeners(false)));
+
 		notifyListenersForTuneBookBegin();
-		if (abcRoot != null) {
-			AbcNode tuneBookHeader = abcRoot.getChild(AbcTuneBookHeader);
-			AbcTuneBook tuneBook = parseTuneBookHeader(tuneBookHeader);
-			for (AbcNode abcTuneNode : abcRoot.getChilds(AbcTune)) {
-				initNewTune();
+		AbcTuneBook ret = null;
+		boolean keepNodes = hasParserListeners(true);
+		List<AbcNode> abcNodes = new ArrayList<AbcNode>();
+		for (int i = 0; i < parsedSegments.length; i++) {
+			ParsedSegment parsedSegment = parsedSegments[i];
+			if (ret == null) {
+				AbcNode tuneBookHeader = parsedSegment.root
+						.getChild(AbcTuneBookHeader);
+				ret = parseTuneBookHeader(tuneBookHeader);
+				if ((tuneBookHeader != null) && keepNodes)
+					abcNodes.add(tuneBookHeader);
+				m_tuneBook = ret;
+			}
+			if ((parsedSegment.root != null) && isUnparsed(parsedSegment.root)
+					&& keepNodes)
+				abcNodes.add(parsedSegment.root);
+			for (int j = 0; j < parsedSegment.tunes.size(); j++) {
+				AbcNode abcTuneNode = (parsedSegment.abcTuneNodes != null)
+					? parsedSegment.abcTuneNodes.get(j) : null;
+				AbcTune tune = parsedSegment.tunes.get(j);
 				notifyListenersForTuneBegin();
-				AbcNode abcHeaderNode = null;
-				if (abcTuneNode != null)
-					abcHeaderNode = abcTuneNode.getChild("AbcHeader");
-				AbcTune tune;
-				if (abcHeaderNode == null) {
-					tune = new AbcTune();
-					notifyListenersForNoTune();
-				} else {
-					tune = parseAbcHeader(abcHeaderNode);
-					tune.setAbcString(abcHeaderNode.getValue());
-				}
-				notifyListenersForTuneEnd(tune, abcHeaderNode);
-				tuneBook.putTune(tune);
+				notifyListenersForTuneEnd(tune, abcTuneNode);
+				ret.putTune(tune);
+				if (keepNodes)
+					abcNodes.add(abcTuneNode);
 			}
+		}
+		AbcNode abcRoot = null;
+		if (ret != null) {
+			if (keepNodes)
+				abcRoot = new AbcNode(AbcFile, getSource(segmenter, segments),
+						abcNodes);
 		} else {
-			m_tuneBook = newAbcTuneBook();
+			ret = newAbcTuneBook();
+			m_tuneBook = ret;
 			notifyListenersForEmptyTuneBook();
 		}
-		notifyListenersForTuneBookEnd(m_tuneBook, abcRoot);
-		return m_tuneBook;
+		notifyListenersForTuneBookEnd(ret, abcRoot);
+		return ret;
+	}
+
+	/**
+	 * Tunes are parsed one at a time, from one <TT>X:</TT> field to the
+	 * next, so that a tune which can't be parsed doesn't hide the following
+	 * ones.
+	 * 
+	 * @param streaming if <code>true</code>, tunes and their parsing tree
+	 * are not kept once listeners have been notified. Otherwise, tunes
+	 * are kept in the tune book, and parsing trees are kept for the
+	 * {@link TuneBookParserListenerInterface#tuneBookEnd(abc.notation.TuneBook, AbcNode)
+	 * tuneBookEnd} event if there are tune book parser listeners.
+	 * @param lazyCache if not <code>null</code>, tunes are parsed up to
+	 * their header, and their music is parsed on demand and kept in this
+	 * cache.
+	 */
+	private AbcTuneBook parse0(AbcSegmenter segmenter, boolean headersOnly,
+			boolean streaming, LazyAbcTune.BodyCache lazyCache)
+			throws IOException {
+		notifyListenersForTuneBookBegin();
+		AbcTuneBook tuneBook = null;
+		//parsing trees of tunes are released once their music is built,
+		//unless a listener gets the tune book root
+		boolean keepNodes = !streaming && hasParserListeners(true);
+		List<AbcNode> abcNodes = new ArrayList<AbcNode>();
+		//segments are kept only to rebuild the source of the root
+		List<AbcSegment> segments = (keepNodes
+				&& (segmenter.getSource() == null))
+			? new ArrayList<AbcSegment>() : null;
+		while (segmenter.hasNext()) {
+			AbcSegment segment = segmenter.next();
+			if (segments != null)
+				segments.add(segment);
+			AbcNode segmentRoot = getParseTree(headersOnly
+					? segment.getHeaderSegment() : segment);
+			if (tuneBook == null) {
+				AbcNode tuneBookHeader = segmentRoot.getChild(AbcTuneBookHeader);
+				tuneBook = parseTuneBookHeader(tuneBookHeader);
+				if ((tuneBookHeader != null) && keepNodes)
+					abcNodes.add(tuneBookHeader);
+				if ((!headersOnly || (lazyCache != null)) && !streaming)
+					m_tuneBook = tuneBook;
+			}
+			if (isUnparsed(segmentRoot) && keepNodes)
+				abcNodes.add(segmentRoot);
+			for (AbcNode abcTuneNode : getAbcTuneNodes(segmentRoot)) {
+				AbcTune tune = headersOnly
+						? parseTuneHeader(abcTuneNode, segment, lazyCache)
+						: parseAbcTune(abcTuneNode);
+				if (!streaming)
+					tuneBook.putTune(tune);
+				if (keepNodes)
+					abcNodes.add(abcTuneNode);
+			}
+		}
+		AbcNode abcRoot = null;
+		if (tuneBook != null) {
+			if (keepNodes)
+				abcRoot = new AbcNode(AbcFile, getSource(segmenter, segments),
+						abcNodes);
+		} else {
+			tuneBook = newAbcTuneBook();
+			if ((!headersOnly || (lazyCache != null)) && !streaming)
+				m_tuneBook = tuneBook;
+			notifyListenersForEmptyTuneBook();
+		}
+		notifyListenersForTuneBookEnd(tuneBook, abcRoot);
+		return tuneBook;
+	}
+
+	/**
+	 * Returns the whole source, rebuilt from its segments if the segmenter
+	 * decoded them one at a time
+	 */
+	private static String getSource(AbcSegmenter segmenter,
+			List<AbcSegment> segments) {
+		if (segmenter.getSource() != null)
+			return segmenter.getSource().toString();
+		StringBuilder sb = new StringBuilder();
+		for (AbcSegment segment : segments)
+			sb.append(segment.getText());
+		return sb.toString();
+	}
+
+	/** Returns the tune nodes of a segment parsing tree */
+	private static List<AbcNode> getAbcTuneNodes(AbcNode segmentRoot) {
+		return segmentRoot.is(AbcTune)
+			? Collections.singletonList(segmentRoot)
+			: segmentRoot.getChilds(AbcTune);
+	}
+
+	/**
+	 * Returns the whole source of a tune, from its <TT>X:</TT> field to the
+	 * end of the segment, which for the first segment excludes the tune book
+	 * header.
+	 */
+	private static AbcSegment getTuneSource(AbcNode abcTuneNode,
+			AbcSegment segment) {
+		if (!segment.isFirst())
+			return new AbcSegment(segment.getText(), segment.getStartIndex(),
+					segment.getStartLine(), false);
+		CharStreamPosition position = abcTuneNode.getCharStreamPosition();
+		CharSequence text = segment.getText();
+		return new AbcSegment(text.subSequence(position.getStartIndex()
+				- segment.getStartIndex(), text.length()),
+				position.getStartIndex(), position.getLine(), false);
+	}
+
+	/**
+	 * Returns <code>true</code> if the segment did not match, which happens
+	 * only for a strict parser, the node then holds the error.
+	 */
+	private static boolean isUnparsed(AbcNode segmentRoot) {
+		return !segmentRoot.is(AbcFile) && !segmentRoot.is(AbcTune);
+	}
+
+	/**
+	 * Parses the header of a tune. If a cache is given, the returned tune is
+	 * a {@link LazyAbcTune} whose music is parsed from the segment on demand.
+	 */
+	private AbcTune parseTuneHeader(AbcNode abcTuneNode, AbcSegment segment,
+			LazyAbcTune.BodyCache lazyCache) {
+		notifyListenersForTuneBegin();
+		AbcNode abcHeaderNode = abcTuneNode.getChild(AbcHeader);
+		AbcTune tune;
+		if (abcHeaderNode == null) {
+			tune = new AbcTune();
+			notifyListenersForNoTune();
+		} else {
+			tune = parseAbcHeader(abcHeaderNode);
+			tune.setAbcString(abcHeaderNode.getValue());
+			if (lazyCache != null)
+				tune = new LazyAbcTune(tune, getTuneSource(abcTuneNode,
+						segment), lazyCache, isRecovering(), isFreezing());
+		}
+		notifyListenersForTuneEnd(tune, abcHeaderNode);
+		return tune;
+	}
+
+	/**
+	 * Parsing trees and tunes of one segment, parsed by a
+	 * {@link ParsingTask}. Parsing trees are kept for the first segment,
+	 * which holds the tune book header, and for listeners.
+	 */
+	private static class ParsedSegment {
+		private AbcNode root = null;
+		private List<AbcNode> abcTuneNodes = null;
+		private List<AbcTune> tunes = null;
+	}
+
+	/**
+	 * Parses a range of segments, splitting it until it contains only one
+	 * segment. All tasks share a parser without listeners, each tune being
+	 * parsed with its own state.
+	 */
+	private static class ParsingTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -3473744838733101237L;
+
+		private TuneBookParser m_parser;
+
+		private List<AbcSegment> m_segments;
+
+		private ParsedSegment[] m_parsedSegments;
+
+		private int m_from;
+
+		private int m_to;
+
+		private boolean m_keepNodes;
+
+		ParsingTask(TuneBookParser parser, List<AbcSegment> segments,
+				ParsedSegment[] parsedSegments, int from, int to,
+				boolean keepNodes) {
+			m_parser = parser;
+			m_segments = segments;
+			m_parsedSegments = parsedSegments;
+			m_from = from;
+			m_to = to;
+			m_keepNodes = keepNodes;
+		}
+
+		protected void compute() {
+			if (m_to - m_from > 1) {
+				int middle = (m_from + m_to) >>> 1;
+				invokeAll(new ParsingTask(m_parser, m_segments,
+							m_parsedSegments, m_from, middle, m_keepNodes),
+						new ParsingTask(m_parser, m_segments,
+							m_parsedSegments, middle, m_to, m_keepNodes));
+			} else if (m_to > m_from) {
+				ParsedSegment parsedSegment = new ParsedSegment();
+				AbcSegment segment = m_segments.get(m_from);
+				AbcNode root = m_parser.getParseTree(segment);
+				List<AbcNode> abcTuneNodes = getAbcTuneNodes(root);
+				parsedSegment.tunes = new ArrayList<AbcTune>(
+						abcTuneNodes.size());
+				for (AbcNode abcTuneNode : abcTuneNodes) {
+					parsedSegment.tunes.add(m_parser.parseAbcTune(abcTuneNode));
+				}
+				if (m_keepNodes || segment.isFirst()) {
+					parsedSegment.root = root;
+					parsedSegment.abcTuneNodes = abcTuneNodes;
+				}
+				m_parsedSegments[m_from] = parsedSegment;
+			}
+		}
 	}
 
 }
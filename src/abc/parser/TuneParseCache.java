@@ -0,0 +1,229 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package abc.parser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed tunes, keyed by their ABC source and the
+ * options of the parser. It is used by a {@link TuneParser} after
+ * {@link TuneParser#setCache(TuneParseCache)}, so that parsing again the
+ * same text, e.g. when an editor is refreshed or a tune previewed again,
+ * returns the previous result.
+ * <p>
+ * The least recently used tunes are removed when the cache holds more than
+ * its maximum count of tunes, or more than its maximum count of source
+ * chars, to which the memory of cached tunes is proportional.
+ * <p>
+ * Cached tunes are {@link abc.notation.Tune#freeze() frozen} and never
+ * returned. For a parser which is
+ * {@link AbcParserAbstract#setFreezing(boolean) freezing} tunes, a hit
+ * returns a copy made with {@link AbcTune}'s copy constructor: tune infos,
+ * parts and instructions are copied, the frozen voices are shared. For
+ * other parsers, a hit returns a {@link abc.notation.Tune#clone() deep
+ * clone}, which can be modified.
+ * <p>
+ * A cache can be shared by several parsers and threads.
+ */
+public class TuneParseCache {
+
+	/** Default maximum count of tunes */
+	public static final int DEFAULT_MAX_TUNES = 128;
+
+	/** Default maximum count of source chars */
+	public static final long DEFAULT_MAX_CHARS = 4 * 1024 * 1024;
+
+	private final int m_maxTunes;
+
+	private final long m_maxChars;
+
+	private final Map<Key, Entry> m_entries = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+
+	private long m_charCount = 0;
+
+	private long m_hitCount = 0;
+
+	private long m_missCount = 0;
+
+	/**
+	 * Creates a cache of {@link #DEFAULT_MAX_TUNES} tunes and
+	 * {@link #DEFAULT_MAX_CHARS} chars.
+	 */
+	public TuneParseCache() {
+		this(DEFAULT_MAX_TUNES, DEFAULT_MAX_CHARS);
+	}
+
+	/**
+	 * @param maxTunes
+	 *            The maximum count of cached tunes.
+	 * @param maxChars
+	 *            The maximum count of chars of the sources of cached tunes.
+	 */
+	public TuneParseCache(int maxTunes, long maxChars) {
+		if (maxTunes < 1)
+			throw new IllegalArgumentException("maxTunes must be > 0");
+		m_maxTunes = maxTunes;
+		m_maxChars = maxChars;
+	}
+
+	/**
+	 * Returns the cached result of parsing source, <code>null</code> if not
+	 * cached.
+	 *
+	 * @param needsNode
+	 *            if <code>true</code>, a result cached without its parsing
+	 *            tree is not returned
+	 */
+	synchronized Entry get(String source, boolean recovering,
+			boolean freezing, boolean needsNode) {
+		Entry ret = m_entries.get(new Key(source, recovering, freezing));
+		if ((ret != null) && needsNode && (ret.node == null))
+			ret = null;
+		if (ret != null)
+			m_hitCount++;
+		else
+			m_missCount++;
+		return ret;
+	}
+
+	/**
+	 * Caches the result of parsing source. A frozen copy of the tune is
+	 * cached, so that the parsed tune can be modified if it isn't frozen.
+	 *
+	 * @param freezing
+	 *            <code>true</code> if the tune is frozen, its voices are
+	 *            shared by the cached copy
+	 * @param node
+	 *            the parsing tree of the tune, may be <code>null</code>
+	 */
+	void put(String source, boolean recovering, boolean freezing,
+			AbcTune tune, AbcNode node) {
+		if (source.length() > m_maxChars)
+			return;
+		//copied out of the lock, a deep clone is not cheap
+		AbcTune cached = freezing ? copy(tune) : (AbcTune) tune.clone();
+		if (cached == null)
+			return;
+		cached.freeze();
+		put(new Key(source, recovering, freezing), new Entry(cached, node,
+				freezing));
+	}
+
+	private synchronized void put(Key key, Entry entry) {
+		Entry old = m_entries.put(key, entry);
+		if (old == null)
+			m_charCount += key.source.length();
+		Iterator<Map.Entry<Key, Entry>> it = m_entries.entrySet().iterator();
+		while (((m_entries.size() > m_maxTunes) || (m_charCount > m_maxChars))
+				&& it.hasNext()) {
+			m_charCount -= it.next().getKey().source.length();
+			it.remove();
+		}
+	}
+
+	/** Returns the count of parsings answered by the cache */
+	public synchronized long getHitCount() {
+		return m_hitCount;
+	}
+
+	/** Returns the count of parsings not found in the cache */
+	public synchronized long getMissCount() {
+		return m_missCount;
+	}
+
+	/** Returns the count of cached tunes */
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	/** Returns the count of chars of the sources of cached tunes */
+	public synchronized long getCharCount() {
+		return m_charCount;
+	}
+
+	/** Removes all cached tunes, statistics are kept */
+	public synchronized void clear() {
+		m_entries.clear();
+		m_charCount = 0;
+	}
+
+	public synchronized String toString() {
+		return "TuneParseCache[size=" + m_entries.size() + ", chars="
+				+ m_charCount + ", hits=" + m_hitCount + ", misses="
+				+ m_missCount + "]";
+	}
+
+	private static AbcTune copy(AbcTune tune) {
+		return new AbcTune(tune, tune.getAbcString());
+	}
+
+	/** A cached result */
+	static class Entry {
+
+		private AbcTune tune;
+
+		AbcNode node;
+
+		private boolean freezing;
+
+		private Entry(AbcTune tune, AbcNode node, boolean freezing) {
+			this.tune = tune;
+			this.node = node;
+			this.freezing = freezing;
+		}
+
+		/**
+		 * Returns a copy of the cached tune, sharing its frozen voices, or
+		 * a deep clone if the parser isn't freezing tunes
+		 */
+		AbcTune getTune() {
+			return freezing ? copy(tune) : (AbcTune) tune.clone();
+		}
+	}
+
+	/** The source of a tune and the options of its parser */
+	private static class Key {
+
+		private String source;
+
+		private boolean recovering;
+
+		private boolean freezing;
+
+		private Key(String source, boolean recovering, boolean freezing) {
+			this.source = source;
+			this.recovering = recovering;
+			this.freezing = freezing;
+		}
+
+		public int hashCode() {
+			return 31 * source.hashCode() + (recovering ? 1 : 0)
+					+ (freezing ? 2 : 0);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key key = (Key) o;
+			return (recovering == key.recovering)
+					&& (freezing == key.freezing) && source.equals(key.source);
+		}
+	}
+
+}
@@ -16,7 +16,6 @@
 package abc.parser;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 
@@ -24,10 +23,27 @@ import java.io.Reader;
  * A convenient class to ease the parsing of ONE tune. The result of the parsing
  * is directly returned as a Tune object synchronously. You don't have to attach
  * yourself as a listener or whatever to get the parsing result.
+ * <p>
+ * A parser can be used by several threads at once, each thread parsing
+ * with its own state. {@link #getTune()} then returns the tune parsed last
+ * by any of them, and edits given to
+ * {@link #parse(String, int, int, int)} must come from one thread.
  */
 public class TuneParser extends AbcParserAbstract {
 
-	private AbcTune m_tune = null;
+	private volatile AbcTune m_tune = null;
+
+	/** The node of the last parsed tune */
+	private AbcNode m_abcTuneNode = null;
+
+	/** The length of the last parsed source */
+	private int m_sourceLength = -1;
+
+	/** The end of the last parsed tune in its source */
+	private int m_tuneEnd = -1;
+
+	/** The cache of parsed tunes, if any */
+	private TuneParseCache m_cache = null;
 	
 	/**
 	 * Constructs a new tune parser.
@@ -36,6 +52,26 @@ public class TuneParser extends AbcParserAbstract {
 		super();
 	}
 	
+	/**
+	 * Returns the cache used by this parser, <code>null</code> if none.
+	 */
+	public TuneParseCache getCache() {
+		return m_cache;
+	}
+
+	/**
+	 * Sets the cache used by the parse methods returning a whole tune. When
+	 * the parsed text, or the first tune of an edited text, has already been
+	 * parsed with the same options, a copy of the cached tune is returned
+	 * and listeners are notified with it and its cached parsing tree.
+	 * 
+	 * @param cache
+	 *            The cache, <code>null</code> to parse every time.
+	 */
+	public void setCache(TuneParseCache cache) {
+		m_cache = cache;
+	}
+
 	/**
 	 * Return last completly parsed tune, <code>null</code> if not yet parsed
 	 */
@@ -51,7 +87,8 @@ public class TuneParser extends AbcParserAbstract {
 	 * @return A tune representing the ABC notation stream.
 	 */
 	public AbcTune parse(File file) throws IOException {
-		return parse0(getParseTree(new FileReader(file)));
+		CharSequence tune = map(file);
+		return parse0(tune, new AbcSegment(tune, 0, 1, true), m_cache);
 	}
 	
 	/**
@@ -62,7 +99,7 @@ public class TuneParser extends AbcParserAbstract {
 	 * @return A tune representing the ABC notation stream.
 	 */
 	public AbcTune parse(Reader reader) throws IOException {
-		return parse0(getParseTree(reader));
+		return parse(read(reader));
 	}
 
 	/**
@@ -74,13 +111,119 @@ public class TuneParser extends AbcParserAbstract {
 	 * @return An object representation of the abc notation string.
 	 */
 	public AbcTune parse(String tune) {
-		return parse0(getParseTree(tune));
+		return parse0(tune, new AbcSegment(tune, 0, 1, true), m_cache);
 	}
 
-	private AbcTune parse0(AbcNode abcRoot) {
-		AbcNode abcTuneNode = abcRoot.getChild("AbcTune");
-		m_tune = parseAbcTune(abcTuneNode);
-		return m_tune;
+	/**
+	 * Parses the given string after it has been edited, e.g. in a text
+	 * editor.
+	 * <p>
+	 * <TT>tune</TT> is the string given to the previous call of this
+	 * method or of {@link #parse(String)}, after <TT>removedLength</TT>
+	 * chars have been replaced by <TT>insertedLength</TT> chars at
+	 * <TT>offset</TT>. If the edit is after the first tune, the tune is the
+	 * same: the last parsed tune is returned without parsing anything, and
+	 * listeners are notified again with it. Otherwise, the first tune is
+	 * parsed again from scratch, from the beginning of the string to the
+	 * next <TT>X:</TT> field, the rest of the string is not parsed. The
+	 * parsing tree and the elements of the previous tune are not reused.
+	 * 
+	 * @param tune
+	 *            The abc tune, as a String, to be parsed.
+	 * @param offset
+	 *            The index of the edit in <TT>tune</TT>.
+	 * @param removedLength
+	 *            The count of chars removed at <TT>offset</TT>.
+	 * @param insertedLength
+	 *            The count of chars inserted at <TT>offset</TT>.
+	 * @return An object representation of the abc notation string.
+	 */
+	public synchronized AbcTune parse(String tune, int offset, int removedLength,
+			int insertedLength) {
+		AbcSegment segment = getFirstSegment(tune);
+		if ((m_abcTuneNode != null)
+				&& (m_sourceLength - removedLength + insertedLength == tune.length())
+				&& (offset >= m_tuneEnd)
+				&& (segment.getText().length() == m_tuneEnd)) {
+			m_sourceLength = tune.length();
+			notifyListenersForTuneBegin();
+			notifyListenersForTuneEnd(m_tune, m_abcTuneNode);
+			return m_tune;
+		}
+		return parse0(tune, segment, m_cache);
+	}
+
+	/**
+	 * Parses text with a cache, see
+	 * {@link #setCache(TuneParseCache)}. The tune is not kept for
+	 * {@link #getTune()}, so that a parser shared by tune books keeps no
+	 * reference to their tunes.
+	 * 
+	 * @param cache
+	 *            The cache, <code>null</code> to parse.
+	 */
+	AbcTune parse(String tune, TuneParseCache cache) {
+		return parse0(tune, new AbcSegment(tune, 0, 1, true), cache, false);
+	}
+
+	private AbcTune parse0(CharSequence source, AbcSegment segment,
+			TuneParseCache cache) {
+		return parse0(source, segment, cache, true);
+	}
+
+	/**
+	 * @param keep
+	 *            <code>true</code> to keep the tune for {@link #getTune()}
+	 *            and for the next edit
+	 */
+	private AbcTune parse0(CharSequence source, AbcSegment segment,
+			TuneParseCache cache, boolean keep) {
+		String text = null;
+		TuneParseCache.Entry cached = null;
+		if (cache != null) {
+			text = segment.getText().toString();
+			cached = cache.get(text, isRecovering(), isFreezing(),
+					hasParserListeners(false));
+		}
+		AbcNode abcTuneNode;
+		AbcTune tune;
+		if (cached != null) {
+			abcTuneNode = cached.node;
+			tune = cached.getTune();
+			notifyListenersForTuneBegin();
+			notifyListenersForTuneEnd(tune, abcTuneNode);
+		} else {
+			abcTuneNode = getParseTree(segment).getChild("AbcTune");
+			tune = parseAbcTune(abcTuneNode);
+			//a source without tune is not cached, listeners expect noTune
+			if ((cache != null) && (abcTuneNode != null))
+				cache.put(text, isRecovering(), isFreezing(), tune,
+						hasParserListeners(false) ? abcTuneNode : null);
+		}
+		if (keep) {
+			//the extent of the first tune, for the next edit
+			int tuneEnd = getFirstSegment(source).getText().length();
+			synchronized (this) {
+				m_tune = tune;
+				m_abcTuneNode = abcTuneNode;
+				m_sourceLength = source.length();
+				m_tuneEnd = tuneEnd;
+			}
+		}
+		return tune;
+	}
+
+	/** Returns the first tune of source with the tune book header if any */
+	private static AbcSegment getFirstSegment(CharSequence source) {
+		try {
+			AbcSegmenter segmenter = new AbcSegmenter(source);
+			if (segmenter.hasNext())
+				return segmenter.next();
+		} catch (IOException never) {
+			//no I/O when reading a String
+			throw new IllegalStateException(never.getMessage());
+		}
+		return new AbcSegment(source, 0, 1, true);
 	}
 
 	/**
@@ -94,7 +237,7 @@ public class TuneParser extends AbcParserAbstract {
 	 *         string.
 	 */
 	public AbcTune parseHeader(File file) throws IOException {
-		return parseHeader0(getParseTree(new FileReader(file)));
+		return parseHeader0(getHeaderParseTree(map(file)));
 	}
 
 	/**
@@ -108,7 +251,7 @@ public class TuneParser extends AbcParserAbstract {
 	 *         string.
 	 */
 	public AbcTune parseHeader(Reader reader) throws IOException {
-		return parseHeader0(getParseTree(reader));
+		return parseHeader0(getHeaderParseTree(read(reader)));
 	}
 
 	/**
@@ -119,11 +262,10 @@ public class TuneParser extends AbcParserAbstract {
 	 * @return A tune representing the ABC notation with header values only.
 	 */
 	public AbcTune parseHeader(String tune) {
-		return parseHeader0(getParseTree(tune));
+		return parseHeader0(getHeaderParseTree(tune));
 	}
 
 	private AbcTune parseHeader0(AbcNode abcRoot) {
-		initNewTune();
 		notifyListenersForTuneBegin();
 		AbcNode abcHeaderNode = null;
 		if (abcRoot != null) {
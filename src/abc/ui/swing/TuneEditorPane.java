@@ -31,15 +31,19 @@ import javax.swing.JTextPane;
 import javax.swing.KeyStroke;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Segment;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 
 import abc.notation.Tune;
+import abc.parser.AbcLexer;
 import abc.parser.AbcNode;
 import abc.parser.AbcTokens;
 import abc.parser.CharStreamPosition;
 import abc.parser.PositionableInCharStream;
+import abc.parser.TuneParseCache;
 import abc.parser.TuneParser;
 import abc.parser.TuneParserListenerInterface;
 
@@ -148,6 +152,15 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
   		return m_refresher.getParser();
   	}
 
+  	/** Sets the cache used by the parser of this pane, so that a text
+  	 * which has already been parsed, e.g. after an undo, is not parsed
+  	 * again.
+  	 * @param cache The cache, <TT>null</TT> to parse every time.
+  	 * @see TuneParser#setCache(TuneParseCache) */
+  	public void setParseCache(TuneParseCache cache) {
+  		getParser().setCache(cache);
+  	}
+
   /** Returns <TT>true</TT> if text coloring has been enabled, <TT>false</TT>
    * otherwise.
    * @return <TT>true</TT> if text coloring has been enabled, <TT>false</TT>
@@ -330,6 +343,12 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
     private Object m_mutex = new Object();
     private AbcNode m_abcRoot = null;
     private boolean isBusy = false;
+    private AbcLexer m_lexer = new AbcLexer();
+    /** The text changed since last parsing is from m_editStart to
+     * m_editEnd, -1 if unchanged. m_editDelta is the change of length. */
+    private int m_editStart = -1;
+    private int m_editEnd = -1;
+    private int m_editDelta = 0;
 
     public ParsingRefresh(DefaultStyledDocument document, TuneParser parser)
     {
@@ -367,6 +386,7 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
       // System.out.println(this.getClass().getName() + " - setDocument(" + doc + ")");
       m_document.removeDocumentListener(this);
       m_document = doc;
+      m_editStart = -1;
       m_tune = m_parser.parse(doc.getText(0, doc.getLength()));
       m_document.addDocumentListener(this);
       }
@@ -405,9 +425,17 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
 	            	{
     	          		m_forceRefresh = false;
         	      		//System.out.println("Area - Forcing refresh");
+        	      		m_editStart = -1;
             		}
             		//System.out.println("Area - parsing("+ tuneNotation +")");
-              		m_tune = m_parser.parse(tuneNotation);
+            		if (m_editStart == -1)
+            			m_tune = m_parser.parse(tuneNotation);
+            		else
+            			//only the edited tune is parsed again
+            			m_tune = m_parser.parse(tuneNotation, m_editStart,
+            					m_editEnd - m_editStart - m_editDelta,
+            					m_editEnd - m_editStart);
+            		m_editStart = -1;
             	}
             }
             catch (Exception e)
@@ -427,9 +455,22 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
     {
       synchronized(m_mutex)
       {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (m_editStart == -1) {
+          m_editStart = offset;
+          m_editEnd = offset;
+          m_editDelta = 0;
+        }
+        if (m_editEnd >= offset)
+          m_editEnd += length;
+        m_editStart = Math.min(m_editStart, offset);
+        m_editEnd = Math.max(m_editEnd, offset + length);
+        m_editDelta += length;
         m_mutex.notify();
         m_idleTime=0;
       }
+      highlightLater(e.getOffset(), e.getOffset() + e.getLength());
     }
     
     public boolean isBusy() {
@@ -440,9 +481,23 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
     {
       synchronized(m_mutex)
       {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (m_editStart == -1) {
+          m_editStart = offset;
+          m_editEnd = offset;
+          m_editDelta = 0;
+        }
+        if (m_editEnd >= offset + length)
+          m_editEnd -= length;
+        else if (m_editEnd > offset)
+          m_editEnd = offset;
+        m_editStart = Math.min(m_editStart, offset);
+        m_editDelta -= length;
         m_mutex.notify();
         m_idleTime=0;
       }
+      highlightLater(e.getOffset(), e.getOffset());
     }
     public void tuneBegin()
     {
@@ -476,6 +531,66 @@ public class TuneEditorPane extends JTextPane implements AbcTokens//, ActionList
       }
     }
 
+    /** Colors the edited lines from their tokens as soon as the edit is
+     * done, the tune is colored from its parsing tree, with its errors,
+     * when it is parsed. Attributes can't be changed while the document
+     * notifies its listeners. */
+    private void highlightLater(final int start, final int end) {
+      if (!m_enableColoring)
+        return;
+      javax.swing.SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          highlight(start, end);
+        }
+      });
+    }
+
+    private void highlight(int start, int end) {
+      if (!m_enableColoring)
+        return;
+      Segment text = new Segment();
+      try {
+        m_document.getText(0, m_document.getLength(), text);
+      }
+      catch (BadLocationException e) {
+        return;
+      }
+      start = AbcLexer.getLineStart(text, Math.min(start, text.length()));
+      end = AbcLexer.getLineEnd(text, Math.min(end, text.length()));
+      m_document.setCharacterAttributes(start, end - start, m_defaultStyle, true);
+      for (AbcLexer.Token token : m_lexer.tokenize(text, start, end))
+        m_document.setCharacterAttributes(token.getStartIndex(),
+            token.getLength(), getTokenStyle(token.getType()), true);
+    }
+
+    private Style getTokenStyle(String type) {
+      if (type == Pitch)
+        return m_baseNoteStyle;
+      else if ((type == NoteLength) || (type == _Accidental) || (type == Tie))
+        return m_noteAttrStyle;
+      else if ((type == Barline) || (type == NthRepeat)
+          || (type == EndNthRepeat) || (type == MeasureRepeat)
+          || (type == LineContinuation) || (type == HardLineBreak))
+        return m_barStyle;
+      else if ((type == Rest) || (type == MultiMeasureRest))
+        return m_restStyle;
+      else if ((type == TexText) || (type == ChordOrText))
+        return m_textStyle;
+      else if (type == Comment)
+        return m_commentStyle;
+      else if (type == Xcommand)
+        return m_xcommandStyle;
+      else if ((type == TuneField) || (type == InlineField))
+        return m_fieldStyle;
+      else if ((type == Tuplet) || (type == BrokenRhythm))
+        return m_rhythmStyle;
+      else if (type == Gracing)
+        return m_symbolStyle;
+      else if (type == GraceNotes)
+        return m_gracingStyle;
+      return m_defaultStyle;
+    }
+
     private void redrawTune() {
     	if (m_abcRoot == null)
     		return; //Nothing to do
@@ -395,7 +395,7 @@ public class TuneBookTable extends JTable// implements TuneBookListenerInterface
 
     public Object getValueFor(Tune tune)
     {
-    	KeySignature ks = tune.getMusic().getKey();
+    	KeySignature ks = tune.getKey();
       if (ks!=null)
         return ks.toLitteralNotation();
       else
@@ -0,0 +1,314 @@
+// Copyright 2006-2008 Lionel Gueganton
+// This file is part of abc4j.
+//
+// abc4j is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// abc4j is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with abc4j.  If not, see <http://www.gnu.org/licenses/>.
+package check;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.AbcParseError;
+import abc.parser.CharStreamPosition;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+/**
+ * Checks the syntax of ABC files from the command line, without any
+ * display, e.g. in batch jobs:
+ * <pre>
+ * java check.AbcValidator [-threads n] [-charset name] file|directory...
+ * </pre>
+ * Directories are scanned recursively for <TT>.abc</TT> files, which are
+ * parsed in parallel, one file per thread. Big files are also parsed tune
+ * by tune in parallel, on the same threads. Results are written to the
+ * standard output as JSON lines, in the order of the files, as soon as
+ * they are known:
+ * <pre>
+ * {"type":"error","file":"a.abc","line":12,"column":3,"startIndex":120,"endIndex":122,"message":"...","value":"..."}
+ * {"type":"failure","file":"b.abc","message":"..."}
+ * {"type":"summary","files":2,"tunes":40,"errors":1,"failures":1,"millis":35}
+ * </pre>
+ * A failure is a file which can't be read or parsed. The exit status is 0
+ * if no error was found, 1 if there are parse errors, 2 if there are
+ * failures, and 3 for bad arguments.
+ */
+public class AbcValidator {
+
+	/** Exit status when no error was found */
+	public static final int OK = 0;
+
+	/** Exit status when parse errors were found */
+	public static final int ERRORS = 1;
+
+	/** Exit status when files couldn't be read or parsed */
+	public static final int FAILURES = 2;
+
+	/** Exit status for bad arguments */
+	public static final int USAGE = 3;
+
+	private static final String USAGE_TEXT = "usage: java "
+			+ AbcValidator.class.getName()
+			+ " [-threads n] [-charset name] file|directory...";
+
+	/** Files bigger than this are parsed with several threads */
+	private static final long PARALLEL_LENGTH = 128 * 1024;
+
+	private int m_threads = Runtime.getRuntime().availableProcessors();
+
+	private Charset m_charset = Charset.defaultCharset();
+
+	/** The result of one file */
+	private static class Result {
+
+		private File file;
+
+		private int tunes = 0;
+
+		private List<AbcParseError> errors = null;
+
+		private String failure = null;
+
+		private Result(File file) {
+			this.file = file;
+		}
+	}
+
+	/** Returns the count of files parsed at the same time */
+	public int getThreads() {
+		return m_threads;
+	}
+
+	/** Sets the count of files parsed at the same time */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be > 0");
+		m_threads = threads;
+	}
+
+	/** Returns the charset of the files */
+	public Charset getCharset() {
+		return m_charset;
+	}
+
+	/** Sets the charset of the files, the platform charset by default */
+	public void setCharset(Charset charset) {
+		m_charset = charset;
+	}
+
+	/**
+	 * Checks files and the <TT>.abc</TT> files of directories, and writes
+	 * the results to out.
+	 *
+	 * @return the exit status, {@link #OK}, {@link #ERRORS} or
+	 *         {@link #FAILURES}
+	 */
+	public int validate(List<File> paths, PrintStream out) {
+		long startTime = System.currentTimeMillis();
+		List<File> files = new ArrayList<File>();
+		for (File path : paths)
+			collect(path, files);
+		//tunes of big files are parsed by the threads parsing the files
+		final ForkJoinPool pool = new ForkJoinPool(m_threads);
+		int tunes = 0, errors = 0, failures = 0;
+		try {
+			List<Future<Result>> results = new ArrayList<Future<Result>>(
+					files.size());
+			for (final File file : files) {
+				results.add(pool.submit(new Callable<Result>() {
+					public Result call() {
+						return validate(file, pool);
+					}
+				}));
+			}
+			for (Future<Result> future : results) {
+				Result result;
+				try {
+					result = future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					//errors are caught by validate(File, ForkJoinPool)
+					throw new RuntimeException(e.getCause());
+				}
+				tunes += result.tunes;
+				if (result.failure != null) {
+					failures++;
+					out.println("{\"type\":\"failure\",\"file\":"
+							+ quote(result.file.getPath()) + ",\"message\":"
+							+ quote(result.failure) + "}");
+				} else {
+					errors += result.errors.size();
+					for (AbcParseError error : result.errors)
+						out.println(toJson(result.file, error));
+				}
+				//the results of a file are shown as soon as they are known
+				out.flush();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		out.println("{\"type\":\"summary\",\"files\":" + files.size()
+				+ ",\"tunes\":" + tunes + ",\"errors\":" + errors
+				+ ",\"failures\":" + failures + ",\"millis\":"
+				+ (System.currentTimeMillis() - startTime) + "}");
+		out.flush();
+		return failures > 0 ? FAILURES : (errors > 0 ? ERRORS : OK);
+	}
+
+	/** Parses one file, in a thread of the pool */
+	private Result validate(File file, ForkJoinPool pool) {
+		final Result result = new Result(file);
+		TuneBookParser parser = new TuneBookParser();
+		parser.setCharset(m_charset);
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneBookEnd(TuneBook tuneBook, AbcNode abcRoot) {
+				result.tunes = tuneBook.size();
+				//an error found at an empty node is also found at its
+				//empty siblings
+				Set<AbcParseError> errors = Collections.newSetFromMap(
+						new IdentityHashMap<AbcParseError, Boolean>());
+				result.errors = new ArrayList<AbcParseError>();
+				//no parsing tree for an empty file
+				if (abcRoot != null) {
+					for (AbcParseError error : abcRoot.getErrors())
+						if (errors.add(error))
+							result.errors.add(error);
+				}
+			}
+		});
+		try {
+			if (file.length() > PARALLEL_LENGTH)
+				parser.parseParallel(file, pool);
+			else
+				parser.parse(file);
+			if (result.errors == null)
+				result.errors = new ArrayList<AbcParseError>(0);
+		} catch (Exception e) {
+			result.failure = e.toString();
+		} catch (StackOverflowError e) {
+			result.failure = e.toString();
+		}
+		return result;
+	}
+
+	/** Adds file, or the .abc files of directory file, sorted by name */
+	private static void collect(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] childs = file.listFiles();
+			if (childs == null)
+				return;
+			Arrays.sort(childs);
+			for (File child : childs) {
+				if (child.isDirectory()
+						|| child.getName().toLowerCase().endsWith(".abc"))
+					collect(child, files);
+			}
+		} else
+			files.add(file);
+	}
+
+	private static String toJson(File file, AbcParseError error) {
+		CharStreamPosition pos = error.getCharStreamPosition();
+		return "{\"type\":\"error\",\"file\":" + quote(file.getPath())
+				+ ",\"line\":" + pos.getLine() + ",\"column\":"
+				+ pos.getColumn() + ",\"startIndex\":" + pos.getStartIndex()
+				+ ",\"endIndex\":" + pos.getEndIndex() + ",\"message\":"
+				+ quote(error.getErrorMessage() != null ? error.getErrorMessage()
+						: "Invalid input") + ",\"value\":"
+				+ quote(error.getValue()) + "}";
+	}
+
+	/** Returns s as a JSON string */
+	private static String quote(String s) {
+		if (s == null)
+			return "null";
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < ' ')
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Runs the validator with command line arguments, see
+	 * {@link AbcValidator}.
+	 *
+	 * @return the exit status
+	 */
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+		AbcValidator validator = new AbcValidator();
+		List<File> paths = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-threads") && (i + 1 < args.length))
+					validator.setThreads(Integer.parseInt(args[++i]));
+				else if (args[i].equals("-charset") && (i + 1 < args.length))
+					validator.setCharset(Charset.forName(args[++i]));
+				else if (args[i].startsWith("-"))
+					throw new IllegalArgumentException("Unknown option "
+							+ args[i]);
+				else
+					paths.add(new File(args[i]));
+			}
+		} catch (IllegalArgumentException e) {
+			//includes NumberFormatException and bad charsets
+			err.println(e.getMessage());
+			err.println(USAGE_TEXT);
+			return USAGE;
+		}
+		if (paths.isEmpty()) {
+			err.println(USAGE_TEXT);
+			return USAGE;
+		}
+		return validator.validate(paths, out);
+	}
+
+	public static void main(String[] args) {
+		//results are flushed after each file, not at each line
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FileOutputStream(FileDescriptor.out), 64 * 1024), false);
+		System.exit(run(args, out, System.err));
+	}
+
+}
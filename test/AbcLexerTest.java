@@ -0,0 +1,65 @@
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import abc.notation.TuneBook;
+import abc.parser.AbcLexer;
+import abc.parser.AbcNode;
+import abc.parser.AbcTokens;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+public class AbcLexerTest extends TestCase {
+
+	public AbcLexerTest(String name) {
+		super(name);
+	}
+
+	public void testLexer() throws Exception {
+		String abc = "X:1\nT:Lexer %no comment\nK:D %comment\n"
+			+ "|:\"D\"^f2 !trill!e (3dcB [K:G] [CE]2- C||[1 z>x {/g}a :|\n";
+		StringBuffer sb = new StringBuffer();
+		for (AbcLexer.Token token : new AbcLexer().tokenize(abc))
+			sb.append(token.getType()).append(' ')
+				.append(abc.substring(token.getStartIndex(), token.getEndIndex()))
+				.append('\n');
+		assertEquals("TuneField X:1\nTuneField T:\nTexText Lexer %no comment\n"
+				+ "TuneField K:D \nComment %comment\n"
+				+ "Barline |:\nChordOrText \"D\"\nPitch ^f\nNoteLength 2\n"
+				+ "Gracing !trill!\nPitch e\nTuplet (3\nPitch d\nPitch c\n"
+				+ "Pitch B\nInlineField [K:G]\nMultiNote [\nPitch C\nPitch E\n"
+				+ "MultiNote ]\nNoteLength 2\nTie -\nPitch C\nBarline ||\n"
+				+ "NthRepeat [1\nRest z\nBrokenRhythm >\nRest x\n"
+				+ "GraceNotes {/\nPitch g\nGraceNotes }\nPitch a\nBarline :|\n",
+				sb.toString());
+		//a line is tokenized alone, indexes are in the whole text
+		int line = abc.indexOf("|:");
+		List<AbcLexer.Token> tokens = new AbcLexer().tokenize(abc, line + 5,
+				line + 6);
+		assertEquals(AbcTokens.Barline, tokens.get(0).getType());
+		assertEquals(line, tokens.get(0).getStartIndex());
+		//notes are the pitches of the parser
+		File f = new File("../ressources/testPlan.abc");
+		final String source = new String(java.nio.file.Files.readAllBytes(
+				f.toPath()), "ISO-8859-1");
+		final Set<String> pitches = new TreeSet<String>();
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneBookEnd(TuneBook tb, AbcNode abcRoot) {
+				for (AbcNode node : abcRoot
+						.getChildsInAllGenerations(AbcTokens.Pitch))
+					pitches.add(node.getCharStreamPosition().getStartIndex()
+							+ "-" + node.getCharStreamPosition().getEndIndex());
+			}
+		});
+		parser.parse(source);
+		Set<String> lexed = new TreeSet<String>();
+		for (AbcLexer.Token token : new AbcLexer().tokenize(source))
+			if (token.getType() == AbcTokens.Pitch)
+				lexed.add(token.getStartIndex() + "-" + token.getEndIndex());
+		assertEquals(pitches, lexed);
+	}
+
+}
@@ -0,0 +1,231 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.AbcParseError;
+import abc.parser.CharStreamPosition;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+public class AbcNodeTest extends TestCase {
+
+	public AbcNodeTest(String name) {
+		super(name);
+	}
+
+	/** Parses a tune book and returns the root of its parsing tree */
+	private static AbcNode parseTree(String abc) {
+		final AbcNode[] root = new AbcNode[1];
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneBookEnd(TuneBook tb, AbcNode abcRoot) {
+				root[0] = abcRoot;
+			}
+		});
+		parser.parse(abc);
+		return root[0];
+	}
+
+	public void testChildPaths() {
+		AbcNode root = parseTree("X:1\nT:One\nT:Two\nK:C\nab|\n");
+		AbcNode tune = root.getChild("AbcTune");
+		AbcNode header = tune.getChild("AbcHeader");
+		assertSame(header.getChild("FieldNumber").getChild("DIGITS"),
+				header.getChild("FieldNumber/DIGITS"));
+		assertEquals("1", header.getChild("FieldNumber/DIGITS").getValue());
+		//repeated labels, the first child is returned
+		assertEquals(2, header.getChilds("TitleFields/FieldTitle").size());
+		assertEquals("One", header.getChild("TitleFields/FieldTitle/TexText")
+				.getValue());
+		List<AbcNode> titles = header.getChilds("TitleFields/FieldTitle/TexText");
+		assertEquals(2, titles.size());
+		assertEquals("One", titles.get(0).getValue());
+		assertEquals("Two", titles.get(1).getValue());
+		//all the childs of repeated labels, in order
+		List<AbcNode> notes = tune.getChilds(
+				"AbcMusic/AbcLine/Element/Stem/Note/Pitch/BaseNote");
+		assertEquals(2, notes.size());
+		assertEquals("a", notes.get(0).getValue());
+		assertEquals("b", notes.get(1).getValue());
+		//labels which are not constants are found as well
+		assertSame(header.getChild("TitleFields"),
+				header.getChild(new String("TitleFields")));
+		//missing labels
+		assertNull(header.getChild("TitleFields/FieldArea"));
+		assertNull(header.getChild("FieldArea/TexText"));
+		assertNull(header.getChild(""));
+		assertTrue(header.getChilds("TitleFields/FieldArea").isEmpty());
+		assertTrue(header.getChilds("").isEmpty());
+		assertFalse(header.hasChild("FieldArea"));
+		assertTrue(header.hasChild("FieldKey/K:"));
+		try {
+			header.getChilds("TitleFields/FieldTitle").clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	/** Paths give the same nodes as a walk through the childs */
+	public void testChildPathsOfBook() throws Exception {
+		String[] paths = { "AbcTune",
+				"AbcTune/AbcHeader/TitleFields/FieldTitle",
+				"AbcTune/AbcMusic/AbcLine/Element",
+				"AbcTune/AbcMusic/AbcLine/Element/Barline" };
+		String abc = new String(java.nio.file.Files.readAllBytes(
+				new java.io.File("../ressources/testPlan.abc").toPath()),
+				"ISO-8859-1");
+		AbcNode root = parseTree(abc);
+		for (int i = 0; i < paths.length; i++) {
+			List<AbcNode> expected = walk(root, paths[i].split("/"), 0);
+			assertEquals(paths[i], expected, root.getChilds(paths[i]));
+			assertSame(paths[i], first(root, paths[i].split("/")),
+					root.getChild(paths[i]));
+		}
+	}
+
+	private static List<AbcNode> walk(AbcNode node, String[] labels, int index) {
+		List<AbcNode> ret = new ArrayList<AbcNode>();
+		for (AbcNode child : node.getChilds()) {
+			if (child.getLabel().equals(labels[index])) {
+				if (index == labels.length - 1)
+					ret.add(child);
+				else
+					ret.addAll(walk(child, labels, index + 1));
+			}
+		}
+		return ret;
+	}
+
+	/** The first child of each generation, as getChild always did */
+	private static AbcNode first(AbcNode node, String[] labels) {
+		for (int i = 0; (i < labels.length) && (node != null); i++) {
+			AbcNode child = null;
+			for (AbcNode c : node.getChilds()) {
+				if (c.getLabel().equals(labels[i])) {
+					child = c;
+					break;
+				}
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/** Node values are read from the source, also once deserialized */
+	public void testNodeValues() throws Exception {
+		final String abc = "X:1\nT:One\nK:C\nab|\n\nX:2\nT:Two\nK:G\ncd|\n";
+		AbcNode root = parseTree(abc);
+		AbcNode title = (AbcNode) root.getChildsInAllGenerations(
+				"FieldTitle").get(1);
+		assertEquals(abc.substring(title.getCharStreamPosition().getStartIndex(),
+				title.getCharStreamPosition().getEndIndex()), title.getValue());
+		//extracted once
+		assertSame(title.getValue(), title.getValue());
+		assertSame(root.getValue(), root.getValue());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(title);
+		out.close();
+		AbcNode copy = (AbcNode) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()))
+				.readObject();
+		assertEquals(title.getValue(), copy.getValue());
+	}
+
+
+	/** Each error is given once, to the node where it is */
+	public void testErrorsOfEmptyNodes() {
+		StringBuffer abc = new StringBuffer("X:1\nT:bad\nM:4/4\nL:1/8\nK:G\n");
+		for (int i = 0; i < 10; i++)
+			abc.append("ab\\ce d2 B\\ceg|\n");
+		AbcNode root = parseTree(abc.toString());
+		List<AbcParseError> errors = root.getErrors();
+		//two bad backslashes per line, empty nodes don't get the next ones
+		assertEquals(20, errors.size());
+		for (int i = 1; i < errors.size(); i++) {
+			assertTrue(errors.get(i - 1).getCharStreamPosition().getStartIndex()
+				< errors.get(i).getCharStreamPosition().getStartIndex());
+		}
+		assertErrorsInNodes(root);
+		try {
+			errors.clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		assertTrue(root.getChild("AbcTune/AbcHeader").getErrors().isEmpty());
+	}
+
+	/** Nodes after chars inserted by error recovery are in the source */
+	public void testErrorsAfterInsertedChars() {
+		String abc = "X:1\nK:C\n[c e|\nfg|\n";
+		AbcNode root = parseTree(abc);
+		List<AbcParseError> errors = root.getErrors();
+		assertEquals(2, errors.size());
+		assertEquals(abc.indexOf('e'), errors.get(0).getCharStreamPosition()
+				.getStartIndex());
+		assertEquals(abc.indexOf('|'), errors.get(1).getCharStreamPosition()
+				.getStartIndex());
+		assertEquals("|", errors.get(1).getValue());
+		assertErrorsInNodes(root);
+		for (AbcNode leaf : root.getDeepestChilds()) {
+			CharStreamPosition position = leaf.getCharStreamPosition();
+			assertEquals(leaf.getLabel(), abc.substring(position.getStartIndex(),
+					position.getEndIndex()), leaf.getValue());
+		}
+		List<AbcNode> notes = root.getChildsInAllGenerations("BaseNote");
+		assertEquals("g", notes.get(notes.size() - 1).getValue());
+		assertEquals(abc.lastIndexOf('g'), notes.get(notes.size() - 1)
+				.getCharStreamPosition().getStartIndex());
+	}
+
+	/**
+	 * Errors of a leaf are in its range, or at its index if it is empty
+	 */
+	private static void assertErrorsInNodes(AbcNode root) {
+		int count = 0;
+		for (AbcNode leaf : root.getDeepestChilds()) {
+			CharStreamPosition position = leaf.getCharStreamPosition();
+			int start = position.getStartIndex();
+			int end = Math.max(position.getEndIndex(), start + 1);
+			for (AbcParseError error : leaf.getErrors()) {
+				int index = error.getCharStreamPosition().getStartIndex();
+				assertTrue(leaf.getLabel() + " " + index,
+						(index >= start) && (index < end));
+			}
+			assertEquals(leaf.hasError(), !leaf.getErrors().isEmpty());
+			count += leaf.getErrors().size();
+		}
+		assertEquals(root.getErrors().size(), count);
+	}
+
+	public void testNodePositions() throws Exception {
+		//second tune has an error, its nodes are mapped through the
+		//buffer of the recovering parser
+		final String abc = "X:1\nT:One\nK:C\nab|\n\nX:2\nT:Two\nK:G\nc d }} e|\n";
+		AbcNode root = parseTree(abc);
+		assertTrue(root.hasError());
+		List<AbcNode> nodes = new ArrayList<AbcNode>();
+		nodes.add(root);
+		for (int i = 0; i < nodes.size(); i++) {
+			AbcNode node = nodes.get(i);
+			nodes.addAll(node.getChilds());
+			int index = node.getCharStreamPosition().getStartIndex();
+			int lineStart = abc.lastIndexOf('\n', index - 1) + 1;
+			int line = 1;
+			for (int j = 0; j < lineStart; j++)
+				if (abc.charAt(j) == '\n')
+					line++;
+			assertEquals(node.getLabel(), line,
+					node.getCharStreamPosition().getLine());
+			assertEquals(node.getLabel(), index - lineStart + 1,
+					node.getCharStreamPosition().getColumn());
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+import junit.framework.TestCase;
+import abc.parser.AbcTextReplacements;
+
+public class AbcTextReplacementsTest extends TestCase {
+
+	public AbcTextReplacementsTest(String name) {
+		super(name);
+	}
+
+	public void testTextReplacements() {
+		AbcTextReplacements r = AbcTextReplacements.getInstance();
+		String text = "no escape";
+		assertSame(text, r.replace(text));
+		assertEquals("\u00E9l\u00E8ve \u00DF \\x \\", r.replace("\\'el\\`eve \\ss \\x \\"));
+		assertEquals("Gr\u00FC\u00DFe", r.replace("Gr\\\"u\\sse"));
+		StringBuilder sb = new StringBuilder("> ");
+		r.replace("a \\oa b", 2, 6, sb);
+		assertEquals("> \u00E5 ", sb.toString());
+		//same as replacing the sequences one by one
+		for (String key : java.util.Collections.list(r.getKeys()))
+			assertEquals("x" + r.getString(key) + "y", r.replace("x" + key + "y"));
+	}
+
+}
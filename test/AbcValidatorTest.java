@@ -0,0 +1,81 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.AbcParseError;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+import check.AbcValidator;
+
+public class AbcValidatorTest extends TestCase {
+
+	public AbcValidatorTest(String name) {
+		super(name);
+	}
+
+	public void testValidator() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes, true, "UTF-8");
+		int status = AbcValidator.run(new String[] { "-threads", "2",
+				"-charset", "ISO-8859-1", "../ressources/testPlan.abc",
+				"../ressources/LGtunes.abc" }, out, out);
+		assertEquals(AbcValidator.ERRORS, status);
+		String[] lines = bytes.toString("UTF-8").split("\n");
+		//testPlan errors come first, then the summary
+		assertTrue(lines[0].startsWith("{\"type\":\"error\",\"file\":"
+				+ "\"../ressources/testPlan.abc\",\"line\":"));
+		assertTrue(lines[lines.length - 1].startsWith("{\"type\":\"summary\","
+				+ "\"files\":2,"));
+		bytes.reset();
+		status = AbcValidator.run(new String[] { "../ressources/none.abc" },
+				out, out);
+		assertEquals(AbcValidator.FAILURES, status);
+		assertTrue(bytes.toString("UTF-8").startsWith("{\"type\":\"failure\""));
+		assertEquals(AbcValidator.USAGE, AbcValidator.run(new String[0], out, out));
+		//a big file is parsed in parallel, with the same results
+		bytes.reset();
+		File f = new File("../ressources/OneillDos.abc");
+		AbcValidator.run(new String[] { f.getPath() }, out, out);
+		lines = bytes.toString("UTF-8").split("\n");
+		final int[] expected = new int[2];
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneBookEnd(TuneBook tb, AbcNode abcRoot) {
+				expected[0] = tb.size();
+				Set<AbcParseError> errors = java.util.Collections.newSetFromMap(
+						new IdentityHashMap<AbcParseError, Boolean>());
+				errors.addAll(abcRoot.getErrors());
+				expected[1] = errors.size();
+			}
+		});
+		parser.parse(f);
+		assertEquals(expected[1], lines.length - 1);
+		assertTrue(lines[lines.length - 1].startsWith("{\"type\":\"summary\","
+				+ "\"files\":1,\"tunes\":" + expected[0] + ","));
+	}
+
+
+	/** An empty file has no tune and no error */
+	public void testEmptyFile() throws Exception {
+		File f = File.createTempFile("empty", ".abc");
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(bytes, true, "UTF-8");
+			int status = AbcValidator.run(new String[] { f.getPath() }, out,
+					out);
+			assertEquals(AbcValidator.OK, status);
+			String[] lines = bytes.toString("UTF-8").split("\n");
+			assertEquals(1, lines.length);
+			assertTrue(lines[0].startsWith("{\"type\":\"summary\","
+					+ "\"files\":1,\"tunes\":0,\"errors\":0,\"failures\":0,"));
+		} finally {
+			f.delete();
+		}
+	}
+
+}
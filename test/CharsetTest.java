@@ -0,0 +1,57 @@
+import java.io.File;
+
+import junit.framework.TestCase;
+import abc.notation.Note;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+public class CharsetTest extends TestCase {
+
+	public CharsetTest(String name) {
+		super(name);
+	}
+
+	public void testCharset() throws Exception {
+		String abc = "X:1\nT:Caf\u00e9\nK:C\nab|\n\nX:2\nT:\u00c9t\u00e9\nK:G\ncd|\n";
+		File f = File.createTempFile("abc4j", ".abc");
+		try {
+			java.io.Writer w = new java.io.OutputStreamWriter(
+					new java.io.FileOutputStream(f), "UTF-8");
+			w.write(abc);
+			w.close();
+			checkCharset(f, "UTF-8", abc);
+			//not ASCII compatible, decoded as a whole
+			w = new java.io.OutputStreamWriter(
+					new java.io.FileOutputStream(f), "UTF-16");
+			w.write(abc);
+			w.close();
+			checkCharset(f, "UTF-16", abc);
+		} finally {
+			f.delete();
+		}
+	}
+	
+	private void checkCharset(File f, String charset, String abc)
+			throws Exception {
+		final AbcNode[] root = new AbcNode[1];
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneBookEnd(TuneBook tb, AbcNode abcRoot) {
+				root[0] = abcRoot;
+			}
+		});
+		parser.setCharset(java.nio.charset.Charset.forName(charset));
+		TuneBook tb = parser.parse(f);
+		assertEquals(charset, abc, root[0].getValue());
+		Tune t = tb.getTune(2);
+		assertEquals(charset, "\u00c9t\u00e9", t.getTitles()[0]);
+		Note c = (Note) t.getMusic().getFirstVoice().elementAt(1);
+		assertEquals(charset, abc.indexOf("cd|"),
+				c.getCharStreamPosition().getStartIndex());
+		assertEquals(charset, 9, c.getCharStreamPosition().getLine());
+	}
+
+}
@@ -0,0 +1,71 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import abc.notation.TuneBook;
+import abc.parser.AbcTune;
+import abc.parser.ExecutorTuneParser;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneParser;
+
+public class ExecutorTuneParserTest extends TestCase {
+
+	public ExecutorTuneParserTest(String name) {
+		super(name);
+	}
+
+	public void testExecutorParser() throws Exception {
+		TuneBook tb = new TuneBookParser().parse(
+				new File("../ressources/testPlan.abc"));
+		int[] refNumbers = tb.getReferenceNumbers();
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			//requests are parsed in order, at most 2 are waiting
+			ExecutorTuneParser parser = new ExecutorTuneParser(
+					new TuneParser(), executor, 2, false);
+			List<CompletableFuture<AbcTune>> futures =
+				new ArrayList<CompletableFuture<AbcTune>>();
+			for (int i = 0; i < refNumbers.length; i++) {
+				futures.add(parser.parse(((AbcTune) tb.getTune(refNumbers[i])).getAbcString()));
+				assertTrue(parser.getPendingCount() <= 2);
+			}
+			for (int i = 0; i < refNumbers.length; i++)
+				assertEquals(refNumbers[i], futures.get(i).get().getReferenceNumber());
+			assertEquals(0, parser.getPendingCount());
+			//latest-wins: held by a blocked executor, only the last one is parsed
+			final CountDownLatch latch = new CountDownLatch(1);
+			Executor held = new Executor() {
+				public void execute(final Runnable command) {
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								latch.await();
+							} catch (InterruptedException e) {
+								return;
+							}
+							command.run();
+						}
+					});
+				}
+			};
+			parser = new ExecutorTuneParser(held, true);
+			futures.clear();
+			for (int i = 0; i < 3; i++)
+				futures.add(parser.parse(((AbcTune) tb.getTune(refNumbers[i])).getAbcString()));
+			latch.countDown();
+			assertEquals(refNumbers[2], futures.get(2).get().getReferenceNumber());
+			assertTrue(futures.get(0).isCancelled());
+			assertTrue(futures.get(1).isCancelled());
+			assertEquals(0, parser.getPendingCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
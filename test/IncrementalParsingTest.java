@@ -0,0 +1,40 @@
+import junit.framework.TestCase;
+import abc.parser.AbcTune;
+import abc.parser.TuneParser;
+
+public class IncrementalParsingTest extends TestCase {
+
+	public IncrementalParsingTest(String name) {
+		super(name);
+	}
+
+	public void testIncremental() throws Exception {
+		String tune1 = "X:1\nT:first\nK:C\nabc|\n\n";
+		String tune2 = "X:2\nT:second\nK:C\ndef|\n";
+		TuneParser parser = new TuneParser();
+		AbcTune t = parser.parse(tune1 + tune2);
+		int size = t.getMusic().getFirstVoice().size();
+
+		//edit in the second tune, the first one is not parsed again
+		String text = tune1 + tune2.replaceFirst("def", "defg");
+		AbcTune t2 = parser.parse(text, tune1.length() + 20, 0, 1);
+		assertSame(t, t2);
+
+		//edit in the first tune
+		text = text.replaceFirst("abc", "abcd");
+		t2 = parser.parse(text, 19, 0, 1);
+		assertNotSame(t, t2);
+		AbcTune expected = new TuneParser().parse(text);
+		assertEquals(expected.getAbcString(), t2.getAbcString());
+		assertEquals(size + 1, t2.getMusic().getFirstVoice().size());
+		assertEquals(expected.getMusic().getFirstVoice().size(),
+				t2.getMusic().getFirstVoice().size());
+
+		//insertion of a new tune before the X: of the second one
+		text = tune1 + "X:3\nK:C\nc\n\n" + tune2;
+		t2 = parser.parse(text, tune1.length(), 0, 11);
+		assertEquals(1, t2.getReferenceNumber());
+		assertEquals(tune1, t2.getAbcString());
+	}
+
+}
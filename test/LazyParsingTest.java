@@ -0,0 +1,47 @@
+import java.io.File;
+
+import junit.framework.TestCase;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.parser.AbcTune;
+import abc.parser.TuneBookParser;
+
+public class LazyParsingTest extends TestCase {
+
+	public LazyParsingTest(String name) {
+		super(name);
+	}
+
+	public void testLazy() throws Exception {
+		File f = new File("../ressources/testPlan.abc");
+		TuneBook tb = new TuneBookParser().parse(f);
+		TuneBook lazy = new TuneBookParser().parseLazy(f, 2);
+		int[] refNumbers = tb.getReferenceNumbers();
+		assertEquals(refNumbers.length, lazy.size());
+		for (int i = 0; i < refNumbers.length; i++) {
+			Tune expected = tb.getTune(refNumbers[i]);
+			Tune t = lazy.getTune(refNumbers[i]);
+			assertEquals(expected.getKey().toLitteralNotation(),
+					t.getKey().toLitteralNotation());
+			//the source of a lazy tune runs up to the next X: field
+			assertTrue(((AbcTune) t).getAbcString().startsWith(
+					((AbcTune) expected).getAbcString()));
+			assertEquals(expected.getMusic().getFirstVoice().size(),
+					t.getMusic().getFirstVoice().size());
+		}
+		//music of the first tune has been dropped from the cache
+		Tune expected = tb.getTune(refNumbers[0]);
+		Tune t = lazy.getTune(refNumbers[0]);
+		assertEquals(expected.getMusic().getFirstVoice().size(),
+				t.getMusic().getFirstVoice().size());
+		assertSame(t.getMusic(), t.getMusic());
+		//copies get the music, not only the header
+		Tune copy = new Tune(t);
+		assertEquals(expected.getMusic().getFirstVoice().size(),
+				copy.getMusic().getFirstVoice().size());
+		copy = new AbcTune(t);
+		assertEquals(expected.getMusic().getFirstVoice().size(),
+				copy.getMusic().getFirstVoice().size());
+	}
+
+}
@@ -0,0 +1,68 @@
+import java.io.File;
+
+import junit.framework.TestCase;
+import abc.notation.Music;
+import abc.notation.MusicElement;
+import abc.notation.TuneBook;
+import abc.notation.Voice;
+import abc.parser.CharStreamPosition;
+import abc.parser.TuneBookParser;
+
+public class MusicTest extends TestCase {
+
+	public MusicTest(String name) {
+		super(name);
+	}
+
+	public void testStreamPositions() throws Exception {
+		String[] files = { "testPlan.abc", "LGtunes.abc" };
+		for (int f = 0; f < files.length; f++) {
+			TuneBook tb = new TuneBookParser().parse(
+					new File("../ressources/" + files[f]));
+			int[] refNumbers = tb.getReferenceNumbers();
+			for (int i = 0; i < refNumbers.length; i++) {
+				Music music = tb.getTune(refNumbers[i]).getMusic();
+				int max = 0;
+				for (Voice v : music.getVoices())
+					for (int j = 0; j < v.size(); j++)
+						if (v.elementAt(j).getCharStreamPosition() != null)
+							max = Math.max(max, v.elementAt(j)
+									.getCharStreamPosition().getEndIndex());
+				for (int offset = -1; offset <= max + 1; offset++)
+					assertSame(elementAt(music, offset), music
+							.getElementAtStreamPosition(offset));
+			}
+		}
+		//the index is built again when a voice changes
+		TuneBook tb = new TuneBookParser().parse(
+				new File("../ressources/testPlan.abc"));
+		Voice parsed = tb.getTune(tb.getReferenceNumbers()[0]).getMusic()
+				.getFirstVoice();
+		MusicElement first = parsed.elementAt(0), last = parsed
+				.elementAt(parsed.size() - 1);
+		int firstStart = first.getCharStreamPosition().getStartIndex();
+		int lastStart = last.getCharStreamPosition().getStartIndex();
+		Music music = new Music();
+		music.addElement("1", first);
+		assertSame(first, music.getElementAtStreamPosition(firstStart));
+		assertNull(music.getElementAtStreamPosition(lastStart));
+		music.addElement("2", last);
+		assertSame(last, music.getElementAtStreamPosition(lastStart));
+		music.getVoice("1").removeElementAt(0);
+		assertNull(music.getElementAtStreamPosition(firstStart));
+	}
+	
+	/** The first element at offset, scanning the voices */
+	private static MusicElement elementAt(Music music, int offset) {
+		for (Voice v : music.getVoices()) {
+			for (int i = 0; i < v.size(); i++) {
+				CharStreamPosition pos = v.elementAt(i).getCharStreamPosition();
+				if ((pos != null) && (pos.getStartIndex() <= offset)
+						&& (pos.getEndIndex() > offset))
+					return v.elementAt(i);
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,49 @@
+import java.io.File;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.AbcTune;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+public class ParallelParsingTest extends TestCase {
+
+	public ParallelParsingTest(String name) {
+		super(name);
+	}
+
+	public void testParallel() throws Exception {
+		File f = new File("../ressources/testPlan.abc");
+		final Vector<Tune> tunes = new Vector<Tune>();
+		final Vector<Tune> parallelTunes = new Vector<Tune>();
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				tunes.add(tune);
+			}
+		});
+		TuneBookParser parallelParser = new TuneBookParser();
+		parallelParser.addListener(new TuneBookParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				parallelTunes.add(tune);
+			}
+		});
+		TuneBook tb = parser.parse(f);
+		TuneBook parallel = parallelParser.parseParallel(f);
+		assertEquals(tb.size(), parallel.size());
+		assertEquals(tunes.size(), parallelTunes.size());
+		for (int i = 0; i < tunes.size(); i++) {
+			Tune expected = (Tune) tunes.elementAt(i);
+			Tune t = (Tune) parallelTunes.elementAt(i);
+			assertEquals(expected.getReferenceNumber(), t.getReferenceNumber());
+			assertEquals(expected.getMusic().getFirstVoice().size(),
+					t.getMusic().getFirstVoice().size());
+			assertEquals(((AbcTune) expected).getAbcString(),
+					((AbcTune) t).getAbcString());
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import abc.notation.KeySignature;
+import abc.notation.MusicElement;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.notation.TuneInfos;
+import abc.notation.Voice;
+import abc.parser.AbcNode;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+public class ParseHeadersTest extends TestCase {
+
+	public ParseHeadersTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Headers read by parseHeaders are the ones of a full parse
+	 */
+	public void testHeadersOfFullParse() throws Exception {
+		String[] files = { "testPlan.abc", "LGtunes.abc", "OneillDos.abc",
+				"crash.abc" };
+		for (int f = 0; f < files.length; f++) {
+			File file = new File("../ressources/" + files[f]);
+			TuneBook headers = new TuneBookParser().parseHeaders(file);
+			TuneBookParser parser = new TuneBookParser();
+			final Set<Integer> errors = new TreeSet<Integer>();
+			parser.addListener(new TuneBookParserAdapter() {
+				public void tuneEnd(Tune tune, AbcNode abcRoot) {
+					if ((abcRoot != null) && abcRoot.hasError())
+						errors.add(Integer.valueOf(tune.getReferenceNumber()));
+				}
+			});
+			TuneBook full = parser.parse(file);
+			int[] refNumbers = full.getReferenceNumbers();
+			assertEquals(files[f], refNumbers.length, headers.size());
+			for (int i = 0; i < refNumbers.length; i++) {
+				Tune expected = full.getTune(refNumbers[i]);
+				Tune tune = headers.getTune(refNumbers[i]);
+				assertNotNull(files[f] + " X:" + refNumbers[i], tune);
+				for (byte b = TuneInfos.AREA; b <= TuneInfos.WORDS; b++) {
+					//words are usually after the music
+					if (b == TuneInfos.WORDS)
+						continue;
+					assertEquals(files[f] + " X:" + refNumbers[i],
+							expected.getTuneInfos().getAsCollection(b),
+							tune.getTuneInfos().getAsCollection(b));
+				}
+				//error recovery may move the K: field into the music
+				if (!errors.contains(Integer.valueOf(refNumbers[i])))
+					assertEquals(files[f] + " X:" + refNumbers[i],
+							String.valueOf(firstKey(expected)),
+							String.valueOf(tune.getKey()));
+			}
+		}
+	}
+
+	/** The key of the header, the music may change it */
+	private static KeySignature firstKey(Tune tune) {
+		Voice voice = tune.getMusic().getFirstVoice();
+		for (int i = 0; i < voice.size(); i++) {
+			MusicElement element = voice.elementAt(i);
+			if (element instanceof KeySignature)
+				return (KeySignature) element;
+		}
+		return null;
+	}
+
+	/**
+	 * A X: line inside a text block doesn't start a tune
+	 */
+	public void testTextBlock() {
+		String book = "X:1\nT:a\nK:C\nabc\n\n"
+			+ "%%begintext\nX:2 is not a tune\n%%endtext\n\n"
+			+ "X:3\nT:b\nK:C\ncde\n";
+		TuneBook tb = new TuneBookParser().parse(book);
+		assertEquals(2, tb.size());
+		assertNotNull(tb.getTune(1));
+		assertNull(tb.getTune(2));
+		assertNotNull(tb.getTune(3));
+		tb = new TuneBookParser().parseHeaders(book);
+		assertEquals(2, tb.size());
+		assertNull(tb.getTune(2));
+		assertEquals("b", tb.getTune(3).getTuneInfos().get(TuneInfos.TITLE));
+	}
+
+}
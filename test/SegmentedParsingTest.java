@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.AbcTokens;
+import abc.parser.CharStreamPosition;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+import abc.parser.TuneParserAdapter;
+
+public class SegmentedParsingTest extends TestCase {
+
+	private static final String BOOK = "%%book header\nZ:me\n\n"
+		+ "X:1\nT:One\nK:C\nab|\n\n"
+		+ "X:2\nT:Two\nK:G\nc }} d|\n\n"
+		+ "X:3\nT:Three\nK:D\nef|\n";
+
+	public SegmentedParsingTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Parsing trees of tunes, parsed segment by segment, have their spans
+	 * in the whole tune book
+	 */
+	public void testTuneSpans() {
+		final List<AbcNode> tunes = new ArrayList<AbcNode>();
+		final AbcNode[] root = new AbcNode[1];
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				tunes.add(abcRoot);
+			}
+			public void tuneBookEnd(TuneBook tb, AbcNode abcRoot) {
+				root[0] = abcRoot;
+			}
+		});
+		parser.parse(BOOK);
+		assertTuneSpans(tunes);
+		assertEquals(BOOK, root[0].getValue());
+		List<AbcNode> childs = root[0].getChilds();
+		assertEquals(4, childs.size());
+		assertEquals(AbcTokens.AbcTuneBookHeader, childs.get(0).getLabel());
+		assertEquals(BOOK.substring(0, BOOK.indexOf("X:1")),
+				childs.get(0).getValue());
+		assertEquals(tunes, childs.subList(1, 4));
+		assertTrue(root[0].hasError());
+		assertFalse(tunes.get(0).hasError());
+		assertTrue(tunes.get(1).hasError());
+		assertFalse(tunes.get(2).hasError());
+	}
+
+	/**
+	 * Without tune book listener, trees given to tune listeners keep their
+	 * spans
+	 */
+	public void testTuneSpansWithoutBookListener() {
+		final List<AbcNode> tunes = new ArrayList<AbcNode>();
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				tunes.add(abcRoot);
+			}
+		});
+		assertEquals(3, parser.parse(BOOK).size());
+		assertTuneSpans(tunes);
+		tunes.clear();
+		assertEquals(3, parser.parseParallel(BOOK).size());
+		assertTuneSpans(tunes);
+		//no listener at all, nothing is kept but tunes are the same
+		assertEquals(3, new TuneBookParser().parse(BOOK).size());
+		assertEquals(3, new TuneBookParser().parseParallel(BOOK).size());
+	}
+
+	private static void assertTuneSpans(List<AbcNode> tunes) {
+		assertEquals(3, tunes.size());
+		for (int i = 0; i < tunes.size(); i++) {
+			AbcNode tune = tunes.get(i);
+			int start = BOOK.indexOf("X:" + (i + 1));
+			int end = (i < 2) ? BOOK.indexOf("X:" + (i + 2)) : BOOK.length();
+			CharStreamPosition position = tune.getCharStreamPosition();
+			assertEquals(AbcTokens.AbcTune, tune.getLabel());
+			assertEquals(start, position.getStartIndex());
+			assertEquals(end, position.getEndIndex());
+			assertEquals(lineOf(start), position.getLine());
+			assertEquals(BOOK.substring(start, end), tune.getValue());
+			AbcNode digits = tune.getChild("AbcHeader/FieldNumber/DIGITS");
+			assertEquals(String.valueOf(i + 1), digits.getValue());
+			assertEquals(start + 2, digits.getCharStreamPosition()
+					.getStartIndex());
+		}
+	}
+
+	/** Line of the char at index, first line is 1 */
+	private static int lineOf(int index) {
+		int line = 1;
+		for (int i = 0; i < index; i++) {
+			if (BOOK.charAt(i) == '\n')
+				line++;
+		}
+		return line;
+	}
+
+}
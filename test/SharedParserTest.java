@@ -0,0 +1,71 @@
+import java.io.File;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import abc.notation.Note;
+import abc.notation.TuneBook;
+import abc.parser.AbcTune;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneParser;
+
+public class SharedParserTest extends TestCase {
+
+	public SharedParserTest(String name) {
+		super(name);
+	}
+
+	public void testSharedParser() throws Exception {
+		final TuneBook tb = new TuneBookParser().parse(
+				new File("../ressources/testPlan.abc"));
+		final int[] refNumbers = tb.getReferenceNumbers();
+		final TuneParser parser = new TuneParser();
+		final Vector<Throwable> failures = new Vector<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int first = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < refNumbers.length; j++) {
+							int ref = refNumbers[(first + j) % refNumbers.length];
+							AbcTune expected = (AbcTune) tb.getTune(ref);
+							AbcTune t = parser.parse(expected.getAbcString());
+							assertEquals(expected.getReferenceNumber(),
+									t.getReferenceNumber());
+							assertEquals(expected.getMusic().getFirstVoice().size(),
+									t.getMusic().getFirstVoice().size());
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+		if (failures.size() > 0)
+			throw new Exception((Throwable) failures.elementAt(0));
+	}
+
+	public void testInitNewTune() throws Exception {
+		final int[] calls = new int[1];
+		TuneParser parser = new TuneParser() {
+			@SuppressWarnings("deprecation")
+			protected void initNewTune() {
+				calls[0]++;
+				//each tune has its own context, even without super
+				assertNull(getNoteStartingTieFor(new Note(Note.C)));
+			}
+		};
+		AbcTune tune = parser.parse("X:1\nT:first\nK:C\nC-C D|\n");
+		assertEquals(1, calls[0]);
+		assertEquals("first", tune.getTitles()[0]);
+		tune = parser.parse("X:2\nT:second\nK:C\nE-E F|\n");
+		assertEquals(2, calls[0]);
+		assertEquals("second", tune.getTitles()[0]);
+		parser.parseHeader("X:3\nT:third\nK:C\n");
+		assertEquals(3, calls[0]);
+	}
+
+}
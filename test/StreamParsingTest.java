@@ -0,0 +1,42 @@
+import java.io.File;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.AbcTune;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+public class StreamParsingTest extends TestCase {
+
+	public StreamParsingTest(String name) {
+		super(name);
+	}
+
+	public void testStream() throws Exception {
+		File f = new File("../ressources/testPlan.abc");
+		final Vector<Tune> tunes = new Vector<Tune>();
+		TuneBookParser parser = new TuneBookParser();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneEnd(Tune tune, AbcNode abcRoot) {
+				tunes.add(tune);
+			}
+		});
+		TuneBook streamed = parser.parseStream(f);
+		assertEquals(0, streamed.size());
+		TuneBook tb = new TuneBookParser().parse(f);
+		assertEquals(tb.size(), tunes.size());
+		for (int i = 0; i < tunes.size(); i++) {
+			Tune t = (Tune) tunes.elementAt(i);
+			Tune expected = tb.getTune(t.getReferenceNumber());
+			assertNotNull(expected);
+			assertEquals(expected.getMusic().getFirstVoice().size(),
+					t.getMusic().getFirstVoice().size());
+			assertEquals(((AbcTune) expected).getAbcString(),
+					((AbcTune) t).getAbcString());
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+import java.io.File;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import abc.notation.TuneBook;
+import abc.parser.AbcNode;
+import abc.parser.AbcParseError;
+import abc.parser.AbcTune;
+import abc.parser.TuneBookParser;
+import abc.parser.TuneBookParserAdapter;
+
+public class StrictParsingTest extends TestCase {
+
+	public StrictParsingTest(String name) {
+		super(name);
+	}
+
+	public void testStrict() throws Exception {
+		File f = new File("../ressources/testPlan.abc");
+		TuneBookParser parser = new TuneBookParser();
+		parser.setRecovering(false);
+		assertFalse(parser.isRecovering());
+		TuneBook tb = new TuneBookParser().parse(f);
+		TuneBook strict = parser.parse(f);
+		//tunes with errors are dropped, others are the same
+		assertTrue(strict.size() < tb.size());
+		int[] refNumbers = strict.getReferenceNumbers();
+		for (int i = 0; i < refNumbers.length; i++) {
+			AbcTune t = (AbcTune) strict.getTune(refNumbers[i]);
+			AbcTune expected = (AbcTune) tb.getTune(refNumbers[i]);
+			assertEquals(expected.getAbcString(), t.getAbcString());
+			assertEquals(expected.getMusic().getFirstVoice().size(),
+					t.getMusic().getFirstVoice().size());
+		}
+
+		final Vector<AbcNode> roots = new Vector<AbcNode>();
+		parser.addListener(new TuneBookParserAdapter() {
+			public void tuneBookEnd(TuneBook tuneBook, AbcNode abcRoot) {
+				roots.add(abcRoot);
+			}
+		});
+		strict = parser.parse("X:1\nT:ok\nK:C\nabc|\n\n"
+				+ "X:2\nT:ko\nK:C\nabc B\\ceg|\n\n"
+				+ "X:3\nT:ok\nK:C\ndef|\n");
+		assertEquals(2, strict.size());
+		assertNull(strict.getTune(2));
+		AbcNode root = (AbcNode) roots.elementAt(0);
+		assertEquals(1, root.getErrors().size());
+		AbcParseError error = (AbcParseError) root.getErrors().get(0);
+		assertEquals(9, error.getCharStreamPosition().getLine());
+		assertEquals(7, error.getCharStreamPosition().getColumn());
+	}
+
+}
@@ -11,7 +11,6 @@ import abc.parser.TuneParser;
 
 public class TieTest extends TestCase {
 	
-	//TODO parser crash after error and doesn't parse next tunes, #13 or #14 should have problem
 	private static final String FILE_NAME = "../ressources/crash.abc";
 	
 	public TieTest(String name) {
@@ -36,8 +35,8 @@ public class TieTest extends TestCase {
 			assertTrue(secondNote.isTied());
 			assertFalse(firstNote.isPartOfSlur());
 			assertFalse(secondNote.isPartOfSlur());
-			assertNull(firstNote.getSlurDefinitions().firstElement());
-			assertNull(secondNote.getSlurDefinitions().firstElement());
+			assertTrue(firstNote.getSlurDefinitions().isEmpty());
+			assertTrue(secondNote.getSlurDefinitions().isEmpty());
 			assertNotNull(firstNote.getTieDefinition());
 			assertNotNull(secondNote.getTieDefinition());
 			assertEquals(secondNote.getTieDefinition().getStart(), firstNote.getReference());
@@ -62,8 +61,8 @@ public class TieTest extends TestCase {
 			assertFalse(secondNote.isTied());
 			assertFalse(firstNote.isPartOfSlur());
 			assertFalse(secondNote.isPartOfSlur());
-			assertNull(firstNote.getSlurDefinitions().firstElement());
-			assertNull(secondNote.getSlurDefinitions().firstElement());
+			assertTrue(firstNote.getSlurDefinitions().isEmpty());
+			assertTrue(secondNote.getSlurDefinitions().isEmpty());
 			assertNotNull(firstNote.getTieDefinition());
 			assertNull(secondNote.getTieDefinition());
 		}
@@ -85,8 +84,8 @@ public class TieTest extends TestCase {
 			assertTrue(secondNote.isTied());
 			assertFalse(firstNote.isPartOfSlur());
 			assertFalse(secondNote.isPartOfSlur());
-			assertNull(firstNote.getSlurDefinitions().firstElement());
-			assertNull(secondNote.getSlurDefinitions().firstElement());
+			assertTrue(firstNote.getSlurDefinitions().isEmpty());
+			assertTrue(secondNote.getSlurDefinitions().isEmpty());
 			assertNotNull(firstNote.getTieDefinition());
 			assertNotNull(secondNote.getTieDefinition());
 			assertEquals(secondNote.getTieDefinition().getStart(), firstNote.getReference());
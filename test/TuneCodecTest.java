@@ -0,0 +1,204 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.notation.TuneCodec;
+import abc.parser.TuneBookParser;
+
+public class TuneCodecTest extends TestCase {
+
+	public TuneCodecTest(String name) {
+		super(name);
+	}
+
+	public void testTuneCodec() throws Exception {
+		String[] files = { "testPlan.abc", "LGtunes.abc", "OneillDos.abc" };
+		TuneCodec codec = new TuneCodec();
+		for (int i = 0; i < files.length; i++) {
+			TuneBook tb = new TuneBookParser().parse(
+					new File("../ressources/" + files[i]));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			codec.write(tb, out);
+			byte[] data = out.toByteArray();
+			TuneBook read = codec.readTuneBook(new ByteArrayInputStream(data));
+			assertEquals(tb.size(), read.size());
+			assertDeepEquals(tb.getBookInfos(), read.getBookInfos());
+			assertDeepEquals(tb.getInstructions(), read.getInstructions());
+			int[] refNumbers = tb.getReferenceNumbers();
+			for (int j = 0; j < refNumbers.length; j++)
+				assertSameTune(tb.getTune(refNumbers[j]),
+						read.getTune(refNumbers[j]));
+			//much smaller than the serialized book
+			ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(serialized);
+			oos.writeObject(tb);
+			oos.close();
+			assertTrue(data.length * 4 < serialized.size());
+		}
+		//a tune alone keeps the infos of its book
+		TuneBook tb = new TuneBookParser().parse(
+				new File("../ressources/testPlan.abc"));
+		Tune tune = tb.getTune(tb.getReferenceNumbers()[0]);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.write(tune, out);
+		out.write(42);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		assertSameTune(tune, codec.readTune(in));
+		assertEquals(42, in.read());
+		//other versions and truncated data are rejected
+		byte[] data = out.toByteArray();
+		data[3]++;
+		try {
+			codec.readTune(new ByteArrayInputStream(data));
+			fail();
+		} catch (IOException e) {
+		}
+		data[3]--;
+		try {
+			codec.readTune(new ByteArrayInputStream(data, 0, data.length / 2));
+			fail();
+		} catch (EOFException e) {
+		}
+	}
+	
+	/** Corrupt data is rejected with an IOException, whatever its values */
+	public void testCorruptData() throws Exception {
+		TuneCodec codec = new TuneCodec();
+		//a length of about 2 GB in a 10 bytes input
+		byte[] header = { 'A', 'B', 'C', TuneCodec.VERSION, 1,
+				(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 };
+		try {
+			codec.readTune(new ByteArrayInputStream(header));
+			fail();
+		} catch (EOFException e) {
+		}
+		//a negative count of tune infos
+		byte[] negative = { 'A', 'B', 'C', TuneCodec.VERSION, 1, 7, 0, 0,
+				(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f };
+		try {
+			codec.readTune(new ByteArrayInputStream(negative));
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid count"));
+		}
+		Tune tune = new TuneBookParser().parse("X:1\nT:Corrupt\nK:Am\n"
+				+ "!trill!(3\"Am\"A/B/c (de) f2-|f[ce]{g}a ^g2:|\n").getTune(1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		codec.write(tune, out);
+		byte[] data = out.toByteArray();
+		byte[] values = { 0, 1, 0x7f, (byte) 0x80, (byte) 0xff };
+		for (int i = 0; i < data.length; i++) {
+			byte b = data[i];
+			for (int j = 0; j < values.length; j++) {
+				data[i] = values[j];
+				try {
+					codec.readTune(new ByteArrayInputStream(data));
+				} catch (IOException e) {
+				}
+			}
+			data[i] = b;
+			try {
+				codec.readTune(new ByteArrayInputStream(data, 0, i));
+				fail();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/** Compares the parts, infos and instructions of two tunes */
+	private static void assertSameTune(Tune expected, Tune actual) {
+		assertEquals(expected.getReferenceNumber(), actual.getReferenceNumber());
+		assertDeepEquals(expected.getTuneInfos(), actual.getTuneInfos());
+		assertDeepEquals(expected.getInstructions(), actual.getInstructions());
+		assertDeepEquals(expected.getMusic(), actual.getMusic());
+		assertDeepEquals(expected.getMultiPartsDefinition(),
+				actual.getMultiPartsDefinition());
+	}
+	
+	private static void assertDeepEquals(Object expected, Object actual) {
+		String diff = deepDiff(expected, actual, "",
+				new IdentityHashMap<Object, Object>());
+		assertNull(diff, diff);
+	}
+	
+	/**
+	 * Compares the non transient fields of two object graphs, empty and
+	 * null collections being equal, returns the path of the first
+	 * difference or null.
+	 */
+	private static String deepDiff(Object a, Object b, String path,
+			IdentityHashMap<Object, Object> visited) {
+		if ((a instanceof Collection) && ((Collection) a).isEmpty())
+			a = null;
+		if ((b instanceof Collection) && ((Collection) b).isEmpty())
+			b = null;
+		if ((a == null) || (b == null))
+			return (a == b) ? null : path + ": " + a + " != " + b;
+		if ((a instanceof Number) || (a instanceof String)
+				|| (a instanceof Boolean) || (a instanceof Character)
+				|| (a instanceof Class))
+			return a.equals(b) ? null : path + ": " + a + " != " + b;
+		if (visited.get(a) == b)
+			return null;
+		visited.put(a, b);
+		if (a.getClass().isArray()) {
+			if (!b.getClass().isArray() || (Array.getLength(a) != Array.getLength(b)))
+				return path + ": arrays differ";
+			for (int i = 0; i < Array.getLength(a); i++) {
+				String diff = deepDiff(Array.get(a, i), Array.get(b, i),
+						path + "[" + i + "]", visited);
+				if (diff != null)
+					return diff;
+			}
+			return null;
+		}
+		if (a instanceof Map) {
+			if (!(b instanceof Map) || (((Map) a).size() != ((Map) b).size()))
+				return path + ": maps differ";
+			for (Object key : ((Map) a).keySet()) {
+				String diff = deepDiff(((Map) a).get(key), ((Map) b).get(key),
+						path + "{" + key + "}", visited);
+				if (diff != null)
+					return diff;
+			}
+			return null;
+		}
+		if (a instanceof Collection) {
+			return deepDiff(((Collection) a).toArray(),
+					((Collection) b).toArray(), path, visited);
+		}
+		if (a.getClass() != b.getClass())
+			return path + ": " + a.getClass() + " != " + b.getClass();
+		for (Class c = a.getClass(); c != Object.class; c = c.getSuperclass()) {
+			Field[] fields = c.getDeclaredFields();
+			for (int i = 0; i < fields.length; i++) {
+				int mod = fields[i].getModifiers();
+				if (Modifier.isStatic(mod) || Modifier.isTransient(mod))
+					continue;
+				try {
+					fields[i].setAccessible(true);
+					String diff = deepDiff(fields[i].get(a), fields[i].get(b),
+							path + "." + fields[i].getName(), visited);
+					if (diff != null)
+						return diff;
+				} catch (IllegalAccessException e) {
+					return path + ": " + e;
+				}
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,77 @@
+import junit.framework.TestCase;
+import abc.notation.Note;
+import abc.notation.Voice;
+import abc.parser.AbcTune;
+import abc.parser.AbcTuneBook;
+import abc.parser.TuneParseCache;
+import abc.parser.TuneParser;
+
+public class TuneParseCacheTest extends TestCase {
+
+	public TuneParseCacheTest(String name) {
+		super(name);
+	}
+
+	public void testParseCache() throws Exception {
+		String abc = "X:1\nT:One\nK:C\nabc|\n";
+		TuneParseCache cache = new TuneParseCache(2, 1000);
+		TuneParser parser = new TuneParser();
+		parser.setCache(cache);
+		AbcTune t1 = parser.parse(abc);
+		AbcTune t2 = parser.parse(abc);
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertNotSame(t1, t2);
+		assertEquals(t1.getAbcString(), t2.getAbcString());
+		assertEquals(t1.getMusic().getFirstVoice().size(),
+				t2.getMusic().getFirstVoice().size());
+		AbcTuneBook book = new AbcTuneBook();
+		book.putTune(abc, cache);
+		assertEquals(2, cache.getHitCount());
+		//the least recently used tune is removed
+		book.putTune("X:2\nT:Two\nK:G\ncd|\n", cache);
+		book.putTune("X:3\nT:Three\nK:D\nef|\n", cache);
+		assertEquals(2, cache.size());
+		assertEquals(3, book.size());
+		parser.parse(abc);
+		assertEquals(2, cache.getHitCount());
+		assertEquals(4, cache.getMissCount());
+	}
+
+
+	/** Tunes given by the cache don't share what callers may change */
+	public void testCachedTunesAreNotShared() throws Exception {
+		String abc = "X:1\nT:One\nK:C\nabc|\n";
+		TuneParseCache cache = new TuneParseCache();
+		TuneParser parser = new TuneParser();
+		parser.setCache(cache);
+		AbcTune t1 = parser.parse(abc);
+		int size = t1.getMusic().getFirstVoice().size();
+		t1.getMusic().getFirstVoice().removeElementAt(size - 1);
+		AbcTune t2 = parser.parse(abc);
+		assertEquals(1, cache.getHitCount());
+		Voice voice = t2.getMusic().getFirstVoice();
+		assertEquals(size, voice.size());
+		assertFalse(voice.isFrozen());
+		Note note = (Note) voice.elementAt(2);
+		byte height = note.getHeight();
+		note.setHeight(Note.G);
+		voice.removeElementAt(0);
+		AbcTune t3 = parser.parse(abc);
+		assertEquals(size, t3.getMusic().getFirstVoice().size());
+		assertEquals(height, ((Note) t3.getMusic().getFirstVoice()
+				.elementAt(2)).getHeight());
+		//freezing is an option of the key, frozen tunes are cached apart
+		parser.setFreezing(true);
+		AbcTune frozen = parser.parse(abc);
+		assertEquals(2, cache.getMissCount());
+		assertTrue(frozen.getMusic().getFirstVoice().isFrozen());
+		frozen = parser.parse(abc);
+		assertEquals(3, cache.getHitCount());
+		assertTrue(frozen.getMusic().getFirstVoice().isFrozen());
+		parser.setFreezing(false);
+		assertFalse(parser.parse(abc).getMusic().getFirstVoice().isFrozen());
+		assertEquals(2, cache.size());
+	}
+
+}
@@ -0,0 +1,307 @@
+import java.io.File;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import abc.notation.Accidental;
+import abc.notation.BarLine;
+import abc.notation.MultiNote;
+import abc.notation.MusicElement;
+import abc.notation.Note;
+import abc.notation.NoteAbstract;
+import abc.notation.PositionableInTime;
+import abc.notation.Tune;
+import abc.notation.TuneBook;
+import abc.notation.Voice;
+import abc.parser.TuneBookParser;
+
+public class VoiceTest extends TestCase {
+
+	public VoiceTest(String name) {
+		super(name);
+	}
+
+	public void testTimePositions() throws Exception {
+		TuneBook tb = new TuneBookParser().parse(
+				new File("../ressources/testPlan.abc"));
+		int[] refNumbers = tb.getReferenceNumbers();
+		for (int i = 0; i < refNumbers.length; i++) {
+			Voice voice = tb.getTune(refNumbers[i]).getMusic().getFirstVoice();
+			assertTimePositions(voice);
+			//the timeline is built again after deserialization
+			java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+			java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes);
+			out.writeObject(voice);
+			out.close();
+			assertTimePositions((Voice) new java.io.ObjectInputStream(
+					new java.io.ByteArrayInputStream(bytes.toByteArray()))
+					.readObject());
+			//a change of duration moves the next elements
+			for (MusicElement me : voice) {
+				if ((me instanceof Note) && !((Note) me).isRest()) {
+					((Note) me).setDotted((byte) (((Note) me).countDots() + 1));
+					break;
+				}
+			}
+			assertTimePositions(voice);
+		}
+		//no recursion on long voices
+		Voice voice = new Voice("1");
+		for (int i = 0; i < 100000; i++) {
+			voice.addElement(new Note(Note.C));
+			if (i % 4 == 3)
+				voice.addElement(new BarLine());
+		}
+		PositionableInTime last = (PositionableInTime) voice.lastElement();
+		assertEquals(25000, last.getPositionInBars());
+		assertEquals(1, ((PositionableInTime) voice.elementAt(0)).getPositionInBars());
+		assertEquals(100000 * Note.EIGHTH + 1, last.getPositionInUnitsFromBeginning());
+		//notes of a multi note are at the position of the multi note
+		voice = new Voice("1");
+		voice.addElement(new Note(Note.C));
+		Vector<Note> notes = new Vector<Note>();
+		notes.add(new Note(Note.E));
+		notes.add(new Note(Note.G));
+		MultiNote chord = new MultiNote(notes);
+		voice.addElement(chord);
+		assertEquals(Note.EIGHTH + 1, chord.getPositionInUnits());
+		for (Note note : notes)
+			assertEquals(Note.EIGHTH + 1, note.getPositionInUnits());
+	}
+	
+	/** Checks the positions against sums of the previous durations */
+	private static void assertTimePositions(Voice voice) {
+		//elements of repeated parts are positioned at their last occurrence
+		Set<MusicElement> elements = java.util.Collections.newSetFromMap(
+				new IdentityHashMap<MusicElement, Boolean>());
+		for (MusicElement me : voice)
+			if (!elements.add(me))
+				return;
+		PositionableInTime previous = null;
+		int bars = 0, units = 0, fromBeginning = 0;
+		for (MusicElement me : voice) {
+			if (!(me instanceof PositionableInTime))
+				continue;
+			PositionableInTime pit = (PositionableInTime) me;
+			if (previous == null) {
+				boolean bar = pit instanceof BarLine;
+				bars = bar ? 0 : Math.max(1, pit.getDurationInBars());
+				units = fromBeginning = bar ? 0 : 1;
+			} else {
+				bars += previous.getDurationInBars();
+				units = (previous instanceof BarLine) ? 1 : units
+						+ previous.getDuration();
+				fromBeginning += previous.getDuration();
+			}
+			assertEquals(bars, pit.getPositionInBars());
+			assertEquals(units, pit.getPositionInUnits());
+			assertEquals(fromBeginning, pit.getPositionInUnitsFromBeginning());
+			previous = pit;
+		}
+	}
+	
+	public void testFrozenVoice() throws Exception {
+		File f = new File("../ressources/testPlan.abc");
+		TuneBook tb = new TuneBookParser().parse(f);
+		//not frozen by default
+		assertFalse(tb.getTune(tb.getReferenceNumbers()[0]).getMusic()
+				.getFirstVoice().isFrozen());
+		TuneBookParser parser = new TuneBookParser();
+		parser.setFreezing(true);
+		tb = parser.parse(f);
+		Tune tune = tb.getTune(tb.getReferenceNumbers()[0]);
+		Voice voice = tune.getMusic().getFirstVoice();
+		assertTrue(voice.isFrozen());
+		int size = voice.size();
+		try {
+			voice.addElement(new BarLine());
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			java.util.Iterator<MusicElement> it = voice.iterator();
+			it.next();
+			it.remove();
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			voice.subList(0, 1).clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			voice.listIterator(size).add(new BarLine());
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+		assertEquals(size, voice.size());
+		//reads don't need the lock
+		MusicElement last = voice.lastElement();
+		assertEquals(size - 1, voice.lastIndexOf(last));
+		assertTrue(voice.contains(last));
+		assertSame(last, voice.toArray()[size - 1]);
+		assertSame(last, voice.listIterator(size).previous());
+		assertEquals(size, voice.stream().count());
+		//copies can be changed
+		Voice copy = (Voice) voice.clone();
+		assertFalse(copy.isFrozen());
+		copy.addElement(new BarLine());
+		java.util.Iterator<MusicElement> it = copy.iterator();
+		for (int i = 0; i < size; i++)
+			assertSame(voice.elementAt(i), it.next());
+		it.next();
+		it.remove();
+		assertFalse(it.hasNext());
+		assertEquals(size, copy.size());
+		assertNotNull(Tune.transpose(tune, 2));
+	}
+	
+	public void testNoteIndexes() throws Exception {
+		TuneBook tb = new TuneBookParser().parse(
+				new File("../ressources/testPlan.abc"));
+		int[] refNumbers = tb.getReferenceNumbers();
+		for (int i = 0; i < refNumbers.length; i++) {
+			Tune tune = tb.getTune(refNumbers[i]);
+			Voice voice = tune.getMusic().getFirstVoice();
+			for (int j = 0; j < voice.size(); j++) {
+				MusicElement me = voice.elementAt(j);
+				if (me instanceof NoteAbstract)
+					assertEquals(firstIndexOf(voice, me), voice.indexOf(me));
+				if (me instanceof MultiNote) {
+					Note[] notes = ((MultiNote) me).toArray();
+					for (int k = 0; k < notes.length; k++)
+						assertEquals(firstIndexOf(voice, me), voice.indexOf(notes[k]));
+				}
+			}
+			//references of the elements of the parts' voices
+			Voice partVoice = tune.getMusicForGraphicalRendition().getFirstVoice();
+			for (MusicElement me : partVoice)
+				assertSame(me, partVoice.getElementByReference(me.getReference()));
+		}
+		assertEquals(-1, new Voice("1").indexOf(new Note(Note.C)));
+		//index is built again after changes
+		Voice voice = new Voice("1");
+		Note c = new Note(Note.C), d = new Note(Note.D);
+		voice.addElement(c);
+		voice.addElement(d);
+		assertEquals(1, voice.indexOf(d));
+		voice.insertElementAt(new BarLine(), 0);
+		assertEquals(2, voice.indexOf(d));
+		voice.remove(c);
+		assertEquals(-1, voice.indexOf(c));
+		assertEquals(1, voice.indexOf(d));
+		//the reference of d has still x=1
+		assertSame(d, voice.getElementByReference(d.getReference()));
+	}
+	
+	/** Index of me in voice the way Voice.indexOf() did it */
+	private static int firstIndexOf(Voice voice, MusicElement me) {
+		for (int i = 0; i < voice.size(); i++) {
+			MusicElement e = voice.elementAt(i);
+			if ((e == me) || ((e instanceof MultiNote) && (me instanceof Note)
+					&& ((MultiNote) e).contains((Note) me)))
+				return i;
+		}
+		return -1;
+	}
+	
+	public void testHighestLowestNotes() throws Exception {
+		String[] files = { "testPlan.abc", "LGtunes.abc" };
+		java.util.Random random = new java.util.Random(1);
+		for (int f = 0; f < files.length; f++) {
+			TuneBook tb = new TuneBookParser().parse(
+					new File("../ressources/" + files[f]));
+			int[] refNumbers = tb.getReferenceNumbers();
+			for (int i = 0; i < refNumbers.length; i++) {
+				Voice voice = tb.getTune(refNumbers[i]).getMusic().getFirstVoice();
+				if (voice.size() == 0)
+					continue;
+				for (int j = 0; j < 20; j++) {
+					int a = random.nextInt(voice.size());
+					int b = a + random.nextInt(voice.size() - a);
+					MusicElement begin = voice.elementAt(a), end = voice.elementAt(b);
+					//repeated parts contain the same elements twice
+					if ((voice.indexOf(begin) != a) || (voice.indexOf(end) != b))
+						continue;
+					assertSame(extremeNote(voice, a, b, true),
+							voice.getHighestNoteBewteen(begin, end));
+					assertSame(extremeNote(voice, a, b, false),
+							voice.getLowestNoteBewteen(begin, end));
+				}
+			}
+		}
+	}
+	
+	/** Changing the height of a note changes the highest and lowest notes */
+	public void testChangedHeights() throws Exception {
+		Tune tune = new TuneBookParser().parse(
+				"X:1\nT:Heights\nK:C\nCDEF|GAB[ce]|\n").getTune(1);
+		Voice voice = tune.getMusic().getFirstVoice();
+		MusicElement begin = voice.elementAt(0);
+		MusicElement end = voice.lastElement();
+		Note d = null;
+		MultiNote ce = null;
+		for (int i = 0; i < voice.size(); i++) {
+			MusicElement element = voice.elementAt(i);
+			if ((d == null) && (element instanceof Note)
+					&& (((Note) element).getHeight() == Note.D))
+				d = (Note) element;
+			else if (element instanceof MultiNote)
+				ce = (MultiNote) element;
+		}
+		Voice clone = (Voice) voice.clone();
+		assertSame(ce, voice.getHighestNoteBewteen(begin, end));
+		assertSame(ce, clone.getHighestNoteBewteen(begin, end));
+		d.setHeight(Note.g);
+		assertSame(d, voice.getHighestNoteBewteen(begin, end));
+		//the clone shares the notes
+		assertSame(d, clone.getHighestNoteBewteen(begin, end));
+		d.setOctaveTransposition((byte) -2);
+		assertSame(ce, voice.getHighestNoteBewteen(begin, end));
+		assertSame(d, voice.getLowestNoteBewteen(begin, end));
+		d.setOctaveTransposition((byte) 0);
+		assertNotSame(d, voice.getLowestNoteBewteen(begin, end));
+		//a flat makes a C lower than the C
+		assertEquals(Note.C, ((Note) voice.getLowestNoteBewteen(begin, end))
+				.getHeight());
+		Note e = ce.getHighestNote();
+		e.setHeight(Note.C);
+		e.setAccidental(Accidental.FLAT);
+		assertSame(ce, voice.getLowestNoteBewteen(begin, end));
+		for (int i = 0; i < voice.size(); i++)
+			for (int j = i; j < voice.size(); j++) {
+				assertSame(extremeNote(voice, i, j, true),
+						voice.getHighestNoteBewteen(voice.elementAt(i),
+								voice.elementAt(j)));
+				assertSame(extremeNote(voice, i, j, false),
+						voice.getLowestNoteBewteen(voice.elementAt(i),
+								voice.elementAt(j)));
+			}
+	}
+
+	/** The highest or lowest note between a and b, the first one if equal */
+	private static NoteAbstract extremeNote(Voice voice, int a, int b,
+			boolean highest) {
+		NoteAbstract ret = null;
+		int retHeight = 0;
+		for (int i = a; i <= b; i++) {
+			if (!(voice.elementAt(i) instanceof NoteAbstract))
+				continue;
+			NoteAbstract na = (NoteAbstract) voice.elementAt(i);
+			Note note = na instanceof MultiNote ? (highest ? ((MultiNote) na)
+					.getHighestNote() : ((MultiNote) na).getLowestNote())
+					: (Note) na;
+			if (note.isRest())
+				continue;
+			int height = note.getMidiLikeHeight();
+			if ((ret == null) || (highest ? height > retHeight : height < retHeight)) {
+				ret = na;
+				retHeight = height;
+			}
+		}
+		return ret;
+	}
+
+}